@@ -0,0 +1,89 @@
+package com.crescentflare.markdownparserbenchmark;
+
+import com.crescentflare.markdownparsercore.MarkdownBaseParser;
+import com.crescentflare.markdownparsercore.MarkdownTagBatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Markdown benchmark: batch parsing
+ * Measures parsing many small documents (like chat messages) one by one compared to parsing them as a single batch
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark
+{
+    /**
+     * Parameters
+     */
+    @Param({ "java", "native" })
+    public String parserType;
+
+    @Param({ "32", "128", "512" })
+    public int documentSize;
+
+    @Param({ "1000" })
+    public int documentCount;
+
+    @Param({ "medium" })
+    public String density;
+
+    @Param({ "ascii" })
+    public String charset;
+
+    /**
+     * Members
+     */
+    private MarkdownBaseParser parser;
+    private String[] markdownTexts;
+
+    /**
+     * Initialization
+     */
+    @Setup
+    public void setup()
+    {
+        MarkdownDocumentGenerator generator = new MarkdownDocumentGenerator(density, charset);
+        parser = ParserBenchmark.createParser(parserType);
+        markdownTexts = new String[documentCount];
+        for (int i = 0; i < documentCount; i++)
+        {
+            markdownTexts[i] = generator.generate(documentSize);
+        }
+    }
+
+    /**
+     * Benchmarks
+     */
+    @Benchmark
+    public void findTagBufferEach(Blackhole blackhole)
+    {
+        for (String markdownText : markdownTexts)
+        {
+            blackhole.consume(parser.findTagBuffer(markdownText));
+        }
+    }
+
+    @Benchmark
+    public MarkdownTagBatch findTagBatch()
+    {
+        return parser.findTagBatch(markdownTexts);
+    }
+}
@@ -0,0 +1,124 @@
+package com.crescentflare.markdownparserbenchmark;
+
+import com.crescentflare.markdownparsercore.MarkdownBaseParser;
+import com.crescentflare.markdownparsercore.MarkdownTag;
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Markdown benchmark: extraction
+ * Measures extracting text of all tags of a parsed document, the tags are found once during setup
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmark
+{
+    /**
+     * Parameters
+     */
+    @Param({ "java", "native" })
+    public String parserType;
+
+    @Param({ "100", "10000", "1000000" })
+    public int documentSize;
+
+    @Param({ "low", "high" })
+    public String density;
+
+    @Param({ "ascii", "multibyte" })
+    public String charset;
+
+    /**
+     * Members
+     */
+    private MarkdownBaseParser parser;
+    private String markdownText;
+    private MarkdownTag[] tags;
+    private MarkdownTagBuffer tagBuffer;
+    private StringBuilder output;
+
+    /**
+     * Initialization
+     */
+    @Setup
+    public void setup()
+    {
+        parser = ParserBenchmark.createParser(parserType);
+        markdownText = new MarkdownDocumentGenerator(density, charset).generate(documentSize);
+        tags = parser.findTags(markdownText);
+        tagBuffer = parser.findTagBuffer(markdownText);
+        output = new StringBuilder(markdownText.length());
+    }
+
+    /**
+     * Benchmarks
+     */
+    @Benchmark
+    public void extractText(Blackhole blackhole)
+    {
+        for (MarkdownTag tag : tags)
+        {
+            blackhole.consume(parser.extractText(markdownText, tag));
+        }
+    }
+
+    @Benchmark
+    public void extractFull(Blackhole blackhole)
+    {
+        for (MarkdownTag tag : tags)
+        {
+            blackhole.consume(parser.extractFull(markdownText, tag));
+        }
+    }
+
+    @Benchmark
+    public void extractExtra(Blackhole blackhole)
+    {
+        for (MarkdownTag tag : tags)
+        {
+            if (tag.type == MarkdownTag.Type.Link)
+            {
+                blackhole.consume(parser.extractExtra(markdownText, tag));
+            }
+        }
+    }
+
+    @Benchmark
+    public void extractTextSequence(Blackhole blackhole)
+    {
+        for (int i = 0; i < tagBuffer.size(); i++)
+        {
+            blackhole.consume(parser.extractTextSequence(markdownText, tagBuffer, i));
+        }
+    }
+
+    @Benchmark
+    public StringBuilder appendText() throws IOException
+    {
+        output.setLength(0);
+        for (int i = 0; i < tagBuffer.size(); i++)
+        {
+            parser.appendText(markdownText, tagBuffer, i, output);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,175 @@
+package com.crescentflare.markdownparserbenchmark;
+
+import java.util.Random;
+
+/**
+ * Markdown benchmark: document generator
+ * Generates reproducible markdown documents of a given size (in UTF-8 bytes)
+ * The density determines how often headers, lists, styling, links and escapes are used
+ */
+public class MarkdownDocumentGenerator
+{
+    /**
+     * Constants
+     */
+    private static final String[] ASCII_WORDS = new String[]
+    {
+            "markdown", "parser", "text", "with", "some", "words", "and", "a", "few", "longer", "sentences", "to", "read"
+    };
+    private static final String[] MULTIBYTE_WORDS = new String[]
+    {
+            "markdown", "caf\u00e9", "na\u00efve", "\u00fcber", "\u65e5\u672c\u8a9e", "\u0442\u0435\u043a\u0441\u0442", "\u03ba\u03b5\u03af\u03bc\u03b5\u03bd\u03bf", "emoji\ud83d\ude00", "\ud83d\udc4d", "text", "and", "words"
+    };
+
+    /**
+     * Members
+     */
+    private final Random random;
+    private final String[] words;
+    private final double markupChance;
+
+    /**
+     * Initialization
+     */
+    public MarkdownDocumentGenerator(String density, String charset)
+    {
+        random = new Random(1234);
+        words = "multibyte".equals(charset) ? MULTIBYTE_WORDS : ASCII_WORDS;
+        switch (density)
+        {
+            case "low":
+                markupChance = 0.02;
+                break;
+            case "high":
+                markupChance = 0.3;
+                break;
+            default:
+                markupChance = 0.1;
+                break;
+        }
+    }
+
+    /**
+     * Generate a document, it's cut off at the requested size
+     */
+    public String generate(int utf8Size)
+    {
+        StringBuilder builder = new StringBuilder(utf8Size + 256);
+        int byteCount = 0;
+        while (byteCount < utf8Size)
+        {
+            int startLength = builder.length();
+            appendBlock(builder);
+            byteCount += utf8Length(builder, startLength);
+        }
+        while (byteCount > utf8Size)
+        {
+            int removeLength = builder.length() > 1 && Character.isLowSurrogate(builder.charAt(builder.length() - 1)) ? 2 : 1;
+            byteCount -= utf8Length(builder, builder.length() - removeLength);
+            builder.setLength(builder.length() - removeLength);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Block generation, paragraphs are separated by one or more empty lines
+     */
+    private void appendBlock(StringBuilder builder)
+    {
+        if (random.nextDouble() < markupChance * 2)
+        {
+            builder.append("######", 0, 1 + random.nextInt(6)).append(' ');
+            appendLine(builder, 2 + random.nextInt(4));
+        }
+        else if (random.nextDouble() < markupChance * 3)
+        {
+            boolean ordered = random.nextBoolean();
+            int items = 2 + random.nextInt(5);
+            for (int i = 0; i < items; i++)
+            {
+                int indent = random.nextInt(3);
+                for (int j = 0; j < indent; j++)
+                {
+                    builder.append("  ");
+                }
+                builder.append(ordered ? (i + 1) + ". " : "* ");
+                appendLine(builder, 3 + random.nextInt(8));
+            }
+        }
+        else
+        {
+            int lines = 1 + random.nextInt(4);
+            for (int i = 0; i < lines; i++)
+            {
+                appendLine(builder, 8 + random.nextInt(16));
+            }
+        }
+        builder.append(random.nextInt(4) == 0 ? "\n\n" : "\n");
+    }
+
+    private void appendLine(StringBuilder builder, int wordCount)
+    {
+        for (int i = 0; i < wordCount; i++)
+        {
+            if (i > 0)
+            {
+                builder.append(' ');
+            }
+            String word = words[random.nextInt(words.length)];
+            if (random.nextDouble() < markupChance)
+            {
+                switch (random.nextInt(4))
+                {
+                    case 0:
+                        String marker = "***".substring(0, 1 + random.nextInt(3));
+                        builder.append(marker).append(word).append(marker);
+                        break;
+                    case 1:
+                        builder.append("~~").append(word).append("~~");
+                        break;
+                    case 2:
+                        builder.append('[').append(word).append("](https://www.github.com/").append(word).append(')');
+                        break;
+                    default:
+                        builder.append("\\*").append(word).append("\\_");
+                        break;
+                }
+            }
+            else
+            {
+                builder.append(word);
+            }
+        }
+        builder.append('\n');
+    }
+
+    /**
+     * Helpers
+     */
+    private static int utf8Length(CharSequence text, int start)
+    {
+        int length = 0;
+        for (int i = start; i < text.length(); i++)
+        {
+            char chr = text.charAt(i);
+            if (chr < 0x80)
+            {
+                length++;
+            }
+            else if (chr < 0x800)
+            {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(chr))
+            {
+                length += 4;
+                i++;
+            }
+            else
+            {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,110 @@
+package com.crescentflare.markdownparserbenchmark;
+
+import com.crescentflare.markdownparsercore.MarkdownBaseParser;
+import com.crescentflare.markdownparsercore.MarkdownJavaParser;
+import com.crescentflare.markdownparsercore.MarkdownNativeParser;
+import com.crescentflare.markdownparsercore.MarkdownTag;
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Markdown benchmark: parser
+ * Measures finding tags with the java and native parser for different document sizes, densities and character sets
+ * Throughput and sample time (latency percentiles) are reported, add the gc profiler for the allocation rate
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+    /**
+     * Parameters
+     */
+    @Param({ "java", "native" })
+    public String parserType;
+
+    @Param({ "100", "10000", "1000000", "10000000" })
+    public int documentSize;
+
+    @Param({ "low", "medium", "high" })
+    public String density;
+
+    @Param({ "ascii", "multibyte" })
+    public String charset;
+
+    /**
+     * Members
+     */
+    private MarkdownBaseParser parser;
+    private String markdownText;
+    private byte[] utf8Text;
+
+    /**
+     * Initialization
+     */
+    @Setup
+    public void setup()
+    {
+        parser = createParser(parserType);
+        markdownText = new MarkdownDocumentGenerator(density, charset).generate(documentSize);
+        utf8Text = markdownText.getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Benchmarks
+     */
+    @Benchmark
+    public MarkdownTag[] findTags()
+    {
+        return parser.findTags(markdownText);
+    }
+
+    @Benchmark
+    public MarkdownTagBuffer findTagBuffer()
+    {
+        return parser.findTagBuffer(markdownText);
+    }
+
+    @Benchmark
+    public MarkdownTagBuffer findTagBufferUtf8()
+    {
+        return parser.findTagBuffer(utf8Text);
+    }
+
+    /**
+     * Helpers
+     */
+    static MarkdownBaseParser createParser(String parserType)
+    {
+        if ("native".equals(parserType))
+        {
+            try
+            {
+                System.loadLibrary("markdownparser_native");
+            }
+            catch (UnsatisfiedLinkError error)
+            {
+                throw new IllegalStateException("Native parser library not found, run the buildHostNativeLibrary task first or exclude it with -p parserType=java", error);
+            }
+            return new MarkdownNativeParser();
+        }
+        return new MarkdownJavaParser();
+    }
+}
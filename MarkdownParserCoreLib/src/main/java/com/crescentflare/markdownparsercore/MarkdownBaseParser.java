@@ -0,0 +1,201 @@
+package com.crescentflare.markdownparsercore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Markdown core library: base parser
+ * Extends the parser interface with tag buffers, parse limits, cancellation and tracing, and implements text extraction for the parser implementations
+ * Escaped characters are resolved with an index of the last extracted document, so a parser should only be used by one thread at a time
+ */
+public abstract class MarkdownBaseParser implements MarkdownParser
+{
+    /**
+     * Members
+     */
+    private final MarkdownTextExtractor textExtractor = new MarkdownTextExtractor();
+
+    /**
+     * Configuration for tracing, resource limits and cancellation (null to disable)
+     */
+    public abstract void setTraceListener(MarkdownTraceListener listener);
+    public abstract void setParseLimits(MarkdownParseLimits limits);
+    public abstract void setCancellationSignal(MarkdownCancellationSignal signal);
+
+    /**
+     * Find tags as a tag buffer, from a string or UTF-8 text, or for multiple documents at once
+     */
+    public abstract MarkdownTagBuffer findTagBuffer(String markdownText);
+    public abstract MarkdownTagBuffer findTagBuffer(ByteBuffer utf8Text);
+    public abstract MarkdownTagBuffer findTagBuffer(byte[] utf8Text);
+    public abstract MarkdownTagBatch findTagBatch(String[] markdownTexts);
+
+    /**
+     * Release memory kept for the next call, like the last extracted document and buffers bigger than the given size in bytes
+     * Useful for a parser which is kept around after parsing a big document, it still works normally afterwards
+     */
+    public void trimMemory(int maxRetainedBytes)
+    {
+        textExtractor.trimMemory(maxRetainedBytes);
+    }
+
+    /**
+     * Extract markdown text components
+     */
+    public String extractText(String markdownText, MarkdownTag tag)
+    {
+        return textExtractor.extract(markdownText, tag.startText, tag.endText, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public String extractTextBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(startTag, mode, false);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(endTag, mode, false);
+        return textExtractor.extract(markdownText, startPos, endPos, (startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public String extractFull(String markdownText, MarkdownTag tag)
+    {
+        return textExtractor.extract(markdownText, tag.startPosition, tag.endPosition, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public String extractFullBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(startTag, mode, true);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(endTag, mode, true);
+        return textExtractor.extract(markdownText, startPos, endPos, (startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public String extractExtra(String markdownText, MarkdownTag tag)
+    {
+        if (tag.startExtra < 0 || tag.endExtra < 0 || tag.endExtra <= tag.startExtra)
+        {
+            return "";
+        }
+        return textExtractor.extract(markdownText, tag.startExtra, tag.endExtra, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    /**
+     * Extract markdown text components as a view on the markdown text (without copying)
+     */
+    public CharSequence extractTextSequence(String markdownText, MarkdownTag tag)
+    {
+        return textExtractor.extractSequence(markdownText, tag.startText, tag.endText, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public CharSequence extractTextBetweenSequence(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(startTag, mode, false);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(endTag, mode, false);
+        return textExtractor.extractSequence(markdownText, startPos, endPos, (startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public CharSequence extractFullSequence(String markdownText, MarkdownTag tag)
+    {
+        return textExtractor.extractSequence(markdownText, tag.startPosition, tag.endPosition, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public CharSequence extractFullBetweenSequence(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(startTag, mode, true);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(endTag, mode, true);
+        return textExtractor.extractSequence(markdownText, startPos, endPos, (startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    public CharSequence extractExtraSequence(String markdownText, MarkdownTag tag)
+    {
+        if (tag.startExtra < 0 || tag.endExtra < 0 || tag.endExtra <= tag.startExtra)
+        {
+            return "";
+        }
+        return textExtractor.extractSequence(markdownText, tag.startExtra, tag.endExtra, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0);
+    }
+
+    /**
+     * Append markdown text components directly to the given output (like a StringBuilder or SpannableStringBuilder)
+     */
+    public void appendText(String markdownText, MarkdownTag tag, Appendable output) throws IOException
+    {
+        textExtractor.append(markdownText, tag.startText, tag.endText, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0, output);
+    }
+
+    public void appendTextBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode, Appendable output) throws IOException
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(startTag, mode, false);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(endTag, mode, false);
+        textExtractor.append(markdownText, startPos, endPos, (startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0, output);
+    }
+
+    public void appendFull(String markdownText, MarkdownTag tag, Appendable output) throws IOException
+    {
+        textExtractor.append(markdownText, tag.startPosition, tag.endPosition, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0, output);
+    }
+
+    public void appendFullBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode, Appendable output) throws IOException
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(startTag, mode, true);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(endTag, mode, true);
+        textExtractor.append(markdownText, startPos, endPos, (startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0, output);
+    }
+
+    public void appendExtra(String markdownText, MarkdownTag tag, Appendable output) throws IOException
+    {
+        if (tag.startExtra < 0 || tag.endExtra < 0 || tag.endExtra <= tag.startExtra)
+        {
+            return;
+        }
+        textExtractor.append(markdownText, tag.startExtra, tag.endExtra, (tag.flags & MarkdownTag.FLAG_ESCAPED) > 0, output);
+    }
+
+    /**
+     * Extract markdown text components from tags stored in a tag buffer
+     */
+    public String extractText(String markdownText, MarkdownTagBuffer tags, int index)
+    {
+        return textExtractor.extract(markdownText, tags.getStartText(index), tags.getEndText(index), tags.isEscaped(index));
+    }
+
+    public String extractExtra(String markdownText, MarkdownTagBuffer tags, int index)
+    {
+        if (tags.getStartExtra(index) < 0 || tags.getEndExtra(index) < 0 || tags.getEndExtra(index) <= tags.getStartExtra(index))
+        {
+            return "";
+        }
+        return textExtractor.extract(markdownText, tags.getStartExtra(index), tags.getEndExtra(index), tags.isEscaped(index));
+    }
+
+    public CharSequence extractTextSequence(String markdownText, MarkdownTagBuffer tags, int index)
+    {
+        return textExtractor.extractSequence(markdownText, tags.getStartText(index), tags.getEndText(index), tags.isEscaped(index));
+    }
+
+    public CharSequence extractExtraSequence(String markdownText, MarkdownTagBuffer tags, int index)
+    {
+        if (tags.getStartExtra(index) < 0 || tags.getEndExtra(index) < 0 || tags.getEndExtra(index) <= tags.getStartExtra(index))
+        {
+            return "";
+        }
+        return textExtractor.extractSequence(markdownText, tags.getStartExtra(index), tags.getEndExtra(index), tags.isEscaped(index));
+    }
+
+    public void appendText(String markdownText, MarkdownTagBuffer tags, int index, Appendable output) throws IOException
+    {
+        textExtractor.append(markdownText, tags.getStartText(index), tags.getEndText(index), tags.isEscaped(index), output);
+    }
+
+    public void appendTextBetween(String markdownText, MarkdownTagBuffer tags, int startIndex, int endIndex, ExtractBetweenMode mode, Appendable output) throws IOException
+    {
+        int startPos = MarkdownTextExtractor.getBetweenStart(tags, startIndex, mode, false);
+        int endPos = MarkdownTextExtractor.getBetweenEnd(tags, endIndex, mode, false);
+        textExtractor.append(markdownText, startPos, endPos, tags.isEscaped(startIndex), output);
+    }
+
+    public void appendExtra(String markdownText, MarkdownTagBuffer tags, int index, Appendable output) throws IOException
+    {
+        if (tags.getStartExtra(index) < 0 || tags.getEndExtra(index) < 0 || tags.getEndExtra(index) <= tags.getStartExtra(index))
+        {
+            return;
+        }
+        textExtractor.append(markdownText, tags.getStartExtra(index), tags.getEndExtra(index), tags.isEscaped(index), output);
+    }
+}
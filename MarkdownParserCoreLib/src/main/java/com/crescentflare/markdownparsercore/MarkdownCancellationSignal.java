@@ -0,0 +1,58 @@
+package com.crescentflare.markdownparsercore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Markdown core library: cancellation signal
+ * Cancels a parse or conversion in progress, it's checked between lines (and sections when converting)
+ * A cancelled parse throws a cancelled exception, the native parser reads the state from memory shared with the native code
+ */
+public class MarkdownCancellationSignal
+{
+    /**
+     * Members
+     */
+    private volatile boolean cancelled = false;
+    private ByteBuffer nativeFlag = null;
+
+    /**
+     * Cancellation
+     */
+    public void cancel()
+    {
+        synchronized (this)
+        {
+            cancelled = true;
+            if (nativeFlag != null)
+            {
+                nativeFlag.put(0, (byte)1);
+            }
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public void throwIfCancelled()
+    {
+        if (cancelled)
+        {
+            throw new MarkdownCancelledException();
+        }
+    }
+
+    /**
+     * The flag shared with the native parser, only allocated when it's needed
+     */
+    synchronized ByteBuffer getNativeFlag()
+    {
+        if (nativeFlag == null)
+        {
+            nativeFlag = ByteBuffer.allocateDirect(1);
+            nativeFlag.put(0, (byte)(cancelled ? 1 : 0));
+        }
+        return nativeFlag;
+    }
+}
@@ -0,0 +1,15 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: cancelled exception
+ * Thrown by a parse or conversion which was stopped by its cancellation signal
+ */
+public class MarkdownCancelledException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public MarkdownCancelledException()
+    {
+        super("Markdown parsing was cancelled");
+    }
+}
@@ -1,74 +1,305 @@
 package com.crescentflare.markdownparsercore;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Markdown core library: java parser implementation
  * Parses the markdown data in java (if speed is not important or if the document is very small)
+ * Not thread-safe: the scratch state for parsing and the escape index are reused between calls, use a separate parser for each thread
  */
-public class MarkdownJavaParser implements MarkdownParser
+public class MarkdownJavaParser extends MarkdownBaseParser
 {
     /**
-     * Public function to find all supported markdown tags
+     * Constants
+     */
+    private static final int MARKER_KIND_COUNT = 5;
+
+    /**
+     * Members
+     */
+    private MarkdownTraceListener traceListener = null;
+    private MarkdownParseLimits parseLimits = null;
+    private MarkdownCancellationSignal cancellationSignal = null;
+
+    /**
+     * Scratch state reused while parsing to avoid allocations
+     * There are two pairs of line tags because the current and next line are scanned ahead, markers are stored in primitive arrays
+     */
+    private final MarkdownTag[] lineTags = new MarkdownTag[] { new MarkdownTag(), new MarkdownTag(), new MarkdownTag(), new MarkdownTag() };
+    private int linePair = 0;
+    private char[] markerChars = new char[32];
+    private int[] markerWeights = new int[32];
+    private int[] markerPositions = new int[32];
+    private int markerCount = 0;
+
+    /**
+     * Scratch state to match markers, for each closing marker character and weight there is a list of marker indices (ordered by position)
+     * Each list has a pointer which only moves forward, nested ranges are kept on a stack instead of using recursion
+     */
+    private final int[] kindMaxWeights = new int[MARKER_KIND_COUNT];
+    private final int[] kindSlots = new int[MARKER_KIND_COUNT];
+    private int[] slotStarts = new int[16];
+    private int[] slotPointers = new int[16];
+    private int[] markerLists = new int[32];
+    private int[] frameStarts = new int[8];
+    private int[] frameEnds = new int[8];
+    private int tagLimitStart = 0;
+    private int tagLimitCount = Integer.MAX_VALUE;
+    private int nestingLimit = MarkdownParseLimits.UNLIMITED;
+
+    /**
+     * Tracing, set a listener to receive the durations of the parse phases (null to disable)
+     */
+    public void setTraceListener(MarkdownTraceListener listener)
+    {
+        traceListener = listener;
+    }
+
+    /**
+     * Resource limits for untrusted input, set to null to parse without limits
+     * Incremental parsing isn't supported with limits, it parses the full text instead
+     */
+    public void setParseLimits(MarkdownParseLimits limits)
+    {
+        parseLimits = limits;
+    }
+
+    /**
+     * Cancellation, set a signal to stop parsing when it's cancelled (null to disable)
+     * The signal is checked between lines, a cancelled exception is thrown when it was cancelled
+     */
+    public void setCancellationSignal(MarkdownCancellationSignal signal)
+    {
+        cancellationSignal = signal;
+    }
+
+    /**
+     * Settings access for subclasses which split the work
+     */
+    MarkdownTraceListener getTraceListener()
+    {
+        return traceListener;
+    }
+
+    MarkdownParseLimits getParseLimits()
+    {
+        return parseLimits;
+    }
+
+    MarkdownCancellationSignal getCancellationSignal()
+    {
+        return cancellationSignal;
+    }
+
+    /**
+     * Release the scratch state used while parsing when it grew bigger than the given size in bytes
+     */
+    @Override
+    public void trimMemory(int maxRetainedBytes)
+    {
+        super.trimMemory(maxRetainedBytes);
+        if (markerPositions.length * 10 > maxRetainedBytes)
+        {
+            markerChars = new char[32];
+            markerWeights = new int[32];
+            markerPositions = new int[32];
+        }
+        if (slotStarts.length * 8 > maxRetainedBytes || markerLists.length * 4 > maxRetainedBytes)
+        {
+            slotStarts = new int[16];
+            slotPointers = new int[16];
+            markerLists = new int[32];
+        }
+        if (frameStarts.length * 8 > maxRetainedBytes)
+        {
+            frameStarts = new int[8];
+            frameEnds = new int[8];
+        }
+    }
+
+    /**
+     * Public functions to find all supported markdown tags
      */
     public MarkdownTag[] findTags(String markdownText)
     {
-        final List<MarkdownTag> foundTags = new ArrayList<>();
+        return findTagBuffer(markdownText).toArray();
+    }
+
+    public MarkdownTagBuffer findTagBuffer(String markdownText)
+    {
+        final MarkdownTagBuffer foundTags = new MarkdownTagBuffer(markdownText.length() / 16 + 16);
+        MarkdownTrace trace = traceListener != null ? new MarkdownTrace(traceListener, "findTagBuffer", "java", markdownText.length()) : null;
+        addTagsInRange(foundTags, markdownText, 0, markdownText.length(), -1, trace, parseLimits, cancellationSignal);
+        if (trace != null)
+        {
+            trace.setTruncated(foundTags.isTruncated());
+            trace.finish(foundTags.size());
+        }
+        return foundTags;
+    }
+
+    /**
+     * Find tags in UTF-8 text without decoding it (starting from the buffer position), tag positions are byte offsets
+     * Use convertUtf8Positions on the tag buffer to get the character positions within the decoded string
+     */
+    public MarkdownTagBuffer findTagBuffer(ByteBuffer utf8Text)
+    {
+        final MarkdownTagBuffer foundTags = new MarkdownTagBuffer(utf8Text.remaining() / 16 + 16);
+        MarkdownTrace trace = traceListener != null ? new MarkdownTrace(traceListener, "findTagBuffer", "java", utf8Text.remaining()) : null;
+        addTagsInRange(foundTags, new MarkdownUtf8Sequence(utf8Text), 0, utf8Text.remaining(), -1, trace, parseLimits, cancellationSignal);
+        if (trace != null)
+        {
+            trace.setTruncated(foundTags.isTruncated());
+            trace.finish(foundTags.size());
+        }
+        return foundTags;
+    }
+
+    public MarkdownTagBuffer findTagBuffer(byte[] utf8Text)
+    {
+        return findTagBuffer(ByteBuffer.wrap(utf8Text));
+    }
+
+    /**
+     * Find tags of multiple documents, the tags are combined in a single buffer with the range of tags for each document
+     * The parse limits apply to each document separately
+     */
+    public MarkdownTagBatch findTagBatch(String[] markdownTexts)
+    {
+        MarkdownTagBuffer tags = new MarkdownTagBuffer();
+        int[] documentStarts = new int[markdownTexts.length + 1];
+        boolean[] documentsTruncated = new boolean[markdownTexts.length];
+        for (int i = 0; i < markdownTexts.length; i++)
+        {
+            MarkdownTagBuffer documentTags = findTagBuffer(markdownTexts[i]);
+            documentStarts[i] = tags.size();
+            documentsTruncated[i] = documentTags.isTruncated();
+            tags.addAll(documentTags);
+        }
+        documentStarts[markdownTexts.length] = tags.size();
+        return new MarkdownTagBatch(tags, documentStarts, documentsTruncated);
+    }
+
+    /**
+     * Update the tags of a previous parse result after the text was edited, only the paragraphs touched by the edit are scanned again
+     * The given text should contain the edit, the edit replaced removedLength characters at the offset with insertedLength characters
+     * The previous tag buffer is updated and returned
+     */
+    public MarkdownTagBuffer findTagsIncremental(String markdownText, MarkdownTagBuffer previousTags, int offset, int removedLength, int insertedLength)
+    {
         final int maxLength = markdownText.length();
-        int paragraphStartPos = -1;
-        MarkdownTag curLine = scanLine(markdownText, 0, maxLength, MarkdownTag.Type.Paragraph);
-        while (curLine != null)
+        if (previousTags == null || previousTags.isTruncated() || (parseLimits != null && !parseLimits.isUnlimited()) || offset < 0 || removedLength < 0 || insertedLength < 0 || offset + insertedLength > maxLength)
+        {
+            return findTagBuffer(markdownText);
+        }
+
+        //Find the paragraph boundaries around the edit, the text (and tags) outside of them are unchanged
+        final int delta = insertedLength - removedLength;
+        int startSeam = findSeamBefore(markdownText, offset);
+        int endSeam = findSeamAfter(markdownText, offset + insertedLength);
+        int startPosition = 0, paragraphStartPos = -1, startIndex = 0;
+        int stopPosition = maxLength, endIndex = previousTags.size();
+        if (startSeam >= 0)
         {
+            paragraphStartPos = getSeamParagraphStart(markdownText, startSeam);
+            startPosition = startSeam - 1;
+            startIndex = previousTags.findIndexAtPosition(paragraphStartPos);
+        }
+        if (endSeam >= 0)
+        {
+            stopPosition = getSeamParagraphStart(markdownText, endSeam);
+            endIndex = previousTags.findIndexAtPosition(stopPosition - delta);
+        }
+
+        //Scan the changed range and replace the tags
+        MarkdownTagBuffer changedTags = new MarkdownTagBuffer((stopPosition - startPosition) / 16 + 16);
+        MarkdownTrace trace = traceListener != null ? new MarkdownTrace(traceListener, "findTagsIncremental", "java", stopPosition - startPosition) : null;
+        addTagsInRange(changedTags, markdownText, startPosition, stopPosition, paragraphStartPos, trace, null, cancellationSignal);
+        previousTags.replaceRange(startIndex, endIndex, changedTags);
+        previousTags.shiftPositions(startIndex + changedTags.size(), delta);
+        if (trace != null)
+        {
+            trace.finish(changedTags.size());
+        }
+        return previousTags;
+    }
+
+    /**
+     * Scan lines starting from the given position until the stop position is reached and add the tags
+     * When starting after an empty line, pass the start of the pending paragraph
+     * With limits, scanning stops at the first line exceeding them and the remaining text is added as a normal tag
+     */
+    void addTagsInRange(final MarkdownTagBuffer foundTags, final CharSequence markdownText, int startPosition, int stopPosition, int paragraphStartPos)
+    {
+        addTagsInRange(foundTags, markdownText, startPosition, stopPosition, paragraphStartPos, null, null, null);
+    }
+
+    void addTagsInRange(final MarkdownTagBuffer foundTags, final CharSequence markdownText, int startPosition, int stopPosition, int paragraphStartPos, final MarkdownCancellationSignal signal)
+    {
+        addTagsInRange(foundTags, markdownText, startPosition, stopPosition, paragraphStartPos, null, null, signal);
+    }
+
+    private void addTagsInRange(final MarkdownTagBuffer foundTags, final CharSequence markdownText, int startPosition, int stopPosition, int paragraphStartPos, final MarkdownTrace trace, final MarkdownParseLimits limits, final MarkdownCancellationSignal signal)
+    {
+        final int textLength = markdownText.length();
+        final int maxLength = limits != null ? limits.getScanLength(textLength) : textLength;
+        final int maxTagCount = limits != null && limits.getMaxTagCount() != MarkdownParseLimits.UNLIMITED ? limits.getMaxTagCount() : Integer.MAX_VALUE;
+        final boolean hasDeadline = limits != null && limits.getTimeoutNanos() != MarkdownParseLimits.UNLIMITED;
+        final long deadline = hasDeadline ? limits.getDeadline(System.nanoTime()) : 0;
+        final boolean utf8 = markdownText instanceof MarkdownUtf8Sequence;
+        int truncatePosition = maxLength < textLength ? maxLength : -1;
+        tagLimitStart = foundTags.size();
+        tagLimitCount = maxTagCount == Integer.MAX_VALUE ? maxTagCount : maxTagCount - 2;
+        nestingLimit = limits != null ? limits.getMaxNestingDepth() : MarkdownParseLimits.UNLIMITED;
+        MarkdownTag curLine = startPosition < maxLength ? scanLine(markdownText, startPosition, maxLength, MarkdownTag.Type.Paragraph, utf8, trace) : null;
+        while (curLine != null && curLine.startPosition < stopPosition)
+        {
+            //Check for cancellation and stop when the line may not fit within the tag limit (with its paragraph and the remaining text) or when the time is up
+            if (signal != null)
+            {
+                signal.throwIfCancelled();
+            }
+            if (foundTags.size() - tagLimitStart > maxTagCount - 3 || (hasDeadline && System.nanoTime() - deadline > 0))
+            {
+                truncatePosition = curLine.startPosition;
+                break;
+            }
+
             //Fetch next line ahead
             boolean hasNextLine = curLine.endPosition < maxLength;
-            boolean isEmptyLine = curLine.startPosition + 1 == curLine.endPosition;
+            boolean isEmptyLine = curLine.startPosition + 1 == curLine.endPosition && markdownText.charAt(curLine.startPosition) == '\n';
             MarkdownTag.Type curType = curLine.type;
             if (isEmptyLine)
             {
                 curType = MarkdownTag.Type.Paragraph;
             }
-            MarkdownTag nextLine = hasNextLine ? scanLine(markdownText, curLine.endPosition, maxLength, curType) : null;
+            MarkdownTag nextLine = hasNextLine ? scanLine(markdownText, curLine.endPosition, maxLength, curType, utf8, trace) : null;
 
             //Insert section tag
             if (curLine.startText >= 0)
             {
-                addStyleTags(foundTags, markdownText, curLine);
+                addStyleTags(foundTags, markdownText, curLine, utf8, trace);
             }
             else if (!isEmptyLine)
             {
-                MarkdownTag spacedLineTag = new MarkdownTag();
-                spacedLineTag.type = curLine.type;
-                spacedLineTag.startPosition = curLine.startPosition;
-                spacedLineTag.endPosition = curLine.endPosition;
-                spacedLineTag.startText = curLine.startPosition;
-                spacedLineTag.endText = curLine.startPosition;
-                spacedLineTag.weight = curLine.weight;
-                spacedLineTag.flags = curLine.flags;
-                foundTags.add(spacedLineTag);
+                foundTags.add(curLine.type, curLine.flags, curLine.weight, curLine.startPosition, curLine.endPosition, curLine.startPosition, curLine.startPosition, -1, -1);
             }
 
             //Insert paragraphs when needed
             if (nextLine != null)
             {
-                boolean startNewParagraph = curLine.type == MarkdownTag.Type.Header || nextLine.type == MarkdownTag.Type.Header || nextLine.startPosition + 1 == nextLine.endPosition;
-                boolean stopParagraph = nextLine.startPosition + 1 != nextLine.endPosition;
+                boolean isNextEmptyLine = nextLine.startPosition + 1 == nextLine.endPosition && markdownText.charAt(nextLine.startPosition) == '\n';
+                boolean startNewParagraph = curLine.type == MarkdownTag.Type.Header || nextLine.type == MarkdownTag.Type.Header || isNextEmptyLine;
+                boolean stopParagraph = !isNextEmptyLine;
                 if (startNewParagraph && foundTags.size() > 0 && paragraphStartPos < 0)
                 {
                     paragraphStartPos = curLine.endPosition;
                 }
                 if (stopParagraph && paragraphStartPos >= 0)
                 {
-                    MarkdownTag paragraphTag = new MarkdownTag();
-                    paragraphTag.type = MarkdownTag.Type.Paragraph;
-                    paragraphTag.startPosition = paragraphStartPos;
-                    paragraphTag.endPosition = nextLine.startPosition;
-                    paragraphTag.startText = paragraphStartPos;
-                    paragraphTag.endText = paragraphStartPos;
-                    paragraphTag.weight = nextLine.type == MarkdownTag.Type.Header ? 2 : 1;
-                    foundTags.add(paragraphTag);
+                    int weight = nextLine.type == MarkdownTag.Type.Header ? 2 : 1;
+                    foundTags.add(MarkdownTag.Type.Paragraph, MarkdownTag.FLAG_NONE, weight, paragraphStartPos, nextLine.startPosition, paragraphStartPos, paragraphStartPos, -1, -1);
                     paragraphStartPos = -1;
                 }
             }
@@ -76,126 +307,94 @@ public class MarkdownJavaParser implements MarkdownParser
             //Set pointer to next line and continue
             curLine = nextLine;
         }
-        return foundTags.toArray(new MarkdownTag[foundTags.size()]);
-    }
 
-    /**
-     * Extract markdown text components
-     */
-    public String extractText(String markdownText, MarkdownTag tag)
-    {
-        if ((tag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
-        {
-            return escapedSubstring(markdownText, tag.startText, tag.endText);
-        }
-        return markdownText.substring(tag.startText, tag.endText);
-    }
-
-    public String extractTextBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
-    {
-        int startPos = 0, endPos = 0;
-        switch (mode)
-        {
-            case StartToNext:
-                startPos = startTag.startText;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToNext:
-                startPos = startTag.endPosition;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToEnd:
-                startPos = startTag.endPosition;
-                endPos = endTag.endText;
-                break;
-        }
-        if (startPos >= endPos)
-        {
-            return "";
-        }
-        if ((startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        //Add the remaining text without markdown when a limit was reached
+        if (truncatePosition >= 0)
         {
-            return escapedSubstring(markdownText, startPos, endPos);
+            foundTags.add(MarkdownTag.Type.Normal, MarkdownTag.FLAG_NONE, 0, truncatePosition, textLength, truncatePosition, textLength, -1, -1);
+            foundTags.setTruncated(true);
         }
-        return markdownText.substring(startPos, endPos);
     }
 
-    public String extractFull(String markdownText, MarkdownTag tag)
+    /**
+     * Find a seam: the start of a line after one or more empty lines, which always starts a new paragraph
+     * Scanning can be restarted at a seam, the tags before and after it don't depend on each other
+     */
+    static int findSeamBefore(final CharSequence markdownText, int position)
     {
-        if ((tag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        for (int i = position - 1; i >= 2; i--)
         {
-            return escapedSubstring(markdownText, tag.startPosition, tag.endPosition);
+            if (markdownText.charAt(i) != '\n' && markdownText.charAt(i - 1) == '\n' && markdownText.charAt(i - 2) == '\n')
+            {
+                int paragraphStartPos = getSeamParagraphStart(markdownText, i);
+                if (paragraphStartPos >= 0)
+                {
+                    return i;
+                }
+                i -= 2;
+            }
         }
-        return markdownText.substring(tag.startPosition, tag.endPosition);
+        return -1;
     }
 
-    public String extractFullBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    static int findSeamAfter(final CharSequence markdownText, int position)
     {
-        int startPos = 0, endPos = 0;
-        switch (mode)
-        {
-            case StartToNext:
-                startPos = startTag.startPosition;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToNext:
-                startPos = startTag.endPosition;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToEnd:
-                startPos = startTag.endPosition;
-                endPos = endTag.endPosition;
-                break;
-        }
-        if (startPos >= endPos)
-        {
-            return "";
-        }
-        if ((startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        final int maxLength = markdownText.length();
+        for (int i = Math.max(1, position + 1); i < maxLength; i++)
         {
-            return escapedSubstring(markdownText, startPos, endPos);
+            if (markdownText.charAt(i) == '\n')
+            {
+                int seamPosition = i;
+                while (seamPosition < maxLength && markdownText.charAt(seamPosition) == '\n')
+                {
+                    seamPosition++;
+                }
+                if (seamPosition < maxLength && seamPosition - i >= 2 && markdownText.charAt(i - 1) != '\n' && markdownText.charAt(i - 1) != '\\')
+                {
+                    return seamPosition;
+                }
+                i = seamPosition;
+            }
         }
-        return markdownText.substring(startPos, endPos);
+        return -1;
     }
 
-    public String extractExtra(String markdownText, MarkdownTag tag)
+    static int getSeamParagraphStart(final CharSequence markdownText, int seamPosition)
     {
-        if (tag.startExtra < 0 || tag.endExtra < 0 || tag.endExtra <= tag.startExtra)
+        int newlinePosition = seamPosition - 1;
+        while (newlinePosition > 0 && markdownText.charAt(newlinePosition - 1) == '\n')
         {
-            return "";
+            newlinePosition--;
         }
-        if ((tag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        if (newlinePosition < 1 || markdownText.charAt(newlinePosition - 1) == '\\')
         {
-            return escapedSubstring(markdownText, tag.startExtra, tag.endExtra);
+            return -1;
         }
-        return markdownText.substring(tag.startExtra, tag.endExtra);
+        return newlinePosition + 1;
     }
 
-    private String escapedSubstring(String text, int startPosition, int endPosition)
+    /**
+     * Scan a single line of text within the markdown document, return section tag
+     */
+    private MarkdownTag scanLine(final CharSequence markdownText, int position, int maxLength, MarkdownTag.Type sectionType, boolean utf8, final MarkdownTrace trace)
     {
-        String filteredText = "";
-        for (int i = startPosition; i < endPosition; i++)
+        if (trace == null)
         {
-            char chr = text.charAt(i);
-            if (chr == '\\' && text.charAt(i + 1) != '\n')
-            {
-                filteredText += text.charAt(i + 1);
-                i++;
-                continue;
-            }
-            filteredText += chr;
+            return scanLine(markdownText, position, maxLength, sectionType, utf8);
         }
-        return filteredText;
+        long startTime = trace.beginPhase(MarkdownTrace.Phase.ScanLine);
+        MarkdownTag result = scanLine(markdownText, position, maxLength, sectionType, utf8);
+        trace.endPhase(MarkdownTrace.Phase.ScanLine, startTime);
+        return result;
     }
 
-    /**
-     * Scan a single line of text within the markdown document, return section tag
-     */
-    private MarkdownTag scanLine(final String markdownText, int position, int maxLength, MarkdownTag.Type sectionType)
+    private MarkdownTag scanLine(final CharSequence markdownText, int position, int maxLength, MarkdownTag.Type sectionType, boolean utf8)
     {
-        MarkdownTag styledTag = new MarkdownTag();
-        MarkdownTag normalTag = new MarkdownTag();
+        MarkdownTag styledTag = resetTag(lineTags[linePair * 2]);
+        MarkdownTag normalTag = resetTag(lineTags[linePair * 2 + 1]);
+        linePair = 1 - linePair;
         int skipChars = 0;
+        int extraBytes = 0;
         char chr = 0, nextChr = markdownText.charAt(position), secondNextChr = 0;
         boolean styleTagDefined = false, escaped = false;
         boolean headerTokenSequence = false;
@@ -227,6 +426,7 @@ public class MarkdownJavaParser implements MarkdownParser
             }
             if (escaped)
             {
+                int escapedLength = getEscapedLength(markdownText, i, maxLength, utf8);
                 if (chr != '\n')
                 {
                     if (normalTag.startText < 0)
@@ -238,8 +438,14 @@ public class MarkdownJavaParser implements MarkdownParser
                         styledTag.startText = i;
                     }
                 }
-                normalTag.endText = i + 1;
-                styledTag.endText = i + 1;
+                normalTag.endText = i + escapedLength;
+                styledTag.endText = i + escapedLength;
+                skipChars = escapedLength - 1;
+                if (utf8)
+                {
+                    //Keep the indentation the same as for UTF-16 text (surrogate pairs count as 2 characters)
+                    extraBytes += escapedLength - (escapedLength == 4 ? 2 : 1);
+                }
             }
             else
             {
@@ -268,17 +474,17 @@ public class MarkdownJavaParser implements MarkdownParser
                         styleTagDefined = true;
                         headerTokenSequence = true;
                     }
-                    else if ((allowNewParagraph || continueBulletList) && (chr == '*' || chr == '-' || chr == '+') && nextChr == ' ' && (i - position) % 2 == 0)
+                    else if ((allowNewParagraph || continueBulletList) && (chr == '*' || chr == '-' || chr == '+') && nextChr == ' ' && (i - position - extraBytes) % 2 == 0)
                     {
                         styledTag.type = MarkdownTag.Type.UnorderedList;
-                        styledTag.weight = 1 + (i - position) / 2;
+                        styledTag.weight = 1 + (i - position - extraBytes) / 2;
                         styleTagDefined = true;
                         skipChars = 1;
                     }
-                    else if ((allowNewParagraph || continueBulletList) && chr >= '0' && chr <= '9' && nextChr == '.' && secondNextChr == ' ' && (i - position) % 2 == 0)
+                    else if ((allowNewParagraph || continueBulletList) && chr >= '0' && chr <= '9' && nextChr == '.' && secondNextChr == ' ' && (i - position - extraBytes) % 2 == 0)
                     {
                         styledTag.type = MarkdownTag.Type.OrderedList;
-                        styledTag.weight = 1 + (i - position) / 2;
+                        styledTag.weight = 1 + (i - position - extraBytes) / 2;
                         styleTagDefined = true;
                         skipChars = 2;
                     }
@@ -341,25 +547,52 @@ public class MarkdownJavaParser implements MarkdownParser
         return normalTag;
     }
 
+    private static MarkdownTag resetTag(MarkdownTag tag)
+    {
+        tag.type = MarkdownTag.Type.Normal;
+        tag.flags = MarkdownTag.FLAG_NONE;
+        tag.startPosition = -1;
+        tag.endPosition = -1;
+        tag.startText = -1;
+        tag.endText = -1;
+        tag.startExtra = -1;
+        tag.endExtra = -1;
+        tag.weight = 0;
+        return tag;
+    }
+
+    /**
+     * Return the length of an escaped character, it includes the continuation bytes of a multi-byte character for UTF-8 or a surrogate pair for UTF-16
+     */
+    private static int getEscapedLength(final CharSequence markdownText, int position, int maxLength, boolean utf8)
+    {
+        int length = 1;
+        char chr = markdownText.charAt(position);
+        if (utf8 && chr >= 0xC0)
+        {
+            while (length < 4 && position + length < maxLength && (markdownText.charAt(position + length) & 0xC0) == 0x80)
+            {
+                length++;
+            }
+        }
+        else if (!utf8 && Character.isHighSurrogate(chr) && position + 1 < maxLength && Character.isLowSurrogate(markdownText.charAt(position + 1)))
+        {
+            length = 2;
+        }
+        return length;
+    }
+
     /**
      * Add the section tag and add additional tags within the section
      */
-    private void addStyleTags(final List<MarkdownTag> foundTags, final String markdownText, final MarkdownTag sectionTag)
+    private void addStyleTags(final MarkdownTagBuffer foundTags, final CharSequence markdownText, final MarkdownTag sectionTag, boolean utf8, final MarkdownTrace trace)
     {
         //First add the main section tag
-        MarkdownTag mainTag = new MarkdownTag();
-        mainTag.type = sectionTag.type;
-        mainTag.startPosition = sectionTag.startPosition;
-        mainTag.endPosition = sectionTag.endPosition;
-        mainTag.startText = sectionTag.startText;
-        mainTag.endText = sectionTag.endText;
-        mainTag.weight = sectionTag.weight;
-        mainTag.flags = sectionTag.flags;
-        foundTags.add(mainTag);
+        long startTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.AddStyleTags) : 0;
+        foundTags.add(sectionTag.type, sectionTag.flags, sectionTag.weight, sectionTag.startPosition, sectionTag.endPosition, sectionTag.startText, sectionTag.endText, -1, -1);
 
         //Traverse string and find tag markers
-        List<MarkdownMarker> tagMarkers = new ArrayList<>();
-        List<MarkdownTag> addTags = new ArrayList<>();
+        markerCount = 0;
         int maxLength = sectionTag.endText;
         int curMarkerWeight = 0;
         char curMarkerChar = 0;
@@ -374,7 +607,7 @@ public class MarkdownJavaParser implements MarkdownParser
                 }
                 else
                 {
-                    tagMarkers.add(new MarkdownMarker(curMarkerChar, curMarkerWeight, i - curMarkerWeight));
+                    addMarker(curMarkerChar, curMarkerWeight, i - curMarkerWeight);
                     curMarkerChar = 0;
                 }
             }
@@ -387,147 +620,255 @@ public class MarkdownJavaParser implements MarkdownParser
                 }
                 else if (chr == '[' || chr == ']' || chr == '(' || chr == ')')
                 {
-                    tagMarkers.add(new MarkdownMarker(chr, 1, i));
+                    addMarker(chr, 1, i);
                 }
             }
-            if (chr == '\\')
+            if (chr == '\\' && i + 1 < maxLength)
             {
-                i++;
+                i += getEscapedLength(markdownText, i + 1, maxLength, utf8);
             }
         }
         if (curMarkerChar != 0)
         {
-            tagMarkers.add(new MarkdownMarker(curMarkerChar, curMarkerWeight, maxLength - curMarkerWeight));
+            addMarker(curMarkerChar, curMarkerWeight, maxLength - curMarkerWeight);
         }
 
-        //Sort tags to add and finally add them
-        processMarkers(addTags, tagMarkers, 0, tagMarkers.size(), sectionTag.flags);
-        Collections.sort(addTags, new Comparator<MarkdownTag>()
+        //Add tags and sort them on position within the section
+        int firstAddedTag = foundTags.size();
+        long markersStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.ProcessMarkers) : 0;
+        processMarkers(foundTags, sectionTag.flags);
+        if (trace != null)
         {
-            @Override
-            public int compare(MarkdownTag lhs, MarkdownTag rhs)
-            {
-                return lhs.startPosition - rhs.startPosition;
-            }
-        });
-        foundTags.addAll(addTags);
+            trace.endPhase(MarkdownTrace.Phase.ProcessMarkers, markersStartTime);
+        }
+        foundTags.sortByStartPosition(firstAddedTag, foundTags.size());
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.AddStyleTags, startTime);
+        }
     }
 
     /**
-     * Recursive function to process markdown markers into tags
+     * Process markdown markers into tags, the markers are referred to by index
+     * Runs in linear time: the marker being processed only moves forward, so closing markers are found by moving the list pointers forward
      */
-    private void processMarkers(final List<MarkdownTag> addTags, final List<MarkdownMarker> markers, int start, final int end, final int addFlags)
+    private void processMarkers(final MarkdownTagBuffer addTags, final int addFlags)
     {
-        boolean processing = true;
-        while (processing && start < end)
+        prepareMarkerLists();
+        int start = 0;
+        int end = markerCount;
+        int frameCount = 0;
+        while (true)
         {
-            MarkdownMarker marker = markers.get(start);
-            processing = false;
-            if (marker.chr == '[' || marker.chr == ']' || marker.chr == '(' || marker.chr == ')')
+            //Process the marker at the start of the range, an unmatched marker stops processing the range
+            boolean processing = false;
+            if (start < end)
             {
-                if (marker.chr == '[')
+                int marker = start;
+                char markerChr = markerChars[marker];
+                if (markerChr == '[')
                 {
-                    MarkdownTag linkTag = null;
-                    MarkdownMarker extraMarker = null;
-                    for (int i = start + 1; i < end; i++)
+                    int closeMarker = findNextMarker(']', 1, start, end);
+                    if (closeMarker >= 0 && !reachedTagLimit(addTags))
                     {
-                        MarkdownMarker checkMarker = markers.get(i);
-                        if ((checkMarker.chr == ']' && linkTag == null) || (checkMarker.chr == ')' && linkTag != null))
+                        int startPosition = markerPositions[marker];
+                        int linkTag = addTags.add(MarkdownTag.Type.Link, addFlags, 0, startPosition, markerPositions[closeMarker] + markerWeights[closeMarker], startPosition + markerWeights[marker], markerPositions[closeMarker], -1, -1);
+                        int extraMarker = closeMarker + 1;
+                        start = extraMarker;
+                        if (extraMarker < end && markerChars[extraMarker] == '(' && markerPositions[extraMarker] == markerPositions[closeMarker] + markerWeights[closeMarker])
                         {
-                            if (linkTag == null)
+                            int extraCloseMarker = findNextMarker(')', 1, extraMarker, end);
+                            if (extraCloseMarker >= 0)
                             {
-                                linkTag = new MarkdownTag();
-                                linkTag.type = MarkdownTag.Type.Link;
-                                linkTag.startPosition = marker.position;
-                                linkTag.endPosition = checkMarker.position + checkMarker.weight;
-                                linkTag.startText = linkTag.startPosition + marker.weight;
-                                linkTag.endText = checkMarker.position;
-                                linkTag.flags = addFlags;
-                                addTags.add(linkTag);
-                                start = i + 1;
-                                if (start < end)
+                                addTags.setExtra(linkTag, markerPositions[extraMarker] + markerWeights[extraMarker], markerPositions[extraCloseMarker]);
+                                addTags.setEndPosition(linkTag, markerPositions[extraCloseMarker] + markerWeights[extraCloseMarker]);
+                                start = extraCloseMarker + 1;
+                                processing = true;
+                            }
+                        }
+                        else
+                        {
+                            processing = true;
+                        }
+                    }
+                }
+                else if (markerChr == '*' || markerChr == '_' || markerChr == '~')
+                {
+                    for (int weight = markerWeights[marker]; weight > 0 && !processing; weight--)
+                    {
+                        int closeMarker = findNextMarker(markerChr, weight, start, end);
+                        if (closeMarker >= 0 && !reachedTagLimit(addTags))
+                        {
+                            MarkdownTag.Type type = markerChr == '~' ? MarkdownTag.Type.AlternativeTextStyle : MarkdownTag.Type.TextStyle;
+                            addTags.add(type, addFlags, weight, markerPositions[marker], markerPositions[closeMarker] + weight, markerPositions[marker] + weight, markerPositions[closeMarker], -1, -1);
+                            int nextStart = closeMarker + 1;
+                            if (markerWeights[closeMarker] > weight)
+                            {
+                                markerWeights[closeMarker] -= weight;
+                                nextStart = closeMarker;
+                            }
+                            if (closeMarker > start + 1 && nestingLimit != MarkdownParseLimits.UNLIMITED && frameCount + 1 >= nestingLimit)
+                            {
+                                addTags.setTruncated(true);
+                                start = nextStart;
+                            }
+                            else if (closeMarker > start + 1)
+                            {
+                                if (frameCount == frameStarts.length)
                                 {
-                                    extraMarker = markers.get(start);
-                                    if (extraMarker.chr != '(' || extraMarker.position != checkMarker.position + checkMarker.weight)
-                                    {
-                                        processing = true;
-                                        break;
-                                    }
+                                    frameStarts = Arrays.copyOf(frameStarts, frameCount * 2);
+                                    frameEnds = Arrays.copyOf(frameEnds, frameCount * 2);
                                 }
+                                frameStarts[frameCount] = nextStart;
+                                frameEnds[frameCount] = end;
+                                frameCount++;
+                                start++;
+                                end = closeMarker;
                             }
-                            else if (extraMarker != null)
+                            else
                             {
-                                linkTag.startExtra = extraMarker.position + extraMarker.weight;
-                                linkTag.endExtra = checkMarker.position;
-                                linkTag.endPosition = checkMarker.position + checkMarker.weight;
-                                start = i + 1;
-                                processing = true;
-                                break;
+                                start = nextStart;
                             }
+                            processing = true;
                         }
                     }
                 }
             }
-            else
+
+            //Continue with the enclosing range when done
+            if (!processing || start >= end)
             {
-                for (int i = start + 1; i < end; i++)
+                if (frameCount == 0)
                 {
-                    MarkdownMarker checkMarker = markers.get(i);
-                    if (checkMarker.chr == marker.chr && checkMarker.weight >= marker.weight)
-                    {
-                        MarkdownTag tag = new MarkdownTag();
-                        tag.type = checkMarker.chr == '~' ? MarkdownTag.Type.AlternativeTextStyle : MarkdownTag.Type.TextStyle;
-                        tag.weight = marker.weight;
-                        tag.startPosition = marker.position;
-                        tag.endPosition = checkMarker.position + marker.weight;
-                        tag.startText = tag.startPosition + marker.weight;
-                        tag.endText = checkMarker.position;
-                        tag.flags = addFlags;
-                        addTags.add(tag);
-                        processMarkers(addTags, markers, start + 1, i, addFlags);
-                        if (checkMarker.weight > marker.weight)
-                        {
-                            checkMarker.weight -= marker.weight;
-                            start = i;
-                        }
-                        else
-                        {
-                            start = i + 1;
-                        }
-                        processing = true;
-                        break;
-                    }
+                    break;
                 }
+                frameCount--;
+                start = frameStarts[frameCount];
+                end = frameEnds[frameCount];
             }
-            if (!processing)
+        }
+    }
+
+    private boolean reachedTagLimit(final MarkdownTagBuffer addTags)
+    {
+        if (addTags.size() - tagLimitStart >= tagLimitCount)
+        {
+            addTags.setTruncated(true);
+            return true;
+        }
+        return false;
+    }
+
+    private void prepareMarkerLists()
+    {
+        //Determine the list slots, there is a slot for each closing marker character and weight
+        Arrays.fill(kindMaxWeights, 0);
+        for (int i = 0; i < markerCount; i++)
+        {
+            int kind = markerKind(markerChars[i]);
+            if (kind >= 0)
             {
-                if (marker.weight > 1)
+                kindMaxWeights[kind] = Math.max(kindMaxWeights[kind], markerWeights[i]);
+            }
+        }
+        int slotCount = 0;
+        for (int kind = 0; kind < MARKER_KIND_COUNT; kind++)
+        {
+            kindSlots[kind] = slotCount;
+            slotCount += kindMaxWeights[kind];
+        }
+        if (slotCount + 1 > slotStarts.length)
+        {
+            slotStarts = new int[Math.max(slotCount + 1, slotStarts.length * 2)];
+            slotPointers = new int[slotStarts.length];
+        }
+
+        //Count the markers in each slot, a marker is added to the slots of its weight and all lower weights
+        Arrays.fill(slotStarts, 0, slotCount + 1, 0);
+        for (int i = 0; i < markerCount; i++)
+        {
+            int kind = markerKind(markerChars[i]);
+            if (kind >= 0)
+            {
+                for (int weight = 1; weight <= markerWeights[i]; weight++)
                 {
-                    marker.weight--;
-                    processing = true;
+                    slotStarts[kindSlots[kind] + weight]++;
                 }
-                else
+            }
+        }
+        for (int slot = 1; slot <= slotCount; slot++)
+        {
+            slotStarts[slot] += slotStarts[slot - 1];
+        }
+        if (slotStarts[slotCount] > markerLists.length)
+        {
+            markerLists = new int[Math.max(slotStarts[slotCount], markerLists.length * 2)];
+        }
+
+        //Fill the lists in marker order and reset the pointers to the start of each list
+        System.arraycopy(slotStarts, 0, slotPointers, 0, slotCount);
+        for (int i = 0; i < markerCount; i++)
+        {
+            int kind = markerKind(markerChars[i]);
+            if (kind >= 0)
+            {
+                for (int weight = 1; weight <= markerWeights[i]; weight++)
                 {
-                    start++;
+                    markerLists[slotPointers[kindSlots[kind] + weight - 1]++] = i;
                 }
             }
         }
+        System.arraycopy(slotStarts, 0, slotPointers, 0, slotCount);
     }
 
-    /**
-     * A class containing a markdown tag marker
-     */
-    static class MarkdownMarker
+    private int findNextMarker(char chr, int weight, int after, int end)
+    {
+        int kind = markerKind(chr);
+        if (weight > kindMaxWeights[kind])
+        {
+            return -1;
+        }
+        int slot = kindSlots[kind] + weight - 1;
+        int pointer = slotPointers[slot];
+        int slotEnd = slotStarts[slot + 1];
+        while (pointer < slotEnd && markerLists[pointer] <= after)
+        {
+            pointer++;
+        }
+        slotPointers[slot] = pointer;
+        return pointer < slotEnd && markerLists[pointer] < end ? markerLists[pointer] : -1;
+    }
+
+    private static int markerKind(char chr)
     {
-        public char chr;
-        public int weight;
-        public int position;
+        switch (chr)
+        {
+            case '*':
+                return 0;
+            case '_':
+                return 1;
+            case '~':
+                return 2;
+            case ']':
+                return 3;
+            case ')':
+                return 4;
+            default:
+                return -1;
+        }
+    }
 
-        public MarkdownMarker(char chr, int weight, int position)
+    private void addMarker(char chr, int weight, int position)
+    {
+        if (markerCount == markerChars.length)
         {
-            this.chr = chr;
-            this.weight = weight;
-            this.position = position;
+            markerChars = Arrays.copyOf(markerChars, markerCount * 2);
+            markerWeights = Arrays.copyOf(markerWeights, markerCount * 2);
+            markerPositions = Arrays.copyOf(markerPositions, markerCount * 2);
         }
+        markerChars[markerCount] = chr;
+        markerWeights[markerCount] = weight;
+        markerPositions[markerCount] = position;
+        markerCount++;
     }
 }
@@ -1,10 +1,15 @@
 package com.crescentflare.markdownparsercore;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
 /**
  * Markdown core library: native parser implementation
  * Parses the markdown data in fast native code (useful for big documents)
+ * Not thread-safe: the result buffers and escape index are reused between calls, use a separate parser for each thread
  */
-public class MarkdownNativeParser implements MarkdownParser
+public class MarkdownNativeParser extends MarkdownBaseParser
 {
     /**
      * Import native library
@@ -15,247 +20,301 @@ public class MarkdownNativeParser implements MarkdownParser
     }
 
     /**
-     * Definitions for native info
+     * Members
      */
-    private static int NATIVE_INFO_START_POSITION = 0;
-    private static int NATIVE_INFO_END_POSITION = 1;
-    private static int NATIVE_INFO_START_TEXT = 2;
-    private static int NATIVE_INFO_END_TEXT = 3;
-    private static int NATIVE_INFO_START_EXTRA = 4;
-    private static int NATIVE_INFO_END_EXTRA = 5;
+    private ByteBuffer resultBuffer = null;
+    private IntBuffer resultInts = null;
+    private int resultCapacity = 0;
+    private ByteBuffer batchBuffer = null;
+    private IntBuffer batchInts = null;
+    private int batchCapacity = 0;
+    private int batchDocumentCapacity = 0;
+    private final long[] pendingResult = new long[1];
+    private MarkdownTagBuffer inPlaceTags = null;
+    private MarkdownTraceListener traceListener = null;
+    private MarkdownParseLimits parseLimits = MarkdownParseLimits.NONE;
+    private MarkdownCancellationSignal cancellationSignal = null;
 
     /**
-     * Wrapper for finding markdown tags natively, most of the work is being done in the C source file
+     * Tracing, set a listener to receive the durations of the parse phases (null to disable)
+     * The work within the native code is reported as a single phase
      */
-    public MarkdownTag[] findTags(String markdownText)
+    public void setTraceListener(MarkdownTraceListener listener)
     {
-        int[] nativeTags = findNativeTags(markdownText);
-        int count = getTagCount(nativeTags);
-        if (count > 0)
-        {
-            MarkdownTag[] tags = new MarkdownTag[count];
-            for (int i = 0; i < count; i++)
-            {
-                tags[i] = getConvertedTag(nativeTags, i);
-            }
-            return tags;
-        }
-        return new MarkdownTag[0];
+        traceListener = listener;
     }
 
-    private native int[] findNativeTags(String markdownText);
+    /**
+     * Resource limits for untrusted input, set to null to parse without limits
+     * The limits are checked in native code
+     */
+    public void setParseLimits(MarkdownParseLimits limits)
+    {
+        parseLimits = limits != null ? limits : MarkdownParseLimits.NONE;
+    }
 
     /**
-     * Convert tags from native int array to java object
+     * Cancellation, set a signal to stop parsing when it's cancelled (null to disable)
+     * The native code checks the signal between lines, a cancelled exception is thrown when it was cancelled
      */
-    private static final int FIELD_COUNT = 15;
+    public void setCancellationSignal(MarkdownCancellationSignal signal)
+    {
+        cancellationSignal = signal;
+    }
 
-    private int getTagCount(final int[] nativeTags)
+    /**
+     * Wrapper for finding markdown tags natively, most of the work is being done in the C source file
+     */
+    public MarkdownTag[] findTags(String markdownText)
     {
-        if (nativeTags == null)
-        {
-            return 0;
-        }
-        return nativeTags.length / FIELD_COUNT;
+        return findTagBuffer(markdownText).toArray();
     }
 
-    private MarkdownTag getConvertedTag(final int[] nativeTags, int position)
+    public MarkdownTagBuffer findTagBuffer(String markdownText)
     {
-        MarkdownTag tag = new MarkdownTag();
-        position *= FIELD_COUNT;
-        tag.type = getConvertedTagType(nativeTags[position]);
-        tag.flags = nativeTags[position + 1];
-        tag.weight = nativeTags[position + 2];
-        tag.startPosition = nativeTags[position + 3];
-        tag.endPosition = nativeTags[position + 4];
-        tag.startText = nativeTags[position + 5];
-        tag.endText = nativeTags[position + 6];
-        tag.startExtra = nativeTags[position + 7];
-        tag.endExtra = nativeTags[position + 8];
-        tag.nativeInfo = new int[6];
-        tag.nativeInfo[NATIVE_INFO_START_POSITION] = nativeTags[position + 9];
-        tag.nativeInfo[NATIVE_INFO_END_POSITION] = nativeTags[position + 10];
-        tag.nativeInfo[NATIVE_INFO_START_TEXT] = nativeTags[position + 11];
-        tag.nativeInfo[NATIVE_INFO_END_TEXT] = nativeTags[position + 12];
-        tag.nativeInfo[NATIVE_INFO_START_EXTRA] = nativeTags[position + 13];
-        tag.nativeInfo[NATIVE_INFO_END_EXTRA] = nativeTags[position + 14];
-        return tag;
+        return findTagBuffer(markdownText, null, null, 0, markdownText.length(), false);
     }
 
-    private MarkdownTag.Type getConvertedTagType(int nativeEnumValue)
+    /**
+     * Find tags which are read in place from the result buffer of the parser, without copying them into the arrays of a tag buffer
+     * The tags can only be used until the parser is used again (the tag buffer is empty after that), they're copied when the tag buffer is changed
+     */
+    public MarkdownTagBuffer findTagBufferInPlace(String markdownText)
     {
-        switch (nativeEnumValue)
-        {
-            case 1:
-                return MarkdownTag.Type.Normal;
-            case 2:
-                return MarkdownTag.Type.Paragraph;
-            case 3:
-                return MarkdownTag.Type.TextStyle;
-            case 4:
-                return MarkdownTag.Type.AlternativeTextStyle;
-            case 5:
-                return MarkdownTag.Type.Link;
-            case 6:
-                return MarkdownTag.Type.Header;
-            case 7:
-                return MarkdownTag.Type.OrderedList;
-            case 8:
-                return MarkdownTag.Type.UnorderedList;
-        }
-        return MarkdownTag.Type.Normal;
+        return findTagBuffer(markdownText, null, null, 0, markdownText.length(), true);
     }
 
     /**
-     * Extract markdown text components
+     * Find tags in UTF-8 text without decoding it (starting from the buffer position), tag positions are byte offsets
+     * Direct buffers (like a memory mapped file) are parsed in place, use convertUtf8Positions on the tag buffer to get the character positions
      */
-    public String extractText(String markdownText, MarkdownTag tag)
+    public MarkdownTagBuffer findTagBuffer(ByteBuffer utf8Text)
     {
-        if ((tag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        if (utf8Text.isDirect())
         {
-            if (tag.nativeInfo != null)
-            {
-                return escapedSubstring(markdownText, tag.nativeInfo[NATIVE_INFO_START_TEXT], tag.endText - tag.startText);
-            }
-            return escapedSubstringJava(markdownText, tag.startText, tag.endText);
+            return findTagBuffer(null, utf8Text, null, utf8Text.position(), utf8Text.remaining(), false);
+        }
+        if (utf8Text.hasArray())
+        {
+            return findTagBuffer(null, null, utf8Text.array(), utf8Text.arrayOffset() + utf8Text.position(), utf8Text.remaining(), false);
         }
-        return markdownText.substring(tag.startText, tag.endText);
+        byte[] utf8Bytes = new byte[utf8Text.remaining()];
+        utf8Text.duplicate().get(utf8Bytes);
+        return findTagBuffer(utf8Bytes);
     }
 
-    public String extractTextBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    public MarkdownTagBuffer findTagBuffer(byte[] utf8Text)
     {
-        int startPos = 0, endPos = 0;
-        switch (mode)
+        return findTagBuffer(null, null, utf8Text, 0, utf8Text.length, false);
+    }
+
+    private MarkdownTagBuffer findTagBuffer(String markdownText, ByteBuffer directUtf8Text, byte[] arrayUtf8Text, int offset, int length, boolean inPlace)
+    {
+        MarkdownTrace trace = traceListener != null ? new MarkdownTrace(traceListener, "findTagBuffer", "native", length) : null;
+        long startTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.NativeParse) : 0;
+        MarkdownParseLimits limits = parseLimits;
+        MarkdownCancellationSignal signal = cancellationSignal;
+        ByteBuffer cancelFlag = signal != null ? signal.getNativeFlag() : null;
+        releaseInPlaceTags();
+        ensureResultCapacity(length / 10 + 16);
+        int count = callNativeParser(markdownText, directUtf8Text, arrayUtf8Text, offset, length, limits, cancelFlag);
+        if (count < 0)
         {
-            case StartToNext:
-                startPos = startTag.startText;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToNext:
-                startPos = startTag.endPosition;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToEnd:
-                startPos = startTag.endPosition;
-                endPos = endTag.endText;
-                break;
+            //The tags didn't fit, the native code kept them to copy them into a bigger buffer without parsing again
+            long pending = pendingResult[0];
+            pendingResult[0] = 0;
+            try
+            {
+                ensureResultCapacity(-count);
+            }
+            finally
+            {
+                count = copyPendingResult(pending, resultBuffer, resultCapacity);
+            }
+            if (count < 0)
+            {
+                throw new IllegalStateException("Native parser can't write " + -count + " tags to a result buffer with room for " + resultCapacity + " tags");
+            }
         }
-        if (startPos >= endPos)
+        if (signal != null)
         {
-            return "";
+            signal.throwIfCancelled();
         }
-        if ((startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        if (trace != null)
         {
-            if (startTag.nativeInfo != null)
-            {
-                int startNativePos = 0;
-                switch (mode)
-                {
-                    case StartToNext:
-                        startNativePos = startTag.nativeInfo[NATIVE_INFO_START_TEXT];
-                        break;
-                    case IntermediateToNext:
-                    case IntermediateToEnd:
-                        startNativePos = startTag.nativeInfo[NATIVE_INFO_END_POSITION];
-                        break;
-                }
-                return escapedSubstring(markdownText, startNativePos, endPos - startPos);
-            }
-            return escapedSubstringJava(markdownText, startPos, endPos);
+            trace.endPhase(MarkdownTrace.Phase.NativeParse, startTime);
+        }
+        MarkdownTagBuffer tags;
+        if (inPlace)
+        {
+            tags = new MarkdownTagBuffer(0);
+            tags.readInPlace(resultInts, count, resultCapacity);
+            inPlaceTags = tags;
+        }
+        else
+        {
+            tags = new MarkdownTagBuffer(count);
+            tags.addNativeColumns(resultInts, count, resultCapacity);
         }
-        return markdownText.substring(startPos, endPos);
+        tags.setTruncated(resultInts.get(resultCapacity * FIELD_COUNT) != 0);
+        if (trace != null)
+        {
+            trace.setTruncated(tags.isTruncated());
+            trace.finish(count);
+        }
+        return tags;
     }
 
-    public String extractFull(String markdownText, MarkdownTag tag)
+    private int callNativeParser(String markdownText, ByteBuffer directUtf8Text, byte[] arrayUtf8Text, int offset, int length, MarkdownParseLimits limits, ByteBuffer cancelFlag)
     {
-        if ((tag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        int maxInputLength = limits.getMaxInputLength();
+        int maxTagCount = limits.getMaxTagCount();
+        int maxNestingDepth = limits.getMaxNestingDepth();
+        long timeoutNanos = limits.getTimeoutNanos();
+        if (markdownText != null)
         {
-            if (tag.nativeInfo != null)
-            {
-                return escapedSubstring(markdownText, tag.nativeInfo[NATIVE_INFO_START_POSITION], tag.endPosition - tag.startPosition);
-            }
-            return escapedSubstringJava(markdownText, tag.startPosition, tag.endPosition);
+            return findNativeTags(markdownText, resultBuffer, maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos, cancelFlag, pendingResult);
+        }
+        if (directUtf8Text != null)
+        {
+            return findNativeTagsUtf8(directUtf8Text, offset, length, resultBuffer, maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos, cancelFlag, pendingResult);
         }
-        return markdownText.substring(tag.startPosition, tag.endPosition);
+        return findNativeTagsUtf8Array(arrayUtf8Text, offset, length, resultBuffer, maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos, cancelFlag, pendingResult);
     }
 
-    public String extractFullBetween(String markdownText, MarkdownTag startTag, MarkdownTag endTag, ExtractBetweenMode mode)
+    private void releaseInPlaceTags()
     {
-        int startPos = 0, endPos = 0;
-        switch (mode)
+        if (inPlaceTags != null)
         {
-            case StartToNext:
-                startPos = startTag.startPosition;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToNext:
-                startPos = startTag.endPosition;
-                endPos = endTag.startPosition;
-                break;
-            case IntermediateToEnd:
-                startPos = startTag.endPosition;
-                endPos = endTag.endPosition;
-                break;
+            inPlaceTags.releaseInPlace(resultInts);
+            inPlaceTags = null;
         }
-        if (startPos >= endPos)
+    }
+
+    /**
+     * Find tags of multiple documents with a single native call, which avoids the overhead of a call for each (short) document
+     * The tags are combined in a single buffer with the range of tags for each document, the parse limits apply to each document separately
+     */
+    public MarkdownTagBatch findTagBatch(String[] markdownTexts)
+    {
+        int documentCount = markdownTexts.length;
+        int totalLength = 0;
+        for (String markdownText : markdownTexts)
         {
-            return "";
+            totalLength += markdownText.length();
         }
-        if ((startTag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        MarkdownTrace trace = traceListener != null ? new MarkdownTrace(traceListener, "findTagBatch", "native", totalLength) : null;
+        long startTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.NativeParse) : 0;
+        MarkdownParseLimits limits = parseLimits;
+        MarkdownCancellationSignal signal = cancellationSignal;
+        ByteBuffer cancelFlag = signal != null ? signal.getNativeFlag() : null;
+        ensureBatchCapacity(totalLength / 10 + documentCount * 4 + 16, documentCount);
+        int count = findNativeTagsBatch(markdownTexts, batchBuffer, batchCapacity, limits.getMaxInputLength(), limits.getMaxTagCount(), limits.getMaxNestingDepth(), limits.getTimeoutNanos(), cancelFlag, pendingResult);
+        if (count < 0)
         {
-            if (startTag.nativeInfo != null)
+            //Like a single document, the tags of the batch are copied into a bigger buffer without parsing again
+            long pending = pendingResult[0];
+            pendingResult[0] = 0;
+            try
             {
-                int startNativePos = 0;
-                switch (mode)
-                {
-                    case StartToNext:
-                        startNativePos = startTag.nativeInfo[NATIVE_INFO_START_POSITION];
-                        break;
-                    case IntermediateToNext:
-                    case IntermediateToEnd:
-                        startNativePos = startTag.nativeInfo[NATIVE_INFO_END_POSITION];
-                        break;
-                }
-                return escapedSubstring(markdownText, startNativePos, endPos - startPos);
+                ensureBatchCapacity(-count, documentCount);
             }
-            return escapedSubstringJava(markdownText, startPos, endPos);
+            finally
+            {
+                count = copyPendingResult(pending, batchBuffer, batchCapacity);
+            }
+            if (count < 0)
+            {
+                throw new IllegalStateException("Native parser can't write " + -count + " tags to a batch buffer with room for " + batchCapacity + " tags");
+            }
+        }
+        if (signal != null)
+        {
+            signal.throwIfCancelled();
+        }
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.NativeParse, startTime);
+        }
+        MarkdownTagBuffer tags = new MarkdownTagBuffer(count);
+        tags.addNativeColumns(batchInts, count, batchCapacity);
+        int[] documentStarts = new int[documentCount + 1];
+        boolean[] documentsTruncated = new boolean[documentCount];
+        batchInts.position(batchCapacity * FIELD_COUNT);
+        batchInts.get(documentStarts);
+        for (int i = 0; i < documentCount; i++)
+        {
+            documentsTruncated[i] = batchInts.get() != 0;
+            tags.setTruncated(tags.isTruncated() || documentsTruncated[i]);
+        }
+        if (trace != null)
+        {
+            trace.setTruncated(tags.isTruncated());
+            trace.finish(count);
+        }
+        return new MarkdownTagBatch(tags, documentStarts, documentsTruncated);
+    }
+
+    private native int findNativeTags(String markdownText, ByteBuffer resultBuffer, int maxInputLength, int maxTagCount, int maxNestingDepth, long timeoutNanos, ByteBuffer cancelFlag, long[] pendingResult);
+    private native int findNativeTagsUtf8(ByteBuffer utf8Text, int offset, int length, ByteBuffer resultBuffer, int maxInputLength, int maxTagCount, int maxNestingDepth, long timeoutNanos, ByteBuffer cancelFlag, long[] pendingResult);
+    private native int findNativeTagsUtf8Array(byte[] utf8Text, int offset, int length, ByteBuffer resultBuffer, int maxInputLength, int maxTagCount, int maxNestingDepth, long timeoutNanos, ByteBuffer cancelFlag, long[] pendingResult);
+    private native int findNativeTagsBatch(String[] markdownTexts, ByteBuffer resultBuffer, int tagCapacity, int maxInputLength, int maxTagCount, int maxNestingDepth, long timeoutNanos, ByteBuffer cancelFlag, long[] pendingResult);
+    private native int copyPendingResult(long pendingResult, ByteBuffer resultBuffer, int tagCapacity);
+
+    /**
+     * The result buffer is shared memory with the native code, it's reused for each parse and only grows when needed
+     * It contains a column for each tag field (with room for the capacity of tags), it's sized for a tag for each 10 characters to start with
+     * A negative count is returned if the tags don't fit, they're kept by the native code until they're copied into a bigger buffer
+     * The columns are followed by a status value, which is set when parsing was truncated by the limits
+     */
+    private static final int FIELD_COUNT = 9;
+
+    private void ensureResultCapacity(int capacity)
+    {
+        if (capacity > resultCapacity)
+        {
+            resultCapacity = Math.max(capacity, resultCapacity * 2);
+            resultBuffer = ByteBuffer.allocateDirect((resultCapacity * FIELD_COUNT + 1) * 4).order(ByteOrder.nativeOrder());
+            resultInts = resultBuffer.asIntBuffer();
         }
-        return markdownText.substring(startPos, endPos);
     }
 
-    public String extractExtra(String markdownText, MarkdownTag tag)
+    /**
+     * Release the result buffers when they grew bigger than the given size in bytes, they're allocated again when needed
+     * Tags which are read in place from a released result buffer can't be used anymore
+     */
+    @Override
+    public void trimMemory(int maxRetainedBytes)
     {
-        if (tag.startExtra < 0 || tag.endExtra < 0 || tag.endExtra <= tag.startExtra)
+        super.trimMemory(maxRetainedBytes);
+        if (resultBuffer != null && resultBuffer.capacity() > maxRetainedBytes)
         {
-            return "";
+            releaseInPlaceTags();
+            resultBuffer = null;
+            resultInts = null;
+            resultCapacity = 0;
         }
-        if ((tag.flags & MarkdownTag.FLAG_ESCAPED) > 0)
+        if (batchBuffer != null && batchBuffer.capacity() > maxRetainedBytes)
         {
-            if (tag.nativeInfo != null)
-            {
-                return escapedSubstring(markdownText, tag.nativeInfo[NATIVE_INFO_START_EXTRA], tag.nativeInfo[NATIVE_INFO_END_EXTRA]);
-            }
-            return escapedSubstringJava(markdownText, tag.startExtra, tag.endExtra);
+            batchBuffer = null;
+            batchInts = null;
+            batchCapacity = 0;
+            batchDocumentCapacity = 0;
         }
-        return markdownText.substring(tag.startExtra, tag.endExtra);
     }
 
-    private native String escapedSubstring(String text, int bytePosition, int length);
-
-    private String escapedSubstringJava(String text, int startPosition, int endPosition)
+    /**
+     * The batch buffer has the same columns, followed by the start index of each document (and the total tag count)
+     * and the truncated status of each document, the tag capacity is passed to the native code
+     */
+    private void ensureBatchCapacity(int capacity, int documentCount)
     {
-        String filteredText = "";
-        for (int i = startPosition; i < endPosition; i++)
+        if (capacity > batchCapacity || documentCount > batchDocumentCapacity)
         {
-            char chr = text.charAt(i);
-            if (chr == '\\' && text.charAt(i + 1) != '\n')
-            {
-                filteredText += text.charAt(i + 1);
-                i++;
-                continue;
-            }
-            filteredText += chr;
+            batchCapacity = capacity > batchCapacity ? Math.max(capacity, batchCapacity * 2) : batchCapacity;
+            batchDocumentCapacity = documentCount > batchDocumentCapacity ? Math.max(documentCount, batchDocumentCapacity * 2) : batchDocumentCapacity;
+            batchBuffer = ByteBuffer.allocateDirect((batchCapacity * FIELD_COUNT + batchDocumentCapacity * 2 + 1) * 4).order(ByteOrder.nativeOrder());
+            batchInts = batchBuffer.asIntBuffer();
         }
-        return filteredText;
     }
 }
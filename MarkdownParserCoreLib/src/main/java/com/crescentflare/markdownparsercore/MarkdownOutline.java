@@ -0,0 +1,215 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: outline
+ * The headers of a parsed document with the section each of them owns, to show a table of contents or jump to a header without converting the document
+ * A section starts at its header and ends before the next header of the same or a higher level (or at the end of the text), it includes the links within it
+ * The texts are extracted when requested, this is synchronized because escapes are resolved with a shared index
+ */
+public class MarkdownOutline
+{
+    /**
+     * Members
+     */
+    private final String markdownText;
+    private final MarkdownTextExtractor textExtractor = new MarkdownTextExtractor();
+    private final int[] headerLevels;
+    private final int[] headerStartTexts;
+    private final int[] headerEndTexts;
+    private final boolean[] headersEscaped;
+    private final int[] sectionStartPositions;
+    private final int[] sectionEndPositions;
+    private final int[] sectionParents;
+    private final int[] sectionLinkStarts;
+    private final int[] sectionLinkEnds;
+    private final int[] linkPositions;
+    private final int[] linkStartTexts;
+    private final int[] linkEndTexts;
+    private final int[] linkStartExtras;
+    private final int[] linkEndExtras;
+    private final boolean[] linksEscaped;
+
+    /**
+     * Initialization, the tags should be found in the given text and sorted on their start position (like the result of findTagBuffer)
+     */
+    public MarkdownOutline(String markdownText, MarkdownTagBuffer foundTags)
+    {
+        //Allocate for the amount of headers and links
+        int headerCount = 0, linkCount = 0;
+        for (int i = 0; i < foundTags.size(); i++)
+        {
+            MarkdownTag.Type type = foundTags.getType(i);
+            if (type == MarkdownTag.Type.Header)
+            {
+                headerCount++;
+            }
+            else if (type == MarkdownTag.Type.Link)
+            {
+                linkCount++;
+            }
+        }
+        this.markdownText = markdownText;
+        headerLevels = new int[headerCount];
+        headerStartTexts = new int[headerCount];
+        headerEndTexts = new int[headerCount];
+        headersEscaped = new boolean[headerCount];
+        sectionStartPositions = new int[headerCount];
+        sectionEndPositions = new int[headerCount];
+        sectionParents = new int[headerCount];
+        sectionLinkStarts = new int[headerCount];
+        sectionLinkEnds = new int[headerCount];
+        linkPositions = new int[linkCount];
+        linkStartTexts = new int[linkCount];
+        linkEndTexts = new int[linkCount];
+        linkStartExtras = new int[linkCount];
+        linkEndExtras = new int[linkCount];
+        linksEscaped = new boolean[linkCount];
+
+        //Add headers and links, a header closes the open sections of the same or a deeper level
+        int[] openSections = new int[headerCount];
+        int openCount = 0, header = 0, link = 0;
+        for (int i = 0; i < foundTags.size(); i++)
+        {
+            MarkdownTag.Type type = foundTags.getType(i);
+            if (type == MarkdownTag.Type.Header)
+            {
+                int level = foundTags.getWeight(i);
+                int startPosition = foundTags.getStartPosition(i);
+                while (openCount > 0 && headerLevels[openSections[openCount - 1]] >= level)
+                {
+                    int closed = openSections[--openCount];
+                    sectionEndPositions[closed] = startPosition;
+                    sectionLinkEnds[closed] = link;
+                }
+                headerLevels[header] = level;
+                headerStartTexts[header] = foundTags.getStartText(i);
+                headerEndTexts[header] = foundTags.getEndText(i);
+                headersEscaped[header] = foundTags.isEscaped(i);
+                sectionStartPositions[header] = startPosition;
+                sectionParents[header] = openCount > 0 ? openSections[openCount - 1] : -1;
+                sectionLinkStarts[header] = link;
+                openSections[openCount++] = header++;
+            }
+            else if (type == MarkdownTag.Type.Link)
+            {
+                linkPositions[link] = foundTags.getStartPosition(i);
+                linkStartTexts[link] = foundTags.getStartText(i);
+                linkEndTexts[link] = foundTags.getEndText(i);
+                linkStartExtras[link] = foundTags.getStartExtra(i);
+                linkEndExtras[link] = foundTags.getEndExtra(i);
+                linksEscaped[link] = foundTags.isEscaped(i);
+                link++;
+            }
+        }
+        while (openCount > 0)
+        {
+            int closed = openSections[--openCount];
+            sectionEndPositions[closed] = markdownText.length();
+            sectionLinkEnds[closed] = link;
+        }
+    }
+
+    /**
+     * Header access, the level is 1 for the biggest header
+     */
+    public int getHeaderCount()
+    {
+        return headerLevels.length;
+    }
+
+    public int getHeaderLevel(int index)
+    {
+        return headerLevels[index];
+    }
+
+    public int getHeaderStartText(int index)
+    {
+        return headerStartTexts[index];
+    }
+
+    public int getHeaderEndText(int index)
+    {
+        return headerEndTexts[index];
+    }
+
+    public synchronized String getHeaderText(int index)
+    {
+        return textExtractor.extract(markdownText, headerStartTexts[index], headerEndTexts[index], headersEscaped[index]);
+    }
+
+    /**
+     * Section access, the parent is the section of the nearest header before it with a higher level (or -1)
+     */
+    public int getSectionStartPosition(int index)
+    {
+        return sectionStartPositions[index];
+    }
+
+    public int getSectionEndPosition(int index)
+    {
+        return sectionEndPositions[index];
+    }
+
+    public int getParentIndex(int index)
+    {
+        return sectionParents[index];
+    }
+
+    public int getSectionLinkStart(int index)
+    {
+        return sectionLinkStarts[index];
+    }
+
+    public int getSectionLinkEnd(int index)
+    {
+        return sectionLinkEnds[index];
+    }
+
+    /**
+     * Find the index of the innermost section containing the given position, or -1 when it's before the first header
+     */
+    public int findSectionIndex(int position)
+    {
+        int low = 0, high = sectionStartPositions.length;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (sectionStartPositions[middle] <= position)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Link access, links are sorted on their position and the links of a section (including its subsections) are a range of them
+     */
+    public int getLinkCount()
+    {
+        return linkPositions.length;
+    }
+
+    public int getLinkPosition(int index)
+    {
+        return linkPositions[index];
+    }
+
+    public synchronized String getLinkText(int index)
+    {
+        return textExtractor.extract(markdownText, linkStartTexts[index], linkEndTexts[index], linksEscaped[index]);
+    }
+
+    public synchronized String getLinkTarget(int index)
+    {
+        if (linkStartExtras[index] < 0 || linkEndExtras[index] <= linkStartExtras[index])
+        {
+            return "";
+        }
+        return textExtractor.extract(markdownText, linkStartExtras[index], linkEndExtras[index], linksEscaped[index]);
+    }
+}
@@ -0,0 +1,210 @@
+package com.crescentflare.markdownparsercore;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Markdown core library: parallel parser implementation
+ * Splits big documents into chunks which are parsed at the same time, the result is the same as the java parser
+ * Chunks are split before a line which follows one or more empty lines, the parser doesn't depend on the text before it
+ */
+public class MarkdownParallelParser extends MarkdownJavaParser
+{
+    /**
+     * Constants
+     */
+    public static final int DEFAULT_THRESHOLD = 32768;
+
+    /**
+     * Members
+     */
+    private static ExecutorService defaultExecutor = null;
+    private final Executor executor;
+    private final int parallelism;
+    private final int threshold;
+
+    /**
+     * Initialization
+     */
+    public MarkdownParallelParser()
+    {
+        this(null, Runtime.getRuntime().availableProcessors(), DEFAULT_THRESHOLD);
+    }
+
+    public MarkdownParallelParser(Executor executor, int parallelism, int threshold)
+    {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Find tags in chunks, documents smaller than the threshold are parsed on the calling thread
+     * With parse limits the document is parsed on the calling thread as well, the limits stop at the first line exceeding them
+     * The cancellation signal is checked by each chunk, a trace only contains the total parse duration of all chunks
+     */
+    @Override
+    public MarkdownTagBuffer findTagBuffer(final String markdownText)
+    {
+        //Determine chunks, they start at the seam following the evenly divided positions
+        final int maxLength = markdownText.length();
+        MarkdownParseLimits limits = getParseLimits();
+        boolean limited = limits != null && !limits.isUnlimited();
+        int chunkCount = maxLength < threshold || limited ? 1 : parallelism;
+        final int[] seamPositions = new int[chunkCount];
+        int foundChunks = 1;
+        for (int i = 1; i < chunkCount; i++)
+        {
+            int seamPosition = findSeamAfter(markdownText, Math.max((int)((long)maxLength * i / chunkCount), seamPositions[foundChunks - 1]));
+            if (seamPosition < 0)
+            {
+                break;
+            }
+            seamPositions[foundChunks++] = seamPosition;
+        }
+        if (foundChunks == 1)
+        {
+            return super.findTagBuffer(markdownText);
+        }
+
+        //Parse chunks, workers take the next chunk until all are claimed
+        //The calling thread parses chunks as well, it only waits for chunks which are already being parsed by a worker
+        MarkdownTraceListener traceListener = getTraceListener();
+        MarkdownTrace trace = traceListener != null ? new MarkdownTrace(traceListener, "findTagBuffer", "parallel", maxLength) : null;
+        long startTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.Parse) : 0;
+        final int chunks = foundChunks;
+        final MarkdownCancellationSignal signal = getCancellationSignal();
+        final MarkdownTagBuffer[] chunkTags = new MarkdownTagBuffer[chunks];
+        final RuntimeException[] chunkErrors = new RuntimeException[chunks];
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch completedChunks = new CountDownLatch(chunks);
+        Runnable worker = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunks)
+                {
+                    try
+                    {
+                        chunkTags[chunk] = findChunkTags(markdownText, seamPositions, chunk, chunks, signal);
+                    }
+                    catch (RuntimeException exception)
+                    {
+                        chunkErrors[chunk] = exception;
+                    }
+                    finally
+                    {
+                        completedChunks.countDown();
+                    }
+                }
+            }
+        };
+        Executor useExecutor = executor != null ? executor : getDefaultExecutor();
+        try
+        {
+            for (int i = 1; i < chunks; i++)
+            {
+                useExecutor.execute(worker);
+            }
+        }
+        catch (RejectedExecutionException ignored)
+        {
+        }
+        worker.run();
+        awaitUninterruptibly(completedChunks);
+
+        //Combine the result, the tag positions are already relative to the whole document
+        int tagCount = 0;
+        for (int i = 0; i < chunks; i++)
+        {
+            if (chunkErrors[i] != null)
+            {
+                throw chunkErrors[i];
+            }
+            tagCount += chunkTags[i].size();
+        }
+        MarkdownTagBuffer foundTags = new MarkdownTagBuffer(tagCount);
+        for (int i = 0; i < chunks; i++)
+        {
+            foundTags.addAll(chunkTags[i]);
+        }
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.Parse, startTime);
+            trace.finish(foundTags.size());
+        }
+        return foundTags;
+    }
+
+    /**
+     * Chunk handling, each chunk uses its own parser to keep the work independent
+     */
+    private static MarkdownTagBuffer findChunkTags(String markdownText, int[] seamPositions, int chunk, int chunks, MarkdownCancellationSignal signal)
+    {
+        int startPosition = 0, paragraphStartPos = -1;
+        int stopPosition = markdownText.length();
+        if (chunk > 0)
+        {
+            startPosition = seamPositions[chunk] - 1;
+            paragraphStartPos = getSeamParagraphStart(markdownText, seamPositions[chunk]);
+        }
+        if (chunk + 1 < chunks)
+        {
+            stopPosition = getSeamParagraphStart(markdownText, seamPositions[chunk + 1]);
+        }
+        MarkdownTagBuffer foundTags = new MarkdownTagBuffer((stopPosition - startPosition) / 16 + 16);
+        new MarkdownJavaParser().addTagsInRange(foundTags, markdownText, startPosition, stopPosition, paragraphStartPos, signal);
+        return foundTags;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException ignored)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Default executor, shared between parsers and using daemon threads
+     */
+    private static synchronized Executor getDefaultExecutor()
+    {
+        if (defaultExecutor == null)
+        {
+            defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                private int threadCount = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "MarkdownParser-" + (++threadCount));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+}
@@ -0,0 +1,79 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: parse limits
+ * Resource budgets for parsing untrusted markdown, a value of 0 disables the limit
+ * When a limit is reached the tags found so far are kept, the rest of the text is added as a single plain (normal) tag
+ * and the tag buffer is marked as truncated
+ */
+public class MarkdownParseLimits
+{
+    /**
+     * Constants
+     */
+    public static final int UNLIMITED = 0;
+    public static final MarkdownParseLimits NONE = new MarkdownParseLimits(UNLIMITED, UNLIMITED, UNLIMITED, UNLIMITED);
+    private static final int MIN_TAG_COUNT = 3;
+
+    /**
+     * Members
+     */
+    private final int maxInputLength;
+    private final int maxTagCount;
+    private final int maxNestingDepth;
+    private final long timeoutNanos;
+
+    /**
+     * Initialization
+     * The input length is in characters (or bytes for UTF-8 input), the tag count includes the tag for the remaining plain text
+     * The tag count is at least 3 (room for a line, its paragraph and the remaining text), the timeout is checked for each line
+     */
+    public MarkdownParseLimits(int maxInputLength, int maxTagCount, int maxNestingDepth, long timeoutNanos)
+    {
+        this.maxInputLength = Math.max(UNLIMITED, maxInputLength);
+        this.maxTagCount = maxTagCount > UNLIMITED ? Math.max(MIN_TAG_COUNT, maxTagCount) : UNLIMITED;
+        this.maxNestingDepth = Math.max(UNLIMITED, maxNestingDepth);
+        this.timeoutNanos = Math.max(UNLIMITED, timeoutNanos);
+    }
+
+    /**
+     * Limit access
+     */
+    public int getMaxInputLength()
+    {
+        return maxInputLength;
+    }
+
+    public int getMaxTagCount()
+    {
+        return maxTagCount;
+    }
+
+    public int getMaxNestingDepth()
+    {
+        return maxNestingDepth;
+    }
+
+    public long getTimeoutNanos()
+    {
+        return timeoutNanos;
+    }
+
+    public boolean isUnlimited()
+    {
+        return maxInputLength == UNLIMITED && maxTagCount == UNLIMITED && maxNestingDepth == UNLIMITED && timeoutNanos == UNLIMITED;
+    }
+
+    /**
+     * Helpers for parsers
+     */
+    int getScanLength(int textLength)
+    {
+        return maxInputLength != UNLIMITED ? Math.min(textLength, maxInputLength) : textLength;
+    }
+
+    long getDeadline(long startTime)
+    {
+        return timeoutNanos != UNLIMITED ? startTime + timeoutNanos : 0;
+    }
+}
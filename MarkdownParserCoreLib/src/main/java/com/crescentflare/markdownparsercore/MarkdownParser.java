@@ -5,6 +5,7 @@ package com.crescentflare.markdownparsercore;
  * The interface to do the core (low-level) markdown parsing
  * It returns ranges for the markdown tags which is used within the library
  * Use manually if the output needs to be highly customizable
+ * The parsers of the library extend the base parser, which adds tag buffers, limits, cancellation, tracing and zero-copy extraction
  */
 public interface MarkdownParser
 {
@@ -0,0 +1,15 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: stream listener
+ * Receives the tags of each completed section from the stream parser
+ */
+public interface MarkdownStreamListener
+{
+    /**
+     * Called for each section of one or more paragraphs, tag positions are relative to the section text
+     * The section offset is the position of the section text within the stream
+     * The tag buffer is reused for the next section, copy it if the tags need to be kept
+     */
+    void onSection(String sectionText, int sectionOffset, MarkdownTagBuffer tags);
+}
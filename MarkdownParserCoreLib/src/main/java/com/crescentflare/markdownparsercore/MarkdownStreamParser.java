@@ -0,0 +1,116 @@
+package com.crescentflare.markdownparsercore;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Markdown core library: stream parser
+ * Parses markdown text which is delivered in chunks (for example, from a reader) and pushes the tags to a listener
+ * Text is only kept until a section is complete, a section ends before a line which follows one or more empty lines
+ */
+public class MarkdownStreamParser
+{
+    /**
+     * Members
+     */
+    private final MarkdownJavaParser parser = new MarkdownJavaParser();
+    private final MarkdownStreamListener listener;
+    private final StringBuilder pendingText = new StringBuilder();
+    private final MarkdownTagBuffer sectionTags = new MarkdownTagBuffer();
+    private int pendingOffset = 0;
+    private int scanPosition = 0;
+    private int paragraphStartPos = -1;
+    private int searchPosition = 0;
+
+    /**
+     * Initialization
+     */
+    public MarkdownStreamParser(MarkdownStreamListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Parse all text from the reader, the reader is not closed
+     */
+    public void parse(Reader reader) throws IOException
+    {
+        char[] buffer = new char[8192];
+        int readCount;
+        while ((readCount = reader.read(buffer)) >= 0)
+        {
+            append(buffer, 0, readCount);
+        }
+        finish();
+    }
+
+    /**
+     * Add the next chunk of text (like a CharBuffer), completed sections are sent to the listener
+     */
+    public void append(CharSequence text)
+    {
+        pendingText.append(text);
+        processPendingText();
+    }
+
+    public void append(char[] text, int offset, int length)
+    {
+        pendingText.append(text, offset, length);
+        processPendingText();
+    }
+
+    /**
+     * Send the remaining text as the last section and reset the parser for a new stream
+     */
+    public void finish()
+    {
+        if (pendingText.length() > 0)
+        {
+            sendSection(pendingText.length());
+        }
+        pendingText.setLength(0);
+        pendingOffset = 0;
+        scanPosition = 0;
+        paragraphStartPos = -1;
+        searchPosition = 0;
+    }
+
+    /**
+     * Section handling
+     */
+    private void processPendingText()
+    {
+        int seamPosition;
+        while ((seamPosition = MarkdownJavaParser.findSeamAfter(pendingText, searchPosition)) >= 0)
+        {
+            //The next section starts with the paragraph in front of the seam
+            int sectionEnd = MarkdownJavaParser.getSeamParagraphStart(pendingText, seamPosition);
+            sendSection(sectionEnd);
+            seamPosition -= sectionEnd;
+            scanPosition = seamPosition - 1;
+            paragraphStartPos = 0;
+            searchPosition = seamPosition;
+        }
+
+        //Continue searching from the trailing newlines next time, they may become part of a seam
+        int trailingPosition = pendingText.length();
+        while (trailingPosition > searchPosition + 1 && pendingText.charAt(trailingPosition - 1) == '\n')
+        {
+            trailingPosition--;
+        }
+        searchPosition = Math.max(searchPosition, trailingPosition - 1);
+    }
+
+    private void sendSection(int sectionEnd)
+    {
+        String sectionText = pendingText.substring(0, sectionEnd);
+        sectionTags.clear();
+        parser.addTagsInRange(sectionTags, sectionText, scanPosition, sectionEnd, paragraphStartPos);
+        if (sectionTags.size() > 0)
+        {
+            listener.onSection(sectionText, pendingOffset, sectionTags);
+        }
+        pendingText.delete(0, sectionEnd);
+        pendingOffset += sectionEnd;
+    }
+}
@@ -30,5 +30,4 @@ public class MarkdownTag
     public int startExtra = -1;
     public int endExtra = -1;
     public int weight = 0;
-    public int nativeInfo[] = null;
 }
@@ -0,0 +1,65 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: tag batch
+ * The tags of multiple documents which were parsed at once, stored in a single tag buffer with the range of tags for each document
+ * Tag positions are relative to the start of their own document
+ */
+public class MarkdownTagBatch
+{
+    /**
+     * Members
+     */
+    private final MarkdownTagBuffer tags;
+    private final int[] documentStarts;
+    private final boolean[] documentsTruncated;
+
+    /**
+     * Initialization, the document starts contain an extra entry with the total tag count
+     */
+    MarkdownTagBatch(MarkdownTagBuffer tags, int[] documentStarts, boolean[] documentsTruncated)
+    {
+        this.tags = tags;
+        this.documentStarts = documentStarts;
+        this.documentsTruncated = documentsTruncated;
+    }
+
+    /**
+     * Batch access
+     */
+    public MarkdownTagBuffer getTags()
+    {
+        return tags;
+    }
+
+    public int getDocumentCount()
+    {
+        return documentsTruncated.length;
+    }
+
+    public int getStartIndex(int document)
+    {
+        return documentStarts[document];
+    }
+
+    public int getEndIndex(int document)
+    {
+        return documentStarts[document + 1];
+    }
+
+    public boolean isTruncated(int document)
+    {
+        return documentsTruncated[document];
+    }
+
+    /**
+     * Copy the tags of a single document into a separate tag buffer (like the result of findTagBuffer)
+     */
+    public MarkdownTagBuffer getDocumentTags(int document)
+    {
+        MarkdownTagBuffer documentTags = new MarkdownTagBuffer(getEndIndex(document) - getStartIndex(document));
+        documentTags.addRange(tags, getStartIndex(document), getEndIndex(document));
+        documentTags.setTruncated(documentsTruncated[document]);
+        return documentTags;
+    }
+}
@@ -0,0 +1,574 @@
+package com.crescentflare.markdownparsercore;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Markdown core library: markdown tag buffer
+ * Stores markdown tags in primitive arrays (one for each tag field) instead of separate objects
+ * Tags are accessed by index, use getTag to convert a single tag into a markdown tag object
+ * Tags found by the native parser can be read in place from its result buffer, they're copied into the arrays when the buffer is changed
+ */
+public class MarkdownTagBuffer
+{
+    /**
+     * Members
+     */
+    private static final MarkdownTag.Type[] TYPES = MarkdownTag.Type.values();
+
+    private int count = 0;
+    private int[] types;
+    private int[] flags;
+    private int[] weights;
+    private int[] startPositions;
+    private int[] endPositions;
+    private int[] startTexts;
+    private int[] endTexts;
+    private int[] startExtras;
+    private int[] endExtras;
+    private IntBuffer nativeColumns = null;
+    private int nativeColumnSize = 0;
+    private boolean truncated = false;
+
+    /**
+     * Initialization
+     */
+    public MarkdownTagBuffer()
+    {
+        this(32);
+    }
+
+    public MarkdownTagBuffer(int capacity)
+    {
+        capacity = Math.max(1, capacity);
+        types = new int[capacity];
+        flags = new int[capacity];
+        weights = new int[capacity];
+        startPositions = new int[capacity];
+        endPositions = new int[capacity];
+        startTexts = new int[capacity];
+        endTexts = new int[capacity];
+        startExtras = new int[capacity];
+        endExtras = new int[capacity];
+    }
+
+    /**
+     * Adding tags
+     */
+    public int add(MarkdownTag.Type type, int flags, int weight, int startPosition, int endPosition, int startText, int endText, int startExtra, int endExtra)
+    {
+        detachNativeColumns();
+        if (count == types.length)
+        {
+            ensureCapacity(count + 1);
+        }
+        types[count] = type.ordinal();
+        this.flags[count] = flags;
+        weights[count] = weight;
+        startPositions[count] = startPosition;
+        endPositions[count] = endPosition;
+        startTexts[count] = startText;
+        endTexts[count] = endText;
+        startExtras[count] = startExtra;
+        endExtras[count] = endExtra;
+        return count++;
+    }
+
+    public int add(MarkdownTag tag)
+    {
+        return add(tag.type, tag.flags, tag.weight, tag.startPosition, tag.endPosition, tag.startText, tag.endText, tag.startExtra, tag.endExtra);
+    }
+
+    public int add(MarkdownTagBuffer buffer, int index)
+    {
+        return add(buffer.getType(index), buffer.getFlags(index), buffer.getWeight(index), buffer.getStartPosition(index), buffer.getEndPosition(index), buffer.getStartText(index), buffer.getEndText(index), buffer.getStartExtra(index), buffer.getEndExtra(index));
+    }
+
+    public void addAll(MarkdownTagBuffer buffer)
+    {
+        replaceRange(count, count, buffer);
+    }
+
+    public void addRange(MarkdownTagBuffer buffer, int startIndex, int endIndex)
+    {
+        int addCount = endIndex - startIndex;
+        ensureCapacity(count + addCount);
+        copyColumns(buffer, startIndex, count, addCount);
+        count += addCount;
+    }
+
+    public void clear()
+    {
+        nativeColumns = null;
+        count = 0;
+        truncated = false;
+    }
+
+    public void ensureCapacity(int capacity)
+    {
+        detachNativeColumns();
+        if (capacity > types.length)
+        {
+            int newCapacity = Math.max(capacity, types.length * 2);
+            types = Arrays.copyOf(types, newCapacity);
+            flags = Arrays.copyOf(flags, newCapacity);
+            weights = Arrays.copyOf(weights, newCapacity);
+            startPositions = Arrays.copyOf(startPositions, newCapacity);
+            endPositions = Arrays.copyOf(endPositions, newCapacity);
+            startTexts = Arrays.copyOf(startTexts, newCapacity);
+            endTexts = Arrays.copyOf(endTexts, newCapacity);
+            startExtras = Arrays.copyOf(startExtras, newCapacity);
+            endExtras = Arrays.copyOf(endExtras, newCapacity);
+        }
+    }
+
+    /**
+     * Sort a range of tags on their start position, the order of tags with the same start position is kept
+     * Small ranges (like the tags within a line) are sorted in place without allocating memory
+     */
+    public void sortByStartPosition(int start, int end)
+    {
+        for (int i = start + 1; i < end; i++)
+        {
+            if (getStartPosition(i) < getStartPosition(i - 1))
+            {
+                detachNativeColumns();
+                if (end - start <= 64)
+                {
+                    insertionSortByStartPosition(i, start, end);
+                }
+                else
+                {
+                    sortRangeByStartPosition(start, end);
+                }
+                return;
+            }
+        }
+    }
+
+    private void insertionSortByStartPosition(int firstUnsorted, int start, int end)
+    {
+        for (int i = firstUnsorted; i < end; i++)
+        {
+            int insertIndex = i;
+            while (insertIndex > start && startPositions[insertIndex - 1] > startPositions[i])
+            {
+                insertIndex--;
+            }
+            if (insertIndex < i)
+            {
+                rotateColumn(types, insertIndex, i);
+                rotateColumn(flags, insertIndex, i);
+                rotateColumn(weights, insertIndex, i);
+                rotateColumn(startPositions, insertIndex, i);
+                rotateColumn(endPositions, insertIndex, i);
+                rotateColumn(startTexts, insertIndex, i);
+                rotateColumn(endTexts, insertIndex, i);
+                rotateColumn(startExtras, insertIndex, i);
+                rotateColumn(endExtras, insertIndex, i);
+            }
+        }
+    }
+
+    private static void rotateColumn(int[] column, int insertIndex, int index)
+    {
+        int value = column[index];
+        System.arraycopy(column, insertIndex, column, insertIndex + 1, index - insertIndex);
+        column[insertIndex] = value;
+    }
+
+    private void sortRangeByStartPosition(int start, int end)
+    {
+        //Sort on a combined key of start position and index to keep it stable, then move the fields around
+        int length = end - start;
+        long[] keys = new long[length];
+        for (int i = 0; i < length; i++)
+        {
+            keys[i] = ((long)startPositions[start + i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            order[i] = start + (int)(keys[i] & 0xFFFFFFFFL);
+        }
+        reorderColumn(types, order, start);
+        reorderColumn(flags, order, start);
+        reorderColumn(weights, order, start);
+        reorderColumn(startPositions, order, start);
+        reorderColumn(endPositions, order, start);
+        reorderColumn(startTexts, order, start);
+        reorderColumn(endTexts, order, start);
+        reorderColumn(startExtras, order, start);
+        reorderColumn(endExtras, order, start);
+    }
+
+    private static void reorderColumn(int[] column, int[] order, int start)
+    {
+        int[] values = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            values[i] = column[order[i]];
+        }
+        System.arraycopy(values, 0, column, start, values.length);
+    }
+
+    /**
+     * Tag access
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    public MarkdownTag.Type getType(int index)
+    {
+        return TYPES[nativeColumns != null ? typeIndexForNative(nativeColumns.get(index)) : types[index]];
+    }
+
+    public int getFlags(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize + index) : flags[index];
+    }
+
+    public int getWeight(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 2 + index) : weights[index];
+    }
+
+    public int getStartPosition(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 3 + index) : startPositions[index];
+    }
+
+    public int getEndPosition(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 4 + index) : endPositions[index];
+    }
+
+    public int getStartText(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 5 + index) : startTexts[index];
+    }
+
+    public int getEndText(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 6 + index) : endTexts[index];
+    }
+
+    public int getStartExtra(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 7 + index) : startExtras[index];
+    }
+
+    public int getEndExtra(int index)
+    {
+        return nativeColumns != null ? nativeColumns.get(nativeColumnSize * 8 + index) : endExtras[index];
+    }
+
+    public boolean isEscaped(int index)
+    {
+        return (getFlags(index) & MarkdownTag.FLAG_ESCAPED) > 0;
+    }
+
+    public MarkdownTag getTag(int index)
+    {
+        MarkdownTag tag = new MarkdownTag();
+        tag.type = getType(index);
+        tag.flags = getFlags(index);
+        tag.weight = getWeight(index);
+        tag.startPosition = getStartPosition(index);
+        tag.endPosition = getEndPosition(index);
+        tag.startText = getStartText(index);
+        tag.endText = getEndText(index);
+        tag.startExtra = getStartExtra(index);
+        tag.endExtra = getEndExtra(index);
+        return tag;
+    }
+
+    public MarkdownTag[] toArray()
+    {
+        MarkdownTag[] tags = new MarkdownTag[count];
+        for (int i = 0; i < count; i++)
+        {
+            tags[i] = getTag(i);
+        }
+        return tags;
+    }
+
+    /**
+     * Truncation, set when a parse limit was reached: the remaining text is added as a normal tag without markdown (or deeper styling is left out)
+     */
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated)
+    {
+        this.truncated = truncated;
+    }
+
+    /**
+     * Tag modification
+     */
+    public void setWeight(int index, int weight)
+    {
+        detachNativeColumns();
+        weights[index] = weight;
+    }
+
+    public void setEndPosition(int index, int endPosition)
+    {
+        detachNativeColumns();
+        endPositions[index] = endPosition;
+    }
+
+    public void setEndText(int index, int endText)
+    {
+        detachNativeColumns();
+        endTexts[index] = endText;
+    }
+
+    public void setExtra(int index, int startExtra, int endExtra)
+    {
+        detachNativeColumns();
+        startExtras[index] = startExtra;
+        endExtras[index] = endExtra;
+    }
+
+    /**
+     * Replace a range of tags with the tags from another buffer
+     */
+    public void replaceRange(int startIndex, int endIndex, MarkdownTagBuffer tags)
+    {
+        int addCount = tags.count;
+        int moveCount = count - endIndex;
+        ensureCapacity(startIndex + addCount + moveCount);
+        moveColumns(endIndex, startIndex + addCount, moveCount);
+        copyColumns(tags, 0, startIndex, addCount);
+        count = startIndex + addCount + moveCount;
+        truncated |= tags.truncated;
+    }
+
+    private void copyColumns(MarkdownTagBuffer tags, int fromIndex, int toIndex, int copyCount)
+    {
+        if (tags.nativeColumns != null)
+        {
+            readNativeColumns(tags.nativeColumns, tags.nativeColumnSize, fromIndex, toIndex, copyCount);
+            return;
+        }
+        System.arraycopy(tags.types, fromIndex, types, toIndex, copyCount);
+        System.arraycopy(tags.flags, fromIndex, flags, toIndex, copyCount);
+        System.arraycopy(tags.weights, fromIndex, weights, toIndex, copyCount);
+        System.arraycopy(tags.startPositions, fromIndex, startPositions, toIndex, copyCount);
+        System.arraycopy(tags.endPositions, fromIndex, endPositions, toIndex, copyCount);
+        System.arraycopy(tags.startTexts, fromIndex, startTexts, toIndex, copyCount);
+        System.arraycopy(tags.endTexts, fromIndex, endTexts, toIndex, copyCount);
+        System.arraycopy(tags.startExtras, fromIndex, startExtras, toIndex, copyCount);
+        System.arraycopy(tags.endExtras, fromIndex, endExtras, toIndex, copyCount);
+    }
+
+    private void moveColumns(int fromIndex, int toIndex, int moveCount)
+    {
+        if (fromIndex != toIndex && moveCount > 0)
+        {
+            System.arraycopy(types, fromIndex, types, toIndex, moveCount);
+            System.arraycopy(flags, fromIndex, flags, toIndex, moveCount);
+            System.arraycopy(weights, fromIndex, weights, toIndex, moveCount);
+            System.arraycopy(startPositions, fromIndex, startPositions, toIndex, moveCount);
+            System.arraycopy(endPositions, fromIndex, endPositions, toIndex, moveCount);
+            System.arraycopy(startTexts, fromIndex, startTexts, toIndex, moveCount);
+            System.arraycopy(endTexts, fromIndex, endTexts, toIndex, moveCount);
+            System.arraycopy(startExtras, fromIndex, startExtras, toIndex, moveCount);
+            System.arraycopy(endExtras, fromIndex, endExtras, toIndex, moveCount);
+        }
+    }
+
+    /**
+     * Move the positions of all tags starting from the given index (for example, after text was inserted)
+     */
+    public void shiftPositions(int startIndex, int offset)
+    {
+        if (offset == 0)
+        {
+            return;
+        }
+        detachNativeColumns();
+        for (int i = startIndex; i < count; i++)
+        {
+            startPositions[i] += offset;
+            endPositions[i] += offset;
+            startTexts[i] += offset;
+            endTexts[i] += offset;
+            if (startExtras[i] >= 0)
+            {
+                startExtras[i] += offset;
+            }
+            if (endExtras[i] >= 0)
+            {
+                endExtras[i] += offset;
+            }
+        }
+    }
+
+    /**
+     * Convert positions from UTF-8 byte offsets (starting from the buffer position) to character offsets within the decoded string
+     * All positions are sorted first, the characters up to each position are then counted in a single pass over the text
+     */
+    public void convertUtf8Positions(ByteBuffer utf8Text)
+    {
+        //Collect positions
+        detachNativeColumns();
+        int[] bytePositions = new int[count * 6];
+        int positionCount = 0;
+        for (int i = 0; i < count; i++)
+        {
+            bytePositions[positionCount++] = startPositions[i];
+            bytePositions[positionCount++] = endPositions[i];
+            bytePositions[positionCount++] = startTexts[i];
+            bytePositions[positionCount++] = endTexts[i];
+            if (startExtras[i] >= 0)
+            {
+                bytePositions[positionCount++] = startExtras[i];
+            }
+            if (endExtras[i] >= 0)
+            {
+                bytePositions[positionCount++] = endExtras[i];
+            }
+        }
+        Arrays.sort(bytePositions, 0, positionCount);
+
+        //Count characters, continuation bytes are skipped and 4-byte sequences become surrogate pairs
+        int[] charPositions = new int[positionCount];
+        int bufferStart = utf8Text.position();
+        int bytePosition = 0, charPosition = 0;
+        for (int i = 0; i < positionCount; i++)
+        {
+            while (bytePosition < bytePositions[i])
+            {
+                int value = utf8Text.get(bufferStart + bytePosition) & 0xFF;
+                if ((value & 0xC0) != 0x80)
+                {
+                    charPosition += value >= 0xF0 ? 2 : 1;
+                }
+                bytePosition++;
+            }
+            charPositions[i] = charPosition;
+        }
+
+        //Replace positions
+        convertPositionColumn(startPositions, bytePositions, charPositions, positionCount);
+        convertPositionColumn(endPositions, bytePositions, charPositions, positionCount);
+        convertPositionColumn(startTexts, bytePositions, charPositions, positionCount);
+        convertPositionColumn(endTexts, bytePositions, charPositions, positionCount);
+        convertPositionColumn(startExtras, bytePositions, charPositions, positionCount);
+        convertPositionColumn(endExtras, bytePositions, charPositions, positionCount);
+    }
+
+    public void convertUtf8Positions(byte[] utf8Text)
+    {
+        convertUtf8Positions(ByteBuffer.wrap(utf8Text));
+    }
+
+    private void convertPositionColumn(int[] column, int[] bytePositions, int[] charPositions, int positionCount)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (column[i] >= 0)
+            {
+                column[i] = charPositions[Arrays.binarySearch(bytePositions, 0, positionCount, column[i])];
+            }
+        }
+    }
+
+    /**
+     * Find the index of the first tag starting at or after the given position, tags should be sorted on their start position
+     */
+    public int findIndexAtPosition(int position)
+    {
+        int low = 0, high = count;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (getStartPosition(middle) < position)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Native tag data (stored per column with the given column size, with the native type enum starting at 1)
+     * The tags are read in place until the buffer is changed, the native parser releases them before it reuses its result buffer
+     */
+    void readInPlace(IntBuffer columns, int tagCount, int columnSize)
+    {
+        nativeColumns = columns;
+        nativeColumnSize = columnSize;
+        count = tagCount;
+        truncated = false;
+    }
+
+    void releaseInPlace(IntBuffer columns)
+    {
+        if (nativeColumns == columns)
+        {
+            clear();
+        }
+    }
+
+    void addNativeColumns(IntBuffer columns, int tagCount, int columnSize)
+    {
+        ensureCapacity(count + tagCount);
+        readNativeColumns(columns, columnSize, 0, count, tagCount);
+        count += tagCount;
+    }
+
+    private void detachNativeColumns()
+    {
+        if (nativeColumns != null)
+        {
+            IntBuffer columns = nativeColumns;
+            int tagCount = count;
+            nativeColumns = null;
+            count = 0;
+            addNativeColumns(columns, tagCount, nativeColumnSize);
+        }
+    }
+
+    private void readNativeColumns(IntBuffer columns, int columnSize, int fromIndex, int toIndex, int tagCount)
+    {
+        IntBuffer source = columns.duplicate();
+        readColumn(source, fromIndex, types, toIndex, tagCount);
+        readColumn(source, columnSize + fromIndex, flags, toIndex, tagCount);
+        readColumn(source, columnSize * 2 + fromIndex, weights, toIndex, tagCount);
+        readColumn(source, columnSize * 3 + fromIndex, startPositions, toIndex, tagCount);
+        readColumn(source, columnSize * 4 + fromIndex, endPositions, toIndex, tagCount);
+        readColumn(source, columnSize * 5 + fromIndex, startTexts, toIndex, tagCount);
+        readColumn(source, columnSize * 6 + fromIndex, endTexts, toIndex, tagCount);
+        readColumn(source, columnSize * 7 + fromIndex, startExtras, toIndex, tagCount);
+        readColumn(source, columnSize * 8 + fromIndex, endExtras, toIndex, tagCount);
+        for (int i = toIndex; i < toIndex + tagCount; i++)
+        {
+            types[i] = typeIndexForNative(types[i]);
+        }
+    }
+
+    private static void readColumn(IntBuffer columns, int position, int[] values, int offset, int tagCount)
+    {
+        columns.position(position);
+        columns.get(values, offset, tagCount);
+    }
+
+    private static int typeIndexForNative(int nativeType)
+    {
+        return nativeType >= 1 && nativeType <= TYPES.length ? nativeType - 1 : MarkdownTag.Type.Normal.ordinal();
+    }
+}
@@ -0,0 +1,210 @@
+package com.crescentflare.markdownparsercore;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Markdown core library: text extractor
+ * Extracts text ranges from a markdown document and resolves escaped characters on the fly
+ * Escapes are looked up in an index which is built once per document (and only when needed)
+ */
+class MarkdownTextExtractor
+{
+    /**
+     * Members
+     */
+    private String indexedText = null;
+    private int[] escapePositions = new int[0];
+    private int escapeCount = 0;
+
+    /**
+     * Extract a range as a string
+     */
+    public String extract(String markdownText, int startPosition, int endPosition, boolean escaped)
+    {
+        if (startPosition >= endPosition)
+        {
+            return "";
+        }
+        if (!escaped)
+        {
+            return markdownText.substring(startPosition, endPosition);
+        }
+        StringBuilder builder = new StringBuilder(endPosition - startPosition);
+        try
+        {
+            appendEscaped(markdownText, startPosition, endPosition, builder);
+        }
+        catch (IOException ignored)
+        {
+            //StringBuilder doesn't throw I/O exceptions
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Extract a range as a character sequence view on the original text
+     */
+    public CharSequence extractSequence(String markdownText, int startPosition, int endPosition, boolean escaped)
+    {
+        if (startPosition >= endPosition)
+        {
+            return "";
+        }
+        if (!escaped)
+        {
+            return new MarkdownTextSequence(markdownText, startPosition, endPosition, null, 0, 0);
+        }
+        int firstEscape = findEscapeIndex(markdownText, startPosition);
+        int[] rangeEscapes = null;
+        int rangeEscapeCount = 0;
+        int lastPosition = startPosition;
+        for (int i = firstEscape; i < escapeCount && escapePositions[i] < endPosition; i++)
+        {
+            if (escapePositions[i] >= lastPosition)
+            {
+                if (rangeEscapes == null)
+                {
+                    rangeEscapes = new int[4];
+                }
+                else if (rangeEscapeCount == rangeEscapes.length)
+                {
+                    rangeEscapes = Arrays.copyOf(rangeEscapes, rangeEscapeCount * 2);
+                }
+                rangeEscapes[rangeEscapeCount++] = escapePositions[i];
+                lastPosition = escapePositions[i] + 2;
+            }
+        }
+        int length = endPosition - startPosition - rangeEscapeCount;
+        if (lastPosition > endPosition)
+        {
+            length++;
+        }
+        return new MarkdownTextSequence(markdownText, startPosition, endPosition, rangeEscapes, rangeEscapeCount, length);
+    }
+
+    /**
+     * Append a range to the given output without creating intermediate strings
+     */
+    public void append(String markdownText, int startPosition, int endPosition, boolean escaped, Appendable output) throws IOException
+    {
+        if (startPosition >= endPosition)
+        {
+            return;
+        }
+        if (escaped)
+        {
+            appendEscaped(markdownText, startPosition, endPosition, output);
+        }
+        else
+        {
+            output.append(markdownText, startPosition, endPosition);
+        }
+    }
+
+    private void appendEscaped(String markdownText, int startPosition, int endPosition, Appendable output) throws IOException
+    {
+        int position = startPosition;
+        for (int i = findEscapeIndex(markdownText, startPosition); i < escapeCount && escapePositions[i] < endPosition; i++)
+        {
+            int escapePosition = escapePositions[i];
+            if (escapePosition < position)
+            {
+                continue;
+            }
+            if (escapePosition > position)
+            {
+                output.append(markdownText, position, escapePosition);
+            }
+            output.append(markdownText.charAt(escapePosition + 1));
+            position = escapePosition + 2;
+        }
+        if (position < endPosition)
+        {
+            output.append(markdownText, position, endPosition);
+        }
+    }
+
+    /**
+     * Escape index handling
+     */
+    private int findEscapeIndex(String markdownText, int position)
+    {
+        if (markdownText != indexedText)
+        {
+            buildEscapeIndex(markdownText);
+        }
+        int index = Arrays.binarySearch(escapePositions, 0, escapeCount, position);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private void buildEscapeIndex(String markdownText)
+    {
+        int maxLength = markdownText.length();
+        escapeCount = 0;
+        for (int i = 0; i + 1 < maxLength; i++)
+        {
+            if (markdownText.charAt(i) == '\\' && markdownText.charAt(i + 1) != '\n')
+            {
+                if (escapeCount == escapePositions.length)
+                {
+                    escapePositions = Arrays.copyOf(escapePositions, Math.max(16, escapeCount * 2));
+                }
+                escapePositions[escapeCount++] = i;
+            }
+        }
+        indexedText = markdownText;
+    }
+
+    /**
+     * Release the indexed document, and the index when it's bigger than the given size in bytes
+     */
+    public void trimMemory(int maxRetainedBytes)
+    {
+        indexedText = null;
+        escapeCount = 0;
+        if (escapePositions.length * 4 > maxRetainedBytes)
+        {
+            escapePositions = new int[0];
+        }
+    }
+
+    /**
+     * Helpers to determine ranges between tags
+     */
+    public static int getBetweenStart(MarkdownTag startTag, MarkdownParser.ExtractBetweenMode mode, boolean full)
+    {
+        if (mode == MarkdownParser.ExtractBetweenMode.StartToNext)
+        {
+            return full ? startTag.startPosition : startTag.startText;
+        }
+        return startTag.endPosition;
+    }
+
+    public static int getBetweenEnd(MarkdownTag endTag, MarkdownParser.ExtractBetweenMode mode, boolean full)
+    {
+        if (mode == MarkdownParser.ExtractBetweenMode.IntermediateToEnd)
+        {
+            return full ? endTag.endPosition : endTag.endText;
+        }
+        return endTag.startPosition;
+    }
+
+    public static int getBetweenStart(MarkdownTagBuffer tags, int startIndex, MarkdownParser.ExtractBetweenMode mode, boolean full)
+    {
+        if (mode == MarkdownParser.ExtractBetweenMode.StartToNext)
+        {
+            return full ? tags.getStartPosition(startIndex) : tags.getStartText(startIndex);
+        }
+        return tags.getEndPosition(startIndex);
+    }
+
+    public static int getBetweenEnd(MarkdownTagBuffer tags, int endIndex, MarkdownParser.ExtractBetweenMode mode, boolean full)
+    {
+        if (mode == MarkdownParser.ExtractBetweenMode.IntermediateToEnd)
+        {
+            return full ? tags.getEndPosition(endIndex) : tags.getEndText(endIndex);
+        }
+        return tags.getStartPosition(endIndex);
+    }
+}
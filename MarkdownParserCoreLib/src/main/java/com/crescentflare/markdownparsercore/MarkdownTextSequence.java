@@ -0,0 +1,112 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: text sequence
+ * A lightweight character sequence view on a range of the markdown text
+ * Escape characters within the range are skipped without copying the text
+ */
+class MarkdownTextSequence implements CharSequence
+{
+    /**
+     * Members
+     */
+    private final String text;
+    private final int startPosition;
+    private final int endPosition;
+    private final int[] escapePositions;
+    private final int escapeCount;
+    private final int length;
+
+    /**
+     * Initialization, escape positions should be sorted and should only contain the escapes which are effective within the range
+     */
+    public MarkdownTextSequence(String text, int startPosition, int endPosition, int[] escapePositions, int escapeCount, int length)
+    {
+        this.text = text;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+        this.escapePositions = escapePositions;
+        this.escapeCount = escapeCount;
+        this.length = escapeCount > 0 ? length : endPosition - startPosition;
+    }
+
+    /**
+     * Character sequence implementation
+     */
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= length)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of range for length " + length);
+        }
+        if (escapeCount == 0)
+        {
+            return text.charAt(startPosition + index);
+        }
+
+        //Find the amount of escapes before the given index, each escape maps to the character after the escape
+        int low = 0, high = escapeCount - 1, skipped = 0;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int escapedIndex = escapePositions[middle] - startPosition - middle;
+            if (escapedIndex == index)
+            {
+                return text.charAt(escapePositions[middle] + 1);
+            }
+            if (escapedIndex < index)
+            {
+                skipped = middle + 1;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        return text.charAt(startPosition + index + skipped);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > length || start > end)
+        {
+            throw new IndexOutOfBoundsException("Range " + start + " to " + end + " is out of range for length " + length);
+        }
+        if (escapeCount == 0)
+        {
+            return new MarkdownTextSequence(text, startPosition + start, startPosition + end, null, 0, 0);
+        }
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (escapeCount == 0)
+        {
+            return text.substring(startPosition, endPosition);
+        }
+        StringBuilder builder = new StringBuilder(length);
+        int position = startPosition;
+        for (int i = 0; i < escapeCount; i++)
+        {
+            builder.append(text, position, escapePositions[i]);
+            builder.append(text.charAt(escapePositions[i] + 1));
+            position = escapePositions[i] + 2;
+        }
+        if (position < endPosition)
+        {
+            builder.append(text, position, endPosition);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: trace
+ * Collects the durations of the phases of a single parse or conversion call, reported to a trace listener when finished
+ * Only created when a trace listener is set, durations are in nanoseconds and nested phases are included in their parent
+ */
+public class MarkdownTrace
+{
+    public enum Phase
+    {
+        Parse,
+        ScanLine,
+        AddStyleTags,
+        ProcessMarkers,
+        NativeParse,
+        ExtractText,
+        RenderHtml,
+        RenderSpannable,
+        RenderPlainText,
+        ApplySpan
+    }
+
+    /**
+     * Members
+     */
+    private static final Phase[] PHASES = Phase.values();
+
+    private final MarkdownTraceListener listener;
+    private final String operation;
+    private final int textLength;
+    private final long startTime;
+    private final long[] phaseDurations = new long[PHASES.length];
+    private final int[] phaseCounts = new int[PHASES.length];
+    private String parserName;
+    private boolean cacheHit = false;
+    private boolean truncated = false;
+    private int tagCount = 0;
+    private long totalDuration = 0;
+
+    /**
+     * Initialization, starts the trace
+     */
+    public MarkdownTrace(MarkdownTraceListener listener, String operation, String parserName, int textLength)
+    {
+        this.listener = listener;
+        this.operation = operation;
+        this.parserName = parserName;
+        this.textLength = textLength;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Tracing, pass the result of beginPhase to endPhase
+     */
+    public long beginPhase(Phase phase)
+    {
+        listener.onPhaseBegin(phase);
+        return System.nanoTime();
+    }
+
+    public void endPhase(Phase phase, long phaseStartTime)
+    {
+        phaseDurations[phase.ordinal()] += System.nanoTime() - phaseStartTime;
+        phaseCounts[phase.ordinal()]++;
+        listener.onPhaseEnd(phase);
+    }
+
+    public void finish(int tagCount)
+    {
+        this.tagCount = tagCount;
+        totalDuration = System.nanoTime() - startTime;
+        listener.onTraceFinished(this);
+    }
+
+    /**
+     * Update trace information
+     */
+    public void setParserName(String parserName)
+    {
+        this.parserName = parserName;
+    }
+
+    public void setCacheHit(boolean cacheHit)
+    {
+        this.cacheHit = cacheHit;
+    }
+
+    public void setTruncated(boolean truncated)
+    {
+        this.truncated = truncated;
+    }
+
+    /**
+     * Trace results
+     */
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    public String getParserName()
+    {
+        return parserName;
+    }
+
+    public int getTextLength()
+    {
+        return textLength;
+    }
+
+    public int getTagCount()
+    {
+        return tagCount;
+    }
+
+    public boolean isCacheHit()
+    {
+        return cacheHit;
+    }
+
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    public long getTotalDuration()
+    {
+        return totalDuration;
+    }
+
+    public long getPhaseDuration(Phase phase)
+    {
+        return phaseDurations[phase.ordinal()];
+    }
+
+    public int getPhaseCount(Phase phase)
+    {
+        return phaseCounts[phase.ordinal()];
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(operation).append(" (").append(parserName).append(cacheHit ? ", cached" : "").append(truncated ? ", truncated" : "").append("): ");
+        builder.append(textLength).append(" characters, ").append(tagCount).append(" tags, ").append(totalDuration / 1000).append("us");
+        for (Phase phase : PHASES)
+        {
+            if (phaseCounts[phase.ordinal()] > 0)
+            {
+                builder.append(", ").append(phase).append(' ').append(phaseDurations[phase.ordinal()] / 1000).append("us/").append(phaseCounts[phase.ordinal()]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package com.crescentflare.markdownparsercore;
+
+/**
+ * Markdown core library: trace listener
+ * Receives the phases of traced parse or conversion calls, phases can be nested (like processing markers within adding style tags)
+ * Begin and end are called on the thread doing the work, the finished trace contains the totals of the call
+ */
+public interface MarkdownTraceListener
+{
+    void onPhaseBegin(MarkdownTrace.Phase phase);
+    void onPhaseEnd(MarkdownTrace.Phase phase);
+    void onTraceFinished(MarkdownTrace trace);
+}
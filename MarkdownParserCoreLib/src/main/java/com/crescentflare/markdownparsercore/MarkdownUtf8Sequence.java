@@ -0,0 +1,69 @@
+package com.crescentflare.markdownparsercore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Markdown core library: UTF-8 sequence
+ * A character sequence view on UTF-8 bytes, each byte maps to one character without decoding
+ * Markdown syntax only uses ASCII characters, bytes of multi-byte characters are never treated as syntax
+ */
+class MarkdownUtf8Sequence implements CharSequence
+{
+    /**
+     * Members
+     */
+    private final ByteBuffer bytes;
+    private final int startPosition;
+    private final int length;
+
+    /**
+     * Initialization, the view starts at the current position of the buffer
+     */
+    public MarkdownUtf8Sequence(ByteBuffer bytes)
+    {
+        this(bytes, bytes.position(), bytes.remaining());
+    }
+
+    private MarkdownUtf8Sequence(ByteBuffer bytes, int startPosition, int length)
+    {
+        this.bytes = bytes;
+        this.startPosition = startPosition;
+        this.length = length;
+    }
+
+    /**
+     * Character sequence implementation
+     */
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return (char)(bytes.get(startPosition + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > length || start > end)
+        {
+            throw new IndexOutOfBoundsException("Range " + start + " to " + end + " is out of range for length " + length);
+        }
+        return new MarkdownUtf8Sequence(bytes, startPosition + start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+        {
+            builder.append(charAt(i));
+        }
+        return builder.toString();
+    }
+}
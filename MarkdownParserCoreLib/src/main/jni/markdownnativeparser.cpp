@@ -1,8 +1,10 @@
 #include <jni.h>
+#include <stdint.h>
 #include <stdlib.h>
+#include <string.h>
+#include <time.h>
 #include <algorithm>
 #include <vector>
-#include "utfstring.h"
 
 /**
  * Constants, enum, struct and utility functions for markdown tags
@@ -28,13 +30,13 @@ class MarkdownTag
 public:
     MARKDOWN_TAG_TYPE type = MARKDOWN_TAG_INVALID;
     int flags = 0;
-    UTFStringIndex startPosition = UTFStringIndex(nullptr);
-    UTFStringIndex endPosition = UTFStringIndex(nullptr);
-    UTFStringIndex startText = UTFStringIndex(nullptr);
-    UTFStringIndex endText = UTFStringIndex(nullptr);
-    UTFStringIndex startExtra = UTFStringIndex(nullptr);
-    UTFStringIndex endExtra = UTFStringIndex(nullptr);
-    int weight = 1;
+    int startPosition = -1;
+    int endPosition = -1;
+    int startText = -1;
+    int endText = -1;
+    int startExtra = -1;
+    int endExtra = -1;
+    int weight = 0;
 public:
     bool valid()
     {
@@ -47,40 +49,55 @@ class MarkdownMarker
 public:
     int chr;
     int weight;
-    UTFStringIndex position;
+    int position;
 public:
-    MarkdownMarker() : chr(0), weight(0), position(nullptr) { }
-    MarkdownMarker(int chr, int weight, UTFStringIndex position) : chr(chr), weight(weight), position(position){ }
+    MarkdownMarker() : chr(0), weight(0), position(-1) { }
+    MarkdownMarker(int chr, int weight, int position) : chr(chr), weight(weight), position(position){ }
     bool valid()
     {
-        return position.valid();
+        return position >= 0;
     }
 };
 
+/**
+ * Resource limits for untrusted input, a value of 0 disables the limit
+ */
+class MarkdownParseLimits
+{
+public:
+    int maxInputLength = 0;
+    int maxTagCount = 0;
+    int maxNestingDepth = 0;
+    jlong timeoutNanos = 0;
+public:
+    MarkdownParseLimits(int maxInputLength, int maxTagCount, int maxNestingDepth, jlong timeoutNanos) : maxInputLength(maxInputLength), maxTagCount(maxTagCount), maxNestingDepth(maxNestingDepth), timeoutNanos(timeoutNanos) { }
+};
+
+jlong monotonicNanos()
+{
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (jlong)now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
 const unsigned char tagFieldCount()
 {
-    return 15;
+    return 9;
 }
 
-void fillTagToArray(const MarkdownTag *tag, jint *ptr)
+void fillTagToColumns(const MarkdownTag *tag, jint *ptr, const int columnSize)
 {
     if (tag && ptr)
     {
         ptr[0] = tag->type;
-        ptr[1] = tag->flags;
-        ptr[2] = tag->weight;
-        ptr[3] = tag->startPosition.chrPos;
-        ptr[4] = tag->endPosition.chrPos;
-        ptr[5] = tag->startText.chrPos;
-        ptr[6] = tag->endText.chrPos;
-        ptr[7] = tag->startExtra.chrPos;
-        ptr[8] = tag->endExtra.chrPos;
-        ptr[9] = tag->startPosition.bytePos;
-        ptr[10] = tag->endPosition.bytePos;
-        ptr[11] = tag->startText.bytePos;
-        ptr[12] = tag->endText.bytePos;
-        ptr[13] = tag->startExtra.bytePos;
-        ptr[14] = tag->endExtra.bytePos;
+        ptr[columnSize] = tag->flags;
+        ptr[columnSize * 2] = tag->weight;
+        ptr[columnSize * 3] = tag->startPosition;
+        ptr[columnSize * 4] = tag->endPosition;
+        ptr[columnSize * 5] = tag->startText;
+        ptr[columnSize * 6] = tag->endText;
+        ptr[columnSize * 7] = tag->startExtra;
+        ptr[columnSize * 8] = tag->endExtra;
     }
 }
 
@@ -157,104 +174,259 @@ MarkdownTag *tagFromBlock(const MARKDOWN_TAG_MEMORY_BLOCK *block, const int posi
 
 
 /**
- * Recursive function to process markdown markers into tags
+ * Lists of closing marker indices for each marker character and weight, ordered by position
+ * Each list has a pointer which only moves forward, the marker being processed also only moves forward when matching markers
  */
-void processMarkers(std::vector<MarkdownTag> &addTags, std::vector<MarkdownMarker> &markers, int start, const int end, const int addFlags)
+static const int MARKDOWN_MARKER_KIND_COUNT = 5;
+
+int markerKind(int chr)
+{
+    switch (chr)
+    {
+        case '*':
+            return 0;
+        case '_':
+            return 1;
+        case '~':
+            return 2;
+        case ']':
+            return 3;
+        case ')':
+            return 4;
+        default:
+            return -1;
+    }
+}
+
+class MarkdownMarkerLists
 {
-    bool processing = true;
-    while (processing && start < end)
+private:
+    int kindMaxWeights[MARKDOWN_MARKER_KIND_COUNT];
+    int kindSlots[MARKDOWN_MARKER_KIND_COUNT];
+    std::vector<int> slotStarts;
+    std::vector<int> slotPointers;
+    std::vector<int> markerIndices;
+public:
+    MarkdownMarkerLists(const std::vector<MarkdownMarker> &markers)
+    {
+        //Determine the list slots, there is a slot for each closing marker character and weight
+        for (int kind = 0; kind < MARKDOWN_MARKER_KIND_COUNT; kind++)
+        {
+            kindMaxWeights[kind] = 0;
+        }
+        for (int i = 0; i < (int)markers.size(); i++)
+        {
+            int kind = markerKind(markers[i].chr);
+            if (kind >= 0)
+            {
+                kindMaxWeights[kind] = std::max(kindMaxWeights[kind], markers[i].weight);
+            }
+        }
+        int slotCount = 0;
+        for (int kind = 0; kind < MARKDOWN_MARKER_KIND_COUNT; kind++)
+        {
+            kindSlots[kind] = slotCount;
+            slotCount += kindMaxWeights[kind];
+        }
+
+        //Count the markers in each slot, a marker is added to the slots of its weight and all lower weights
+        slotStarts.assign(slotCount + 1, 0);
+        for (int i = 0; i < (int)markers.size(); i++)
+        {
+            int kind = markerKind(markers[i].chr);
+            if (kind >= 0)
+            {
+                for (int weight = 1; weight <= markers[i].weight; weight++)
+                {
+                    slotStarts[kindSlots[kind] + weight]++;
+                }
+            }
+        }
+        for (int slot = 1; slot <= slotCount; slot++)
+        {
+            slotStarts[slot] += slotStarts[slot - 1];
+        }
+
+        //Fill the lists in marker order and reset the pointers to the start of each list
+        markerIndices.resize(slotStarts[slotCount]);
+        slotPointers.assign(slotStarts.begin(), slotStarts.end() - 1);
+        for (int i = 0; i < (int)markers.size(); i++)
+        {
+            int kind = markerKind(markers[i].chr);
+            if (kind >= 0)
+            {
+                for (int weight = 1; weight <= markers[i].weight; weight++)
+                {
+                    markerIndices[slotPointers[kindSlots[kind] + weight - 1]++] = i;
+                }
+            }
+        }
+        slotPointers.assign(slotStarts.begin(), slotStarts.end() - 1);
+    }
+
+    int findNext(int chr, int weight, int after, int end)
     {
-        MarkdownMarker &marker = markers[start];
-        processing = false;
-        if (marker.chr == '[' || marker.chr == ']' || marker.chr == '(' || marker.chr == ')')
+        int kind = markerKind(chr);
+        if (weight > kindMaxWeights[kind])
+        {
+            return -1;
+        }
+        int slot = kindSlots[kind] + weight - 1;
+        int pointer = slotPointers[slot];
+        int slotEnd = slotStarts[slot + 1];
+        while (pointer < slotEnd && markerIndices[pointer] <= after)
         {
+            pointer++;
+        }
+        slotPointers[slot] = pointer;
+        return pointer < slotEnd && markerIndices[pointer] < end ? markerIndices[pointer] : -1;
+    }
+};
+
+
+/**
+ * Process markdown markers into tags in linear time, nested ranges are kept on a stack instead of using recursion
+ * Returns true when markers were left unprocessed because of the tag limit or nesting depth (0 for no limit)
+ */
+bool processMarkers(std::vector<MarkdownTag> &addTags, std::vector<MarkdownMarker> &markers, const int addFlags, const int maxTagCount, const int maxNestingDepth)
+{
+    bool truncated = false;
+    MarkdownMarkerLists markerLists(markers);
+    std::vector<int> frameStarts;
+    std::vector<int> frameEnds;
+    int start = 0;
+    int end = markers.size();
+    while (true)
+    {
+        //Process the marker at the start of the range, an unmatched marker stops processing the range
+        bool processing = false;
+        if (start < end)
+        {
+            MarkdownMarker &marker = markers[start];
             if (marker.chr == '[')
             {
-                MarkdownTag linkTag;
-                MarkdownMarker extraMarker;
-                for (int i = start + 1; i < end; i++)
+                int closeIndex = markerLists.findNext(']', 1, start, end);
+                if (closeIndex >= 0 && (int)addTags.size() >= maxTagCount)
+                {
+                    return true;
+                }
+                if (closeIndex >= 0)
                 {
-                    MarkdownMarker checkMarker = markers[i];
-                    if ((checkMarker.chr == ']' && !linkTag.valid()) || (checkMarker.chr == ')' && linkTag.valid()))
+                    MarkdownMarker &closeMarker = markers[closeIndex];
+                    MarkdownTag linkTag;
+                    linkTag.type = MARKDOWN_TAG_LINK;
+                    linkTag.startPosition = marker.position;
+                    linkTag.endPosition = closeMarker.position + closeMarker.weight;
+                    linkTag.startText = linkTag.startPosition + marker.weight;
+                    linkTag.endText = closeMarker.position;
+                    linkTag.flags = addFlags;
+                    int extraIndex = closeIndex + 1;
+                    start = extraIndex;
+                    if (extraIndex < end && markers[extraIndex].chr == '(' && markers[extraIndex].position == closeMarker.position + closeMarker.weight)
                     {
-                        if (!linkTag.valid())
-                        {
-                            linkTag.type = MARKDOWN_TAG_LINK;
-                            linkTag.startPosition = marker.position;
-                            linkTag.endPosition = checkMarker.position + checkMarker.weight;
-                            linkTag.startText = linkTag.startPosition + marker.weight;
-                            linkTag.endText = checkMarker.position;
-                            linkTag.flags = addFlags;
-                            addTags.push_back(linkTag);
-                            start = i + 1;
-                            if (start < end)
-                            {
-                                extraMarker = markers[start];
-                                if (extraMarker.chr != '(' || extraMarker.position != checkMarker.position + checkMarker.weight)
-                                {
-                                    processing = true;
-                                    break;
-                                }
-                            }
-                        }
-                        else if (extraMarker.valid())
+                        int extraCloseIndex = markerLists.findNext(')', 1, extraIndex, end);
+                        if (extraCloseIndex >= 0)
                         {
-                            linkTag.startExtra = extraMarker.position + extraMarker.weight;
-                            linkTag.endExtra = checkMarker.position;
-                            linkTag.endPosition = checkMarker.position + checkMarker.weight;
-                            addTags[addTags.size() - 1] = linkTag;
-                            start = i + 1;
+                            linkTag.startExtra = markers[extraIndex].position + markers[extraIndex].weight;
+                            linkTag.endExtra = markers[extraCloseIndex].position;
+                            linkTag.endPosition = markers[extraCloseIndex].position + markers[extraCloseIndex].weight;
+                            start = extraCloseIndex + 1;
                             processing = true;
-                            break;
                         }
                     }
+                    else
+                    {
+                        processing = true;
+                    }
+                    addTags.push_back(linkTag);
                 }
             }
-        }
-        else
-        {
-            for (int i = start + 1; i < end; i++)
+            else if (marker.chr == '*' || marker.chr == '_' || marker.chr == '~')
             {
-                MarkdownMarker &checkMarker = markers[i];
-                if (checkMarker.chr == marker.chr && checkMarker.weight >= marker.weight)
+                for (int weight = marker.weight; weight > 0 && !processing; weight--)
                 {
-                    MarkdownTag tag;
-                    tag.type = checkMarker.chr == '~' ? MARKDOWN_TAG_ALTERNATIVE_TEXTSTYLE : MARKDOWN_TAG_TEXTSTYLE;
-                    tag.weight = marker.weight;
-                    tag.startPosition = marker.position;
-                    tag.endPosition = checkMarker.position + marker.weight;
-                    tag.startText = tag.startPosition + marker.weight;
-                    tag.endText = checkMarker.position;
-                    tag.flags = addFlags;
-                    addTags.push_back(tag);
-                    processMarkers(addTags, markers, start + 1, i, addFlags);
-                    if (checkMarker.weight > marker.weight)
+                    int closeIndex = markerLists.findNext(marker.chr, weight, start, end);
+                    if (closeIndex >= 0 && (int)addTags.size() >= maxTagCount)
                     {
-                        checkMarker.weight -= marker.weight;
-                        start = i;
+                        return true;
                     }
-                    else
+                    if (closeIndex >= 0)
                     {
-                        start = i + 1;
+                        MarkdownMarker &closeMarker = markers[closeIndex];
+                        MarkdownTag tag;
+                        tag.type = marker.chr == '~' ? MARKDOWN_TAG_ALTERNATIVE_TEXTSTYLE : MARKDOWN_TAG_TEXTSTYLE;
+                        tag.weight = weight;
+                        tag.startPosition = marker.position;
+                        tag.endPosition = closeMarker.position + weight;
+                        tag.startText = tag.startPosition + weight;
+                        tag.endText = closeMarker.position;
+                        tag.flags = addFlags;
+                        addTags.push_back(tag);
+                        int nextStart = closeIndex + 1;
+                        if (closeMarker.weight > weight)
+                        {
+                            closeMarker.weight -= weight;
+                            nextStart = closeIndex;
+                        }
+                        if (closeIndex > start + 1 && maxNestingDepth > 0 && (int)frameStarts.size() + 1 >= maxNestingDepth)
+                        {
+                            truncated = true;
+                            start = nextStart;
+                        }
+                        else if (closeIndex > start + 1)
+                        {
+                            frameStarts.push_back(nextStart);
+                            frameEnds.push_back(end);
+                            start++;
+                            end = closeIndex;
+                        }
+                        else
+                        {
+                            start = nextStart;
+                        }
+                        processing = true;
                     }
-                    processing = true;
-                    break;
                 }
             }
         }
-        if (!processing)
+
+        //Continue with the enclosing range when done
+        if (!processing || start >= end)
         {
-            if (marker.weight > 1)
-            {
-                marker.weight--;
-                processing = true;
-            }
-            else
+            if (frameStarts.empty())
             {
-                start++;
+                break;
             }
+            start = frameStarts.back();
+            end = frameEnds.back();
+            frameStarts.pop_back();
+            frameEnds.pop_back();
         }
     }
+    return truncated;
+}
+
+
+/**
+ * Return the length of an escaped character, it includes the continuation bytes of a multi-byte character for UTF-8 or a surrogate pair for UTF-16
+ */
+template <typename CharType>
+int getEscapedLength(const CharType *markdownText, int position, int maxLength)
+{
+    int length = 1;
+    int chr = markdownText[position];
+    if (sizeof(CharType) == 1 && chr >= 0xC0)
+    {
+        while (length < 4 && position + length < maxLength && (markdownText[position + length] & 0xC0) == 0x80)
+        {
+            length++;
+        }
+    }
+    else if (sizeof(CharType) == 2 && chr >= 0xD800 && chr <= 0xDBFF && position + 1 < maxLength && markdownText[position + 1] >= 0xDC00 && markdownText[position + 1] <= 0xDFFF)
+    {
+        length = 2;
+    }
+    return length;
 }
 
 
@@ -266,7 +438,8 @@ bool tagSortCallback(MarkdownTag &lhs, MarkdownTag &rhs)
     return (lhs.startPosition < rhs.startPosition);
 }
 
-void addStyleTags(std::vector<MarkdownTag> &foundTags, const UTFString &markdownText, const MarkdownTag &sectionTag)
+template <typename CharType>
+bool addStyleTags(std::vector<MarkdownTag> &foundTags, const CharType *markdownText, const MarkdownTag &sectionTag, const int maxStyleTagCount, const int maxNestingDepth)
 {
     //First add the main section tag
     MarkdownTag mainTag;
@@ -282,10 +455,10 @@ void addStyleTags(std::vector<MarkdownTag> &foundTags, const UTFString &markdown
     //Traverse string and find tag markers
     std::vector<MarkdownMarker> tagMarkers;
     std::vector<MarkdownTag> addTags;
-    UTFStringIndex maxLength = sectionTag.endText;
+    int maxLength = sectionTag.endText;
     int curMarkerWeight = 0;
     int curMarkerChar = 0;
-    for (UTFStringIndex i = sectionTag.startText; i < maxLength; ++i)
+    for (int i = sectionTag.startText; i < maxLength; i++)
     {
         int chr = markdownText[i];
         if (curMarkerChar != 0)
@@ -312,9 +485,9 @@ void addStyleTags(std::vector<MarkdownTag> &foundTags, const UTFString &markdown
                 tagMarkers.push_back(MarkdownMarker(chr, 1, i));
             }
         }
-        if (chr == '\\')
+        if (chr == '\\' && i + 1 < maxLength)
         {
-            ++i;
+            i += getEscapedLength(markdownText, i + 1, maxLength);
         }
     }
     if (curMarkerChar != 0)
@@ -323,23 +496,26 @@ void addStyleTags(std::vector<MarkdownTag> &foundTags, const UTFString &markdown
     }
 
     //Sort tags to add and finally add them
-    processMarkers(addTags, tagMarkers, 0, tagMarkers.size(), sectionTag.flags);
+    bool truncated = processMarkers(addTags, tagMarkers, sectionTag.flags, maxStyleTagCount, maxNestingDepth);
     std::sort(addTags.begin(), addTags.end(), tagSortCallback);
     for (int i = 0; i < addTags.size(); i++)
     {
         foundTags.push_back(addTags[i]);
     }
+    return truncated;
 }
 
 
 /**
  * Scan a single line of text within the markdown document, return section tag
  */
-MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTFStringIndex maxLength, MARKDOWN_TAG_TYPE sectionType)
+template <typename CharType>
+MarkdownTag scanLine(const CharType *markdownText, int position, int maxLength, MARKDOWN_TAG_TYPE sectionType)
 {
     MarkdownTag styledTag;
     MarkdownTag normalTag;
     int skipChars = 0;
+    int extraBytes = 0;
     int chr = 0, nextChr = markdownText[position], secondNextChr = 0;
     bool styleTagDefined = false, escaped = false;
     bool headerTokenSequence = false;
@@ -349,7 +525,7 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
     }
     normalTag.startPosition = position;
     styledTag.startPosition = position;
-    for (UTFStringIndex i = position; i < maxLength; ++i)
+    for (int i = position; i < maxLength; i++)
     {
         chr = nextChr;
         nextChr = secondNextChr;
@@ -371,19 +547,26 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
         }
         if (escaped)
         {
+            int escapedLength = getEscapedLength(markdownText, i, maxLength);
             if (chr != '\n')
             {
-                if (!normalTag.startText.valid())
+                if (normalTag.startText < 0)
                 {
                     normalTag.startText = i;
                 }
-                if (!styledTag.startText.valid())
+                if (styledTag.startText < 0)
                 {
                     styledTag.startText = i;
                 }
             }
-            normalTag.endText = i + 1;
-            styledTag.endText = i + 1;
+            normalTag.endText = i + escapedLength;
+            styledTag.endText = i + escapedLength;
+            skipChars = escapedLength - 1;
+            if (sizeof(CharType) == 1)
+            {
+                //Keep the indentation the same as for UTF-16 text (surrogate pairs count as 2 characters)
+                extraBytes += escapedLength - (escapedLength == 4 ? 2 : 1);
+            }
         }
         else
         {
@@ -395,7 +578,7 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
             }
             if (chr != ' ')
             {
-                if (!normalTag.startText.valid())
+                if (normalTag.startText < 0)
                 {
                     normalTag.startText = i;
                 }
@@ -412,17 +595,17 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
                     styleTagDefined = true;
                     headerTokenSequence = true;
                 }
-                else if ((allowNewParagraph || continueBulletList) && (chr == '*' || chr == '-' || chr == '+') && nextChr == ' ' && (i.chrPos - position.chrPos) % 2 == 0)
+                else if ((allowNewParagraph || continueBulletList) && (chr == '*' || chr == '-' || chr == '+') && nextChr == ' ' && (i - position - extraBytes) % 2 == 0)
                 {
                     styledTag.type = MARKDOWN_TAG_UNORDERED_LIST;
-                    styledTag.weight = 1 + (i.chrPos - position.chrPos) / 2;
+                    styledTag.weight = 1 + (i - position - extraBytes) / 2;
                     styleTagDefined = true;
                     skipChars = 1;
                 }
-                else if ((allowNewParagraph || continueBulletList) && chr >= '0' && chr <= '9' && nextChr == '.' && secondNextChr == ' ' && (i.chrPos - position.chrPos) % 2 == 0)
+                else if ((allowNewParagraph || continueBulletList) && chr >= '0' && chr <= '9' && nextChr == '.' && secondNextChr == ' ' && (i - position - extraBytes) % 2 == 0)
                 {
                     styledTag.type = MARKDOWN_TAG_ORDERED_LIST;
-                    styledTag.weight = 1 + (i.chrPos - position.chrPos) / 2;
+                    styledTag.weight = 1 + (i - position - extraBytes) / 2;
                     styleTagDefined = true;
                     skipChars = 2;
                 }
@@ -444,12 +627,12 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
                     {
                         headerTokenSequence = false;
                     }
-                    if (chr != '#' && chr != ' ' && !styledTag.startText.valid())
+                    if (chr != '#' && chr != ' ' && styledTag.startText < 0)
                     {
                         styledTag.startText = i;
                         styledTag.endText = i + 1;
                     }
-                    else if ((chr != '#' || (nextChr != '#' && nextChr != '\n' && nextChr != ' ' && nextChr != 0)) && chr != ' ' && styledTag.startText.valid())
+                    else if ((chr != '#' || (nextChr != '#' && nextChr != '\n' && nextChr != ' ' && nextChr != 0)) && chr != ' ' && styledTag.startText >= 0)
                     {
                         styledTag.endText = i + 1;
                     }
@@ -458,7 +641,7 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
                 {
                     if (chr != ' ')
                     {
-                        if (!styledTag.startText.valid())
+                        if (styledTag.startText < 0)
                         {
                             styledTag.startText = i;
                         }
@@ -469,15 +652,15 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
         }
         escaped = false;
     }
-    if (styleTagDefined && styledTag.type != MARKDOWN_TAG_NORMAL && styledTag.startText.valid() && styledTag.endText > styledTag.startText)
+    if (styleTagDefined && styledTag.type != MARKDOWN_TAG_NORMAL && styledTag.startText >= 0 && styledTag.endText > styledTag.startText)
     {
-        if (!styledTag.endPosition.valid())
+        if (styledTag.endPosition < 0)
         {
             styledTag.endPosition = maxLength;
         }
         return styledTag;
     }
-    if (!normalTag.endPosition.valid())
+    if (normalTag.endPosition < 0)
     {
         normalTag.endPosition = maxLength;
     }
@@ -487,27 +670,37 @@ MarkdownTag scanLine(const UTFString &markdownText, UTFStringIndex position, UTF
 
 
 /**
- * JNI function to find all supported markdown tags
+ * Find all supported markdown tags within the text, the text is either UTF-16 or UTF-8
+ * Only ASCII characters are used for markdown syntax, so the text positions are in characters or bytes respectively
+ * When a limit is reached the remaining text is added as a normal tag, returns true in that case
+ * Stops early when the cancel flag (shared with java, it can be null) is set, the result is ignored in that case
  */
-extern "C"
+template <typename CharType>
+bool findTags(std::vector<MarkdownTag> &foundTags, const CharType *markdownText, const int textLength, const MarkdownParseLimits &limits, const volatile jbyte *cancelFlag)
 {
-JNIEXPORT jintArray JNICALL
-Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTags(JNIEnv *env, jobject instance, jstring markdownText_)
-{
-    //Java string conversion
-    const char *markdownTextPointer = env->GetStringUTFChars(markdownText_, 0);
-    UTFString markdownText(markdownTextPointer);
-
-    //Loop over string and find tags
-    std::vector<MarkdownTag> foundTags;
-    const UTFStringIndex maxLength = markdownText.endIndex();
-    UTFStringIndex paragraphStartPos(nullptr);
-    MarkdownTag curLine = scanLine(markdownText, markdownText.startIndex(), maxLength, MARKDOWN_TAG_PARAGRAPH);
+    const int maxLength = limits.maxInputLength > 0 && limits.maxInputLength < textLength ? limits.maxInputLength : textLength;
+    const int maxTagCount = limits.maxTagCount > 0 ? limits.maxTagCount : 0x7FFFFFFF;
+    const jlong deadline = limits.timeoutNanos > 0 ? monotonicNanos() + limits.timeoutNanos : 0;
+    int truncatePosition = maxLength < textLength ? maxLength : -1;
+    bool truncated = false;
+    int paragraphStartPos = -1;
+    MarkdownTag curLine = maxLength > 0 ? scanLine(markdownText, 0, maxLength, MARKDOWN_TAG_PARAGRAPH) : MarkdownTag();
     while (curLine.valid())
     {
+        //Check for cancellation and stop when the line may not fit within the tag limit (with its paragraph and the remaining text) or when the time is up
+        if (cancelFlag && *cancelFlag)
+        {
+            return false;
+        }
+        if ((int)foundTags.size() > maxTagCount - 3 || (deadline != 0 && monotonicNanos() > deadline))
+        {
+            truncatePosition = curLine.startPosition;
+            break;
+        }
+
         //Fetch next line ahead
         bool hasNextLine = curLine.endPosition < maxLength;
-        bool isEmptyLine = curLine.startPosition + 1 == curLine.endPosition;
+        bool isEmptyLine = curLine.startPosition + 1 == curLine.endPosition && markdownText[curLine.startPosition] == '\n';
         MARKDOWN_TAG_TYPE curType = curLine.type;
         if (isEmptyLine)
         {
@@ -516,9 +709,9 @@ Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTags(JN
         MarkdownTag nextLine = hasNextLine ? scanLine(markdownText, curLine.endPosition, maxLength, curType) : MarkdownTag();
 
         //Insert section tag
-        if (curLine.startText.valid())
+        if (curLine.startText >= 0)
         {
-            addStyleTags(foundTags, markdownText, curLine);
+            truncated |= addStyleTags(foundTags, markdownText, curLine, maxTagCount - 3 - (int)foundTags.size(), limits.maxNestingDepth);
         }
         else if (!isEmptyLine)
         {
@@ -536,13 +729,14 @@ Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTags(JN
         //Insert paragraphs when needed
         if (nextLine.valid())
         {
-            bool startNewParagraph = curLine.type == MARKDOWN_TAG_HEADER || nextLine.type == MARKDOWN_TAG_HEADER || nextLine.startPosition + 1 == nextLine.endPosition;
-            bool stopParagraph = nextLine.startPosition + 1 != nextLine.endPosition;
-            if (startNewParagraph && foundTags.size() > 0 && !paragraphStartPos.valid())
+            bool isNextEmptyLine = nextLine.startPosition + 1 == nextLine.endPosition && markdownText[nextLine.startPosition] == '\n';
+            bool startNewParagraph = curLine.type == MARKDOWN_TAG_HEADER || nextLine.type == MARKDOWN_TAG_HEADER || isNextEmptyLine;
+            bool stopParagraph = !isNextEmptyLine;
+            if (startNewParagraph && foundTags.size() > 0 && paragraphStartPos < 0)
             {
                 paragraphStartPos = curLine.endPosition;
             }
-            if (stopParagraph && paragraphStartPos.valid())
+            if (stopParagraph && paragraphStartPos >= 0)
             {
                 MarkdownTag paragraphTag;
                 paragraphTag.type = MARKDOWN_TAG_PARAGRAPH;
@@ -552,7 +746,7 @@ Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTags(JN
                 paragraphTag.endText = paragraphStartPos;
                 paragraphTag.weight = nextLine.type == MARKDOWN_TAG_HEADER ? 2 : 1;
                 foundTags.push_back(paragraphTag);
-                paragraphStartPos = UTFStringIndex(nullptr);
+                paragraphStartPos = -1;
             }
         }
 
@@ -560,79 +754,233 @@ Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTags(JN
         curLine = nextLine;
     }
 
-    //Convert tags into a java array, clean up and return
-    jintArray returnArray = nullptr;
-    jint *convertedValues = (jint *)malloc(foundTags.size() * tagFieldCount() * sizeof(jint));
-    if (convertedValues)
+    //Add the remaining text without markdown when a limit was reached
+    if (truncatePosition >= 0)
     {
-        returnArray = env->NewIntArray(foundTags.size() * tagFieldCount());
-        int i;
-        for (i = 0; i < foundTags.size(); i++)
-        {
-            fillTagToArray(&foundTags[i], &convertedValues[i * tagFieldCount()]);
-        }
-        env->SetIntArrayRegion(returnArray, 0, foundTags.size() * tagFieldCount(), convertedValues);
-        free(convertedValues);
+        MarkdownTag remainingTag;
+        remainingTag.type = MARKDOWN_TAG_NORMAL;
+        remainingTag.startPosition = truncatePosition;
+        remainingTag.endPosition = textLength;
+        remainingTag.startText = truncatePosition;
+        remainingTag.endText = textLength;
+        foundTags.push_back(remainingTag);
+        truncated = true;
+    }
+    return truncated;
+}
+
+
+/**
+ * Write tags into the result buffer (one column for each field, followed by the truncated status)
+ * Returns the amount of tags, or the negative amount of tags if the buffer is too small
+ */
+jint writeTagsToBuffer(JNIEnv *env, std::vector<MarkdownTag> &foundTags, bool truncated, jobject resultBuffer)
+{
+    const jint tagCount = (jint)foundTags.size();
+    jint *result = (jint *)env->GetDirectBufferAddress(resultBuffer);
+    const jlong capacity = (env->GetDirectBufferCapacity(resultBuffer) / sizeof(jint) - 1) / tagFieldCount();
+    if (!result || tagCount > capacity)
+    {
+        return -tagCount;
     }
-    env->ReleaseStringUTFChars(markdownText_, markdownTextPointer);
-    return returnArray;
+    for (int i = 0; i < tagCount; i++)
+    {
+        fillTagToColumns(&foundTags[i], &result[i], (int)capacity);
+    }
+    result[capacity * tagFieldCount()] = truncated ? 1 : 0;
+    return tagCount;
+}
+
+
+/**
+ * Write the tags of a batch into the result buffer (one column for each field with room for the given capacity)
+ * The columns are followed by the start index of each document (and the total tag count) and the truncated status of each document
+ * Returns the amount of tags, or the negative amount of tags if the buffer is too small
+ */
+jint writeBatchToBuffer(JNIEnv *env, std::vector<MarkdownTag> &foundTags, std::vector<jint> &documentStarts, std::vector<jint> &documentsTruncated, jobject resultBuffer, const jint tagCapacity)
+{
+    const jint tagCount = (jint)foundTags.size();
+    const jsize documentCount = (jsize)documentsTruncated.size();
+    jint *result = (jint *)env->GetDirectBufferAddress(resultBuffer);
+    const jlong bufferSize = env->GetDirectBufferCapacity(resultBuffer) / sizeof(jint);
+    if (!result || tagCount > tagCapacity || (jlong)tagCapacity * tagFieldCount() + documentCount * 2 + 1 > bufferSize)
+    {
+        return -tagCount;
+    }
+    for (int i = 0; i < tagCount; i++)
+    {
+        fillTagToColumns(&foundTags[i], &result[i], tagCapacity);
+    }
+    jint *documentResult = &result[tagCapacity * tagFieldCount()];
+    for (jsize i = 0; i <= documentCount; i++)
+    {
+        documentResult[i] = documentStarts[i];
+    }
+    for (jsize i = 0; i < documentCount; i++)
+    {
+        documentResult[documentCount + 1 + i] = documentsTruncated[i];
+    }
+    return tagCount;
+}
+
+
+/**
+ * Tags which didn't fit in the result buffer, they're kept until the java side copies them into a bigger buffer (instead of parsing again)
+ */
+class MarkdownPendingResult
+{
+public:
+    std::vector<MarkdownTag> foundTags;
+    std::vector<jint> documentStarts;
+    std::vector<jint> documentsTruncated;
+    bool truncated = false;
+    bool batch = false;
+};
+
+jint keepPendingResult(JNIEnv *env, jlongArray pendingResult, MarkdownPendingResult *pending)
+{
+    const jint tagCount = (jint)pending->foundTags.size();
+    jlong handle = (jlong)(intptr_t)pending;
+    env->SetLongArrayRegion(pendingResult, 0, 1, &handle);
+    return -tagCount;
+}
+
+jint keepPendingResult(JNIEnv *env, jlongArray pendingResult, std::vector<MarkdownTag> &foundTags, bool truncated)
+{
+    MarkdownPendingResult *pending = new MarkdownPendingResult();
+    pending->foundTags.swap(foundTags);
+    pending->truncated = truncated;
+    return keepPendingResult(env, pendingResult, pending);
 }
+
+jint keepPendingBatch(JNIEnv *env, jlongArray pendingResult, std::vector<MarkdownTag> &foundTags, std::vector<jint> &documentStarts, std::vector<jint> &documentsTruncated)
+{
+    MarkdownPendingResult *pending = new MarkdownPendingResult();
+    pending->foundTags.swap(foundTags);
+    pending->documentStarts.swap(documentStarts);
+    pending->documentsTruncated.swap(documentsTruncated);
+    pending->batch = true;
+    return keepPendingResult(env, pendingResult, pending);
 }
 
+
 /**
- * JNI function to extract an escaped string
+ * JNI functions to find all supported markdown tags, the result is written in the given direct buffer
+ * If it doesn't fit, the tags are kept as a pending result (stored in the given array) and the negative amount of tags is returned
  */
 extern "C"
 {
-JNIEXPORT jstring JNICALL
-Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_escapedSubstring(JNIEnv *env, jobject instance, jstring text_, jint bytePosition, jint length)
+JNIEXPORT jint JNICALL
+Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTags(JNIEnv *env, jobject /* instance */, jstring markdownText_, jobject resultBuffer, jint maxInputLength, jint maxTagCount, jint maxNestingDepth, jlong timeoutNanos, jobject cancelBuffer, jlongArray pendingResult)
+{
+    //Scan the UTF-16 characters of the java string directly, no JNI calls are allowed until it's released
+    std::vector<MarkdownTag> foundTags;
+    MarkdownParseLimits limits(maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos);
+    const jbyte *cancelFlag = cancelBuffer ? (const jbyte *)env->GetDirectBufferAddress(cancelBuffer) : nullptr;
+    bool truncated = false;
+    const jsize maxLength = env->GetStringLength(markdownText_);
+    const jchar *markdownText = env->GetStringCritical(markdownText_, 0);
+    if (markdownText)
+    {
+        truncated = findTags(foundTags, markdownText, maxLength, limits, cancelFlag);
+        env->ReleaseStringCritical(markdownText_, markdownText);
+    }
+    const jint tagCount = writeTagsToBuffer(env, foundTags, truncated, resultBuffer);
+    return tagCount >= 0 ? tagCount : keepPendingResult(env, pendingResult, foundTags, truncated);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTagsUtf8(JNIEnv *env, jobject /* instance */, jobject utf8Text, jint offset, jint length, jobject resultBuffer, jint maxInputLength, jint maxTagCount, jint maxNestingDepth, jlong timeoutNanos, jobject cancelBuffer, jlongArray pendingResult)
+{
+    //Scan the UTF-8 bytes of a direct buffer (like a memory mapped file) in place
+    std::vector<MarkdownTag> foundTags;
+    MarkdownParseLimits limits(maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos);
+    const jbyte *cancelFlag = cancelBuffer ? (const jbyte *)env->GetDirectBufferAddress(cancelBuffer) : nullptr;
+    bool truncated = false;
+    const unsigned char *markdownText = (const unsigned char *)env->GetDirectBufferAddress(utf8Text);
+    if (markdownText)
+    {
+        truncated = findTags(foundTags, markdownText + offset, length, limits, cancelFlag);
+    }
+    const jint tagCount = writeTagsToBuffer(env, foundTags, truncated, resultBuffer);
+    return tagCount >= 0 ? tagCount : keepPendingResult(env, pendingResult, foundTags, truncated);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTagsUtf8Array(JNIEnv *env, jobject /* instance */, jbyteArray utf8Text, jint offset, jint length, jobject resultBuffer, jint maxInputLength, jint maxTagCount, jint maxNestingDepth, jlong timeoutNanos, jobject cancelBuffer, jlongArray pendingResult)
+{
+    //Scan the UTF-8 bytes of the java array directly, no JNI calls are allowed until it's released
+    std::vector<MarkdownTag> foundTags;
+    MarkdownParseLimits limits(maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos);
+    const jbyte *cancelFlag = cancelBuffer ? (const jbyte *)env->GetDirectBufferAddress(cancelBuffer) : nullptr;
+    bool truncated = false;
+    const unsigned char *markdownText = (const unsigned char *)env->GetPrimitiveArrayCritical(utf8Text, 0);
+    if (markdownText)
+    {
+        truncated = findTags(foundTags, markdownText + offset, length, limits, cancelFlag);
+        env->ReleasePrimitiveArrayCritical(utf8Text, (void *)markdownText, JNI_ABORT);
+    }
+    const jint tagCount = writeTagsToBuffer(env, foundTags, truncated, resultBuffer);
+    return tagCount >= 0 ? tagCount : keepPendingResult(env, pendingResult, foundTags, truncated);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_findNativeTagsBatch(JNIEnv *env, jobject /* instance */, jobjectArray markdownTexts, jobject resultBuffer, jint tagCapacity, jint maxInputLength, jint maxTagCount, jint maxNestingDepth, jlong timeoutNanos, jobject cancelBuffer, jlongArray pendingResult)
 {
-    jstring returnValue = nullptr;
-    const char *text = env->GetStringUTFChars(text_, 0);
-    char *extractedText = (char *) malloc((size_t) length * 4);
-    if (extractedText)
+    //Scan the UTF-16 characters of each java string directly, the local reference of each string is released to keep the reference table small
+    std::vector<MarkdownTag> foundTags;
+    std::vector<MarkdownTag> documentTags;
+    MarkdownParseLimits limits(maxInputLength, maxTagCount, maxNestingDepth, timeoutNanos);
+    const jbyte *cancelFlag = cancelBuffer ? (const jbyte *)env->GetDirectBufferAddress(cancelBuffer) : nullptr;
+    const jsize documentCount = env->GetArrayLength(markdownTexts);
+    std::vector<jint> documentStarts((size_t)documentCount + 1, 0);
+    std::vector<jint> documentsTruncated((size_t)documentCount, 0);
+    for (jsize i = 0; i < documentCount; i++)
     {
-        int srcPos = bytePosition;
-        int destPos = 0;
-        int i;
-        size_t bytesTraversed = 0;
-        for (i = 0; i < length; i++)
+        documentStarts[i] = (jint)foundTags.size();
+        if (cancelFlag && *cancelFlag)
         {
-            char chr = text[srcPos];
-            int charSize = UTFStringIndex::charSize(chr);
-            if (charSize != 1)
-            {
-                if (charSize == 0)
-                {
-                    charSize = 1;
-                }
-                chr = 0;
-            }
-            if (chr == '\\' && text[srcPos + 1] != '\n')
-            {
-                if (bytesTraversed > 0)
-                {
-                    memcpy(&extractedText[destPos], &text[srcPos - bytesTraversed], bytesTraversed);
-                    destPos += bytesTraversed;
-                    bytesTraversed = 0;
-                }
-            }
-            else
-            {
-                bytesTraversed += charSize;
-            }
-            srcPos += charSize;
+            continue;
         }
-        if (bytesTraversed > 0)
+        jstring markdownText_ = (jstring)env->GetObjectArrayElement(markdownTexts, i);
+        if (markdownText_)
         {
-            memcpy(&extractedText[destPos], &text[srcPos - bytesTraversed], bytesTraversed);
-            destPos += bytesTraversed;
+            documentTags.clear();
+            const jsize maxLength = env->GetStringLength(markdownText_);
+            const jchar *markdownText = env->GetStringCritical(markdownText_, 0);
+            if (markdownText)
+            {
+                documentsTruncated[i] = findTags(documentTags, markdownText, maxLength, limits, cancelFlag) ? 1 : 0;
+                env->ReleaseStringCritical(markdownText_, markdownText);
+            }
+            env->DeleteLocalRef(markdownText_);
+            foundTags.insert(foundTags.end(), documentTags.begin(), documentTags.end());
         }
-        extractedText[destPos] = 0;
-        returnValue = env->NewStringUTF(extractedText);
-        free(extractedText);
     }
-    env->ReleaseStringUTFChars(text_, text);
-    return returnValue;
+    documentStarts[documentCount] = (jint)foundTags.size();
+    const jint tagCount = writeBatchToBuffer(env, foundTags, documentStarts, documentsTruncated, resultBuffer, tagCapacity);
+    return tagCount >= 0 ? tagCount : keepPendingBatch(env, pendingResult, foundTags, documentStarts, documentsTruncated);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_crescentflare_markdownparsercore_MarkdownNativeParser_copyPendingResult(JNIEnv *env, jobject /* instance */, jlong pendingResult, jobject resultBuffer, jint tagCapacity)
+{
+    //Write the kept tags into the (bigger) result buffer, the pending result is always deleted
+    MarkdownPendingResult *pending = (MarkdownPendingResult *)(intptr_t)pendingResult;
+    if (!pending)
+    {
+        return 0;
+    }
+    jint tagCount;
+    if (pending->batch)
+    {
+        tagCount = writeBatchToBuffer(env, pending->foundTags, pending->documentStarts, pending->documentsTruncated, resultBuffer, tagCapacity);
+    }
+    else
+    {
+        tagCount = writeTagsToBuffer(env, pending->foundTags, pending->truncated, resultBuffer);
+    }
+    delete pending;
+    return tagCount;
+}
 }
-}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.crescentflare.markdownparser;
+
+/**
+ * Markdown library: batch result
+ * The results of a batch conversion in the order of the converted documents
+ * A document which failed to convert has no result, its error is available instead (this can be an error like a stack overflow as well)
+ */
+public class MarkdownBatchResult<T>
+{
+    /**
+     * Members
+     */
+    private final Object[] results;
+    private final Throwable[] errors;
+
+    /**
+     * Initialization, filled by the converter engine
+     */
+    MarkdownBatchResult(int count)
+    {
+        results = new Object[count];
+        errors = new Throwable[count];
+    }
+
+    void setResult(int index, T result)
+    {
+        results[index] = result;
+    }
+
+    void setError(int index, Throwable error)
+    {
+        errors[index] = error;
+    }
+
+    /**
+     * Result access
+     */
+    public int size()
+    {
+        return results.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getResult(int index)
+    {
+        return (T)results[index];
+    }
+
+    public Throwable getError(int index)
+    {
+        return errors[index];
+    }
+
+    public boolean isSuccessful(int index)
+    {
+        return errors[index] == null;
+    }
+
+    public int getFailureCount()
+    {
+        int failureCount = 0;
+        for (Throwable error : errors)
+        {
+            if (error != null)
+            {
+                failureCount++;
+            }
+        }
+        return failureCount;
+    }
+}
@@ -0,0 +1,91 @@
+package com.crescentflare.markdownparser;
+
+import com.crescentflare.markdownparser.helper.MarkdownConversionCallback;
+import com.crescentflare.markdownparsercore.MarkdownCancellationSignal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Markdown library: conversion task
+ * A future for an asynchronous conversion, cancelling it stops the conversion at the next line or section (without interrupting the thread)
+ * When finished, the result is passed to the callback on the result executor unless the task was cancelled before it's delivered
+ */
+public class MarkdownConversionTask<T> extends FutureTask<T>
+{
+    /**
+     * Members
+     */
+    private final MarkdownCancellationSignal signal;
+    private final Executor resultExecutor;
+    private final MarkdownConversionCallback<T> callback;
+
+    /**
+     * Initialization
+     */
+    MarkdownConversionTask(Callable<T> conversion, MarkdownCancellationSignal signal, Executor resultExecutor, MarkdownConversionCallback<T> callback)
+    {
+        super(conversion);
+        this.signal = signal;
+        this.resultExecutor = resultExecutor;
+        this.callback = callback;
+    }
+
+    /**
+     * Cancellation, the callback isn't called after cancelling (even if the conversion already finished)
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        signal.cancel();
+        return super.cancel(false);
+    }
+
+    public MarkdownCancellationSignal getCancellationSignal()
+    {
+        return signal;
+    }
+
+    /**
+     * Result delivery
+     */
+    @Override
+    protected void done()
+    {
+        if (callback == null || isCancelled() || signal.isCancelled())
+        {
+            return;
+        }
+        final T result;
+        try
+        {
+            result = get();
+        }
+        catch (InterruptedException | ExecutionException ignored)
+        {
+            //Failed conversions aren't delivered, the error is available from get
+            return;
+        }
+        Runnable delivery = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!signal.isCancelled())
+                {
+                    callback.onConverted(result);
+                }
+            }
+        };
+        if (resultExecutor != null)
+        {
+            resultExecutor.execute(delivery);
+        }
+        else
+        {
+            delivery.run();
+        }
+    }
+}
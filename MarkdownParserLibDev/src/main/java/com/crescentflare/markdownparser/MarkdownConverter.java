@@ -1,224 +1,137 @@
 package com.crescentflare.markdownparser;
 
-import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 
-import com.crescentflare.markdownparser.helper.DefaultMarkdownSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownConversionCallback;
+import com.crescentflare.markdownparser.helper.MarkdownParserPolicy;
 import com.crescentflare.markdownparser.helper.MarkdownSpanGenerator;
-import com.crescentflare.markdownparsercore.MarkdownJavaParser;
-import com.crescentflare.markdownparsercore.MarkdownNativeParser;
-import com.crescentflare.markdownparsercore.MarkdownParser;
-import com.crescentflare.markdownparsercore.MarkdownTag;
+import com.crescentflare.markdownparsercore.MarkdownOutline;
+import com.crescentflare.markdownparsercore.MarkdownParseLimits;
+import com.crescentflare.markdownparsercore.MarkdownTraceListener;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Executor;
 
 /**
  * Markdown library: markdown text converter
  * Convert markdown to other formats usable for Android (like html or spannable strings)
+ * Uses a shared converter engine, create a separate engine for a different configuration
  */
 public class MarkdownConverter
 {
     /**
-     * Static member to determine availability of the native core parser implementation
+     * Static member for the shared engine
      */
-    private static int nativeParserLibraryLoaded = 0;
+    private static final MarkdownConverterEngine defaultEngine = new MarkdownConverterEngine();
+
+    public static MarkdownConverterEngine getDefaultEngine()
+    {
+        return defaultEngine;
+    }
+
+    /**
+     * Parser policy configuration, set to null to use the default policy (native parser for texts longer than 128 characters)
+     */
+    public static void setParserPolicy(MarkdownParserPolicy policy)
+    {
+        defaultEngine.setParserPolicy(policy);
+    }
+
+    public static MarkdownParserPolicy getParserPolicy()
+    {
+        return defaultEngine.getParserPolicy();
+    }
+
+    /**
+     * Parse cache configuration, conversions reuse the parsed tags of texts which were converted before
+     */
+    public static void setParseCache(MarkdownParseCache cache)
+    {
+        defaultEngine.setParseCache(cache);
+    }
+
+    public static MarkdownParseCache getParseCache()
+    {
+        return defaultEngine.getParseCache();
+    }
+
+    /**
+     * Render cache configuration, spannable conversions return the same immutable result for the same text and span generator
+     */
+    public static void setRenderCache(MarkdownRenderCache cache)
+    {
+        defaultEngine.setRenderCache(cache);
+    }
+
+    public static MarkdownRenderCache getRenderCache()
+    {
+        return defaultEngine.getRenderCache();
+    }
+
+    /**
+     * Parse limits configuration for untrusted input, the remaining text is converted without markdown when a limit is reached
+     */
+    public static void setParseLimits(MarkdownParseLimits limits)
+    {
+        defaultEngine.setParseLimits(limits);
+    }
+
+    public static MarkdownParseLimits getParseLimits()
+    {
+        return defaultEngine.getParseLimits();
+    }
+
+    /**
+     * Tracing configuration, the listener receives the durations of the conversion and parse phases (null to disable)
+     */
+    public static void setTraceListener(MarkdownTraceListener listener)
+    {
+        defaultEngine.setTraceListener(listener);
+    }
+
+    public static MarkdownTraceListener getTraceListener()
+    {
+        return defaultEngine.getTraceListener();
+    }
+
+    /**
+     * Memory handling, call this from onTrimMemory of the application or activity to release the parser buffers and trim the caches
+     */
+    public static void trimMemory(int level)
+    {
+        defaultEngine.trimMemory(level);
+    }
 
     /**
      * HTML conversion handling
      */
     public static String toHtmlString(String markdownText)
     {
-        MarkdownParser parser = obtainParser(markdownText);
-        MarkdownTag[] foundTags = parser.findTags(markdownText);
-        String htmlString = "";
-        List<Integer> listCount = new ArrayList<>();
-        MarkdownTag.Type prevSectionType = MarkdownTag.Type.Paragraph;
-        boolean addedParagraph = true;
-        for (int i = 0; i < foundTags.length; i++)
-        {
-            MarkdownTag sectionTag = foundTags[i];
-            if (!addedParagraph && sectionTag.type == MarkdownTag.Type.Normal)
-            {
-                htmlString += "<br/>";
-            }
-            if (sectionTag.type == MarkdownTag.Type.OrderedList || sectionTag.type == MarkdownTag.Type.UnorderedList)
-            {
-                int matchedType = sectionTag.type == MarkdownTag.Type.OrderedList ? 0 : 1;
-                if (listCount.size() == sectionTag.weight && listCount.size() > 0 && listCount.get(listCount.size() - 1) != matchedType)
-                {
-                    htmlString += listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>";
-                    listCount.remove(listCount.size() - 1);
-                }
-                for (int j = listCount.size(); j < sectionTag.weight; j++)
-                {
-                    listCount.add(sectionTag.type == MarkdownTag.Type.OrderedList ? 0 : 1);
-                    htmlString += sectionTag.type == MarkdownTag.Type.OrderedList ? "<ol>" : "<ul>";
-                }
-                for (int j = listCount.size(); j > sectionTag.weight; j--)
-                {
-                    htmlString += listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>";
-                    listCount.remove(listCount.size() - 1);
-                }
-            }
-            if (sectionTag.type == MarkdownTag.Type.Header || sectionTag.type == MarkdownTag.Type.OrderedList || sectionTag.type == MarkdownTag.Type.UnorderedList || sectionTag.type == MarkdownTag.Type.Normal)
-            {
-                List<MarkdownTag> handledTags = new ArrayList<>();
-                htmlString += getHtmlTag(parser, markdownText, sectionTag, false);
-                htmlString = appendHtmlString(parser, handledTags, htmlString, markdownText, foundTags, i);
-                htmlString += getHtmlTag(parser, markdownText, sectionTag, true);
-                i += handledTags.size() - 1;
-                addedParagraph = sectionTag.type != MarkdownTag.Type.Normal;
-            }
-            else if (sectionTag.type == MarkdownTag.Type.Paragraph)
-            {
-                boolean nextNormal = i + 1 < foundTags.length && foundTags[i + 1].type == MarkdownTag.Type.Normal;
-                if (prevSectionType == MarkdownTag.Type.Normal && nextNormal)
-                {
-                    for (int j = 0; j < sectionTag.weight + 1; j++)
-                    {
-                        htmlString += "<br/>";
-                    }
-                }
-                addedParagraph = true;
-                for (int j = listCount.size(); j > 0; j--)
-                {
-                    htmlString += listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>";
-                    listCount.remove(listCount.size() - 1);
-                }
-            }
-            prevSectionType = sectionTag.type;
-        }
-        for (int j = listCount.size(); j > 0; j--)
-        {
-            htmlString += listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>";
-            listCount.remove(listCount.size() - 1);
-        }
-        return htmlString;
+        return defaultEngine.toHtmlString(markdownText);
     }
 
-    private static String appendHtmlString(MarkdownParser parser, List<MarkdownTag> handledTags, String htmlString, String markdownText, MarkdownTag[] foundTags, int start)
+    public static boolean appendHtml(String markdownText, Appendable output) throws IOException
+    {
+        return defaultEngine.appendHtml(markdownText, output);
+    }
+
+    /**
+     * Plain text conversion handling, optionally counting the words and characters
+     */
+    public static String toPlainText(String markdownText)
     {
-        MarkdownTag curTag = foundTags[start];
-        MarkdownTag intermediateTag = null;
-        MarkdownTag processingTag = null;
-        int checkPosition = start + 1;
-        boolean processing = true;
-        while (processing)
-        {
-            MarkdownTag nextTag = checkPosition < foundTags.length ? foundTags[checkPosition] : null;
-            processing = false;
-            if (nextTag != null && nextTag.startPosition < curTag.endPosition)
-            {
-                if (processingTag == null)
-                {
-                    processingTag = new MarkdownTag();
-                    handledTags.add(processingTag);
-                    processingTag.type = curTag.type;
-                    processingTag.weight = curTag.weight;
-                    processingTag.startExtra = curTag.startExtra;
-                    processingTag.endExtra = curTag.endExtra;
-                    processingTag.startText = htmlString.length();
-                    htmlString += parser.extractTextBetween(markdownText, curTag, nextTag, MarkdownParser.ExtractBetweenMode.StartToNext);
-                    processingTag.endText = htmlString.length();
-                }
-                else
-                {
-                    htmlString += parser.extractTextBetween(markdownText, intermediateTag, nextTag, MarkdownParser.ExtractBetweenMode.IntermediateToNext);
-                    processingTag.endText = htmlString.length();
-                }
-                int prevHandledTagSize = handledTags.size();
-                htmlString += getHtmlTag(parser, markdownText, nextTag, false);
-                htmlString = appendHtmlString(parser, handledTags, htmlString, markdownText, foundTags, checkPosition);
-                htmlString += getHtmlTag(parser, markdownText, nextTag, true);
-                intermediateTag = foundTags[checkPosition];
-                checkPosition += handledTags.size() - prevHandledTagSize;
-                processing = true;
-            }
-            else
-            {
-                if (processingTag == null)
-                {
-                    processingTag = new MarkdownTag();
-                    handledTags.add(processingTag);
-                    processingTag.type = curTag.type;
-                    processingTag.weight = curTag.weight;
-                    processingTag.startExtra = curTag.startExtra;
-                    processingTag.endExtra = curTag.endExtra;
-                    processingTag.startText = htmlString.length();
-                    htmlString += parser.extractText(markdownText, curTag);
-                    processingTag.endText = htmlString.length();
-                }
-                else
-                {
-                    htmlString += parser.extractTextBetween(markdownText, intermediateTag, curTag, MarkdownParser.ExtractBetweenMode.IntermediateToEnd);
-                    processingTag.endText = htmlString.length();
-                }
-            }
-        }
-        return htmlString;
+        return defaultEngine.toPlainText(markdownText);
     }
 
-    private static String getHtmlTag(MarkdownParser parser, String markdownText, MarkdownTag tag, boolean closingTag)
+    public static String toPlainText(String markdownText, MarkdownTextCounts counts)
     {
-        String start = closingTag ? "</" : "<";
-        if (tag.type == MarkdownTag.Type.TextStyle)
-        {
-            switch (tag.weight)
-            {
-                case 1:
-                    start += "i";
-                    break;
-                case 2:
-                    start += "b";
-                    break;
-                case 3:
-                    if (closingTag)
-                    {
-                        start += "b>" + start + "i";
-                    }
-                    else
-                    {
-                        start += "i>" + start + "b";
-                    }
-            }
-        }
-        else if (tag.type == MarkdownTag.Type.AlternativeTextStyle)
-        {
-            start += "strike";
-        }
-        else if (tag.type == MarkdownTag.Type.Header)
-        {
-            int headerSize = 6;
-            if (tag.weight >= 1 && tag.weight < 7)
-            {
-                headerSize = tag.weight;
-            }
-            start += "h" + headerSize;
-        }
-        else if (tag.type == MarkdownTag.Type.OrderedList || tag.type == MarkdownTag.Type.UnorderedList)
-        {
-            start += "li";
-        }
-        else if (tag.type == MarkdownTag.Type.Link)
-        {
-            start += "a";
-            if (!closingTag)
-            {
-                String linkLocation = parser.extractExtra(markdownText, tag);
-                if (linkLocation.length() == 0)
-                {
-                    linkLocation = parser.extractText(markdownText, tag);
-                }
-                start += " href=" + linkLocation;
-            }
-        }
-        else
-        {
-            return "";
-        }
-        return start + ">";
+        return defaultEngine.toPlainText(markdownText, counts);
+    }
+
+    public static boolean appendPlainText(String markdownText, Appendable output) throws IOException
+    {
+        return defaultEngine.appendPlainText(markdownText, output);
     }
 
     /**
@@ -226,165 +139,70 @@ public class MarkdownConverter
      */
     public static Spanned toSpannable(String markdownText)
     {
-        return toSpannable(markdownText, new DefaultMarkdownSpanGenerator());
+        return defaultEngine.toSpannable(markdownText);
     }
 
     public static Spanned toSpannable(String markdownText, MarkdownSpanGenerator spanGenerator)
     {
-        if (spanGenerator == null)
-        {
-            return new SpannableString("#Error");
-        }
-        MarkdownParser parser = obtainParser(markdownText);
-        MarkdownTag[] foundTags = parser.findTags(markdownText);
-        SpannableStringBuilder builder = new SpannableStringBuilder();
-        List<Integer> listCount = new ArrayList<>();
-        boolean addedParagraph = true;
-        for (int i = 0; i < foundTags.length; i++)
-        {
-            MarkdownTag sectionTag = foundTags[i];
-            if (!addedParagraph)
-            {
-                builder.append("\n");
-            }
-            if (sectionTag.type == MarkdownTag.Type.OrderedList || sectionTag.type == MarkdownTag.Type.UnorderedList)
-            {
-                for (int j = listCount.size(); j < sectionTag.weight; j++)
-                {
-                    listCount.add(0);
-                }
-                for (int j = listCount.size(); j > sectionTag.weight; j--)
-                {
-                    listCount.remove(listCount.size() - 1);
-                }
-                if (sectionTag.type == MarkdownTag.Type.OrderedList)
-                {
-                    listCount.set(listCount.size() - 1, listCount.get(listCount.size() - 1) + 1);
-                }
-            }
-            if (sectionTag.type == MarkdownTag.Type.Header || sectionTag.type == MarkdownTag.Type.OrderedList || sectionTag.type == MarkdownTag.Type.UnorderedList || sectionTag.type == MarkdownTag.Type.Normal)
-            {
-                List<MarkdownTag> convertedTags = new ArrayList<>();
-                appendSpannableBuilder(parser, convertedTags, builder, markdownText, foundTags, i);
-                i += convertedTags.size() - 1;
-                if (sectionTag.type == MarkdownTag.Type.OrderedList || sectionTag.type == MarkdownTag.Type.UnorderedList)
-                {
-                    String token = spanGenerator.getListToken(sectionTag.type, sectionTag.weight, listCount.get(listCount.size() - 1));
-                    if (token == null)
-                    {
-                        token = "";
-                    }
-                    spanGenerator.applySpan(builder, sectionTag.type, sectionTag.weight, convertedTags.get(0).startText, convertedTags.get(0).endText, token);
-                }
-                for (MarkdownTag tag : convertedTags)
-                {
-                    if (tag.type == MarkdownTag.Type.OrderedList || tag.type == MarkdownTag.Type.UnorderedList)
-                    {
-                        continue;
-                    }
-                    String extra = "";
-                    if (tag.type == MarkdownTag.Type.Link)
-                    {
-                        extra = parser.extractExtra(markdownText, tag);
-                        if (extra.length() == 0)
-                        {
-                            extra = builder.subSequence(tag.startText, tag.endText).toString();
-                        }
-                    }
-                    spanGenerator.applySpan(builder, tag.type, tag.weight, tag.startText, tag.endText, extra);
-                }
-                addedParagraph = false;
-            }
-            else if (sectionTag.type == MarkdownTag.Type.Paragraph)
-            {
-                if (sectionTag.weight > 0)
-                {
-                    builder.append("\n");
-                    spanGenerator.applySpan(builder, MarkdownTag.Type.Paragraph, sectionTag.weight, builder.length() - 1, builder.length(), "");
-                }
-                addedParagraph = true;
-                listCount.clear();
-            }
-        }
-        return builder;
+        return defaultEngine.toSpannable(markdownText, spanGenerator);
+    }
+
+    /**
+     * Block-level conversion handling, render the blocks of a parsed document separately (like the visible items of a list view)
+     */
+    public static MarkdownDocument parseDocument(String markdownText)
+    {
+        return defaultEngine.parseDocument(markdownText);
+    }
+
+    public static MarkdownOutline parseOutline(String markdownText)
+    {
+        return defaultEngine.parseOutline(markdownText);
+    }
+
+    public static Spanned renderBlock(MarkdownDocument document, int index)
+    {
+        return defaultEngine.renderBlock(document, index);
     }
 
-    private static void appendSpannableBuilder(MarkdownParser parser, List<MarkdownTag> convertedTags, SpannableStringBuilder builder, String markdownText, MarkdownTag[] foundTags, int start)
+    public static Spanned renderBlock(MarkdownDocument document, int index, MarkdownSpanGenerator spanGenerator)
     {
-        MarkdownTag curTag = foundTags[start];
-        MarkdownTag intermediateTag = null;
-        MarkdownTag processingTag = null;
-        int checkPosition = start + 1;
-        boolean processing = true;
-        while (processing)
-        {
-            MarkdownTag nextTag = checkPosition < foundTags.length ? foundTags[checkPosition] : null;
-            processing = false;
-            if (nextTag != null && nextTag.startPosition < curTag.endPosition)
-            {
-                if (processingTag == null)
-                {
-                    processingTag = new MarkdownTag();
-                    convertedTags.add(processingTag);
-                    processingTag.type = curTag.type;
-                    processingTag.weight = curTag.weight;
-                    processingTag.startExtra = curTag.startExtra;
-                    processingTag.endExtra = curTag.endExtra;
-                    processingTag.startText = builder.length();
-                    builder.append(parser.extractTextBetween(markdownText, curTag, nextTag, MarkdownParser.ExtractBetweenMode.StartToNext));
-                    processingTag.endText = builder.length();
-                }
-                else
-                {
-                    builder.append(parser.extractTextBetween(markdownText, intermediateTag, nextTag, MarkdownParser.ExtractBetweenMode.IntermediateToNext));
-                    processingTag.endText = builder.length();
-                }
-                int prevConvertedTagSize = convertedTags.size();
-                appendSpannableBuilder(parser, convertedTags, builder, markdownText, foundTags, checkPosition);
-                intermediateTag = foundTags[checkPosition];
-                checkPosition += convertedTags.size() - prevConvertedTagSize;
-                processing = true;
-            }
-            else
-            {
-                if (processingTag == null)
-                {
-                    processingTag = new MarkdownTag();
-                    convertedTags.add(processingTag);
-                    processingTag.type = curTag.type;
-                    processingTag.weight = curTag.weight;
-                    processingTag.startExtra = curTag.startExtra;
-                    processingTag.endExtra = curTag.endExtra;
-                    processingTag.startText = builder.length();
-                    builder.append(parser.extractText(markdownText, curTag));
-                    processingTag.endText = builder.length();
-                }
-                else
-                {
-                    builder.append(parser.extractTextBetween(markdownText, intermediateTag, curTag, MarkdownParser.ExtractBetweenMode.IntermediateToEnd));
-                    processingTag.endText = builder.length();
-                }
-            }
-        }
+        return defaultEngine.renderBlock(document, index, spanGenerator);
     }
 
     /**
-     * Obtain parser instance based on requirements
+     * Asynchronous conversion handling, the result is delivered on the result executor (like the main thread executor helper)
      */
-    private static MarkdownParser obtainParser(String text)
+    public static MarkdownConversionTask<String> toHtmlStringAsync(String markdownText, Executor executor, Executor resultExecutor, MarkdownConversionCallback<String> callback)
+    {
+        return defaultEngine.toHtmlStringAsync(markdownText, executor, resultExecutor, callback);
+    }
+
+    public static MarkdownConversionTask<Spanned> toSpannableAsync(String markdownText, Executor executor, Executor resultExecutor, MarkdownConversionCallback<Spanned> callback)
+    {
+        return defaultEngine.toSpannableAsync(markdownText, executor, resultExecutor, callback);
+    }
+
+    public static MarkdownConversionTask<Spanned> toSpannableAsync(String markdownText, MarkdownSpanGenerator spanGenerator, Executor executor, Executor resultExecutor, MarkdownConversionCallback<Spanned> callback)
+    {
+        return defaultEngine.toSpannableAsync(markdownText, spanGenerator, executor, resultExecutor, callback);
+    }
+
+    /**
+     * Batch conversion handling, the documents are converted on multiple threads and the results keep their order
+     */
+    public static MarkdownBatchResult<String> toHtmlStrings(Collection<String> markdownTexts, Executor executor)
+    {
+        return defaultEngine.toHtmlStrings(markdownTexts, executor);
+    }
+
+    public static MarkdownBatchResult<Spanned> toSpannables(Collection<String> markdownTexts, Executor executor)
+    {
+        return defaultEngine.toSpannables(markdownTexts, executor);
+    }
+
+    public static MarkdownBatchResult<Spanned> toSpannables(Collection<String> markdownTexts, MarkdownSpanGenerator spanGenerator, Executor executor)
     {
-        if (nativeParserLibraryLoaded == 0)
-        {
-            try
-            {
-                System.loadLibrary("markdownparser_native");
-                nativeParserLibraryLoaded = 1;
-            }
-            catch (Throwable t)
-            {
-                nativeParserLibraryLoaded = -1;
-            }
-        }
-        return text.length() > 128 && nativeParserLibraryLoaded == 1 ? new MarkdownNativeParser() : new MarkdownJavaParser();
+        return defaultEngine.toSpannables(markdownTexts, spanGenerator, executor);
     }
 }
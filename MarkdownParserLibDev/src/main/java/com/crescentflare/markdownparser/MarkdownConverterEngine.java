@@ -0,0 +1,1477 @@
+package com.crescentflare.markdownparser;
+
+import android.content.ComponentCallbacks2;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.SpannedString;
+
+import com.crescentflare.markdownparser.helper.DefaultMarkdownSpanGenerator;
+import com.crescentflare.markdownparser.helper.FixedMarkdownParserPolicy;
+import com.crescentflare.markdownparser.helper.MarkdownBulkSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownConversionCallback;
+import com.crescentflare.markdownparser.helper.MarkdownParserPolicy;
+import com.crescentflare.markdownparser.helper.MarkdownSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownSpanGeneratorAdapter;
+import com.crescentflare.markdownparser.helper.MarkdownSpanRanges;
+import com.crescentflare.markdownparser.helper.MarkdownSpannedString;
+import com.crescentflare.markdownparser.helper.MarkdownTruncatedSpan;
+import com.crescentflare.markdownparsercore.MarkdownBaseParser;
+import com.crescentflare.markdownparsercore.MarkdownCancellationSignal;
+import com.crescentflare.markdownparsercore.MarkdownJavaParser;
+import com.crescentflare.markdownparsercore.MarkdownNativeParser;
+import com.crescentflare.markdownparsercore.MarkdownOutline;
+import com.crescentflare.markdownparsercore.MarkdownParseLimits;
+import com.crescentflare.markdownparsercore.MarkdownParser;
+import com.crescentflare.markdownparsercore.MarkdownTag;
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+import com.crescentflare.markdownparsercore.MarkdownTrace;
+import com.crescentflare.markdownparsercore.MarkdownTraceListener;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Markdown library: converter engine
+ * Converts markdown to html or spannable strings using its own configuration (parser policy, caches and span generator)
+ * An engine can be used by multiple threads at the same time, each thread reuses its own parsers and buffers
+ */
+public class MarkdownConverterEngine
+{
+    /**
+     * Constants
+     */
+    private static final int MAX_RETAINED_BUILDER_CAPACITY = 64 * 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String PLAIN_TEXT_LIST_INDENT = "  ";
+
+    /**
+     * Members
+     */
+    private final Set<ConversionContext> threadContexts = Collections.newSetFromMap(new WeakHashMap<ConversionContext, Boolean>());
+    private final ThreadLocal<ConversionContext> threadContext = new ThreadLocal<ConversionContext>()
+    {
+        @Override
+        protected ConversionContext initialValue()
+        {
+            ConversionContext context = new ConversionContext();
+            synchronized (threadContexts)
+            {
+                threadContexts.add(context);
+            }
+            return context;
+        }
+    };
+    private volatile MarkdownParserPolicy parserPolicy = new FixedMarkdownParserPolicy();
+    private volatile MarkdownParseCache parseCache = null;
+    private volatile MarkdownRenderCache renderCache = null;
+    private volatile MarkdownBulkSpanGenerator spanGenerator = new DefaultMarkdownSpanGenerator();
+    private volatile MarkdownTraceListener traceListener = null;
+    private volatile MarkdownParseLimits parseLimits = null;
+
+    /**
+     * Configuration, set the parser policy to null to use the default policy (native parser for texts longer than 128 characters)
+     * The caches are disabled by default, spannable conversions without a span generator use the default generator
+     */
+    public void setParserPolicy(MarkdownParserPolicy policy)
+    {
+        parserPolicy = policy != null ? policy : new FixedMarkdownParserPolicy();
+    }
+
+    public MarkdownParserPolicy getParserPolicy()
+    {
+        return parserPolicy;
+    }
+
+    public void setParseCache(MarkdownParseCache cache)
+    {
+        parseCache = cache;
+    }
+
+    public MarkdownParseCache getParseCache()
+    {
+        return parseCache;
+    }
+
+    public void setRenderCache(MarkdownRenderCache cache)
+    {
+        renderCache = cache;
+    }
+
+    public MarkdownRenderCache getRenderCache()
+    {
+        return renderCache;
+    }
+
+    public void setSpanGenerator(MarkdownSpanGenerator generator)
+    {
+        spanGenerator = generator != null ? adaptSpanGenerator(generator) : new DefaultMarkdownSpanGenerator();
+    }
+
+    public MarkdownSpanGenerator getSpanGenerator()
+    {
+        MarkdownBulkSpanGenerator generator = spanGenerator;
+        if (generator instanceof MarkdownSpanGeneratorAdapter)
+        {
+            return ((MarkdownSpanGeneratorAdapter)generator).getSpanGenerator();
+        }
+        return generator instanceof MarkdownSpanGenerator ? (MarkdownSpanGenerator)generator : null;
+    }
+
+    public void setBulkSpanGenerator(MarkdownBulkSpanGenerator generator)
+    {
+        spanGenerator = generator != null ? generator : new DefaultMarkdownSpanGenerator();
+    }
+
+    public MarkdownBulkSpanGenerator getBulkSpanGenerator()
+    {
+        return spanGenerator;
+    }
+
+    /**
+     * Tracing, set a listener to receive the durations of the conversion and parse phases (null to disable)
+     * Each conversion is reported as a trace, the parser used for it reports its own trace with the detailed parse phases
+     */
+    public void setTraceListener(MarkdownTraceListener listener)
+    {
+        traceListener = listener;
+    }
+
+    public MarkdownTraceListener getTraceListener()
+    {
+        return traceListener;
+    }
+
+    /**
+     * Parse limits for untrusted input (null to disable), parsing stops at a limit and the remaining text is converted without markdown
+     * Truncated results aren't cached, appendHtml returns true for them and spannable results contain a truncated span
+     */
+    public void setParseLimits(MarkdownParseLimits limits)
+    {
+        parseLimits = limits;
+    }
+
+    public MarkdownParseLimits getParseLimits()
+    {
+        return parseLimits;
+    }
+
+    /**
+     * Memory handling, call this from onTrimMemory of the application or activity
+     * Releases the parser buffers kept by each thread (a thread which is converting releases them when it's done) and trims the caches
+     */
+    public void trimMemory(int level)
+    {
+        int maxRetainedBytes;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        {
+            maxRetainedBytes = 0;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        {
+            maxRetainedBytes = MAX_RETAINED_BUILDER_CAPACITY;
+        }
+        else
+        {
+            return;
+        }
+        synchronized (threadContexts)
+        {
+            for (ConversionContext context : threadContexts)
+            {
+                synchronized (context)
+                {
+                    if (context.inUse)
+                    {
+                        context.trimRequested = context.trimRequested < 0 ? maxRetainedBytes : Math.min(context.trimRequested, maxRetainedBytes);
+                    }
+                    else
+                    {
+                        trimParsers(context, maxRetainedBytes);
+                    }
+                }
+            }
+        }
+        MarkdownParseCache currentParseCache = parseCache;
+        if (currentParseCache != null && maxRetainedBytes == 0)
+        {
+            currentParseCache.clear();
+        }
+        MarkdownRenderCache currentRenderCache = renderCache;
+        if (currentRenderCache != null)
+        {
+            currentRenderCache.trimMemory(level);
+        }
+    }
+
+    /**
+     * HTML conversion handling
+     */
+    private static final String[] HTML_TEXT_STYLE_OPEN = new String[] { "<>", "<i>", "<b>", "<i><b>" };
+    private static final String[] HTML_TEXT_STYLE_CLOSE = new String[] { "</>", "</i>", "</b>", "</b></i>" };
+    private static final String[] HTML_HEADER_OPEN = new String[] { "<h1>", "<h2>", "<h3>", "<h4>", "<h5>", "<h6>" };
+    private static final String[] HTML_HEADER_CLOSE = new String[] { "</h1>", "</h2>", "</h3>", "</h4>", "</h5>", "</h6>" };
+
+    public String toHtmlString(String markdownText)
+    {
+        return toHtmlString(markdownText, null);
+    }
+
+    public String toHtmlString(String markdownText, MarkdownCancellationSignal signal)
+    {
+        ConversionContext context = acquireContext();
+        try
+        {
+            StringBuilder htmlString = context.htmlBuilder;
+            htmlString.ensureCapacity(markdownText.length() + markdownText.length() / 4);
+            appendHtml(context, markdownText, htmlString, signal);
+            return htmlString.toString();
+        }
+        catch (IOException ignored)
+        {
+            //StringBuilder doesn't throw I/O exceptions
+            return "";
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+    }
+
+    public boolean appendHtml(String markdownText, Appendable output) throws IOException
+    {
+        return appendHtml(markdownText, output, null);
+    }
+
+    public boolean appendHtml(String markdownText, Appendable output, MarkdownCancellationSignal signal) throws IOException
+    {
+        ConversionContext context = acquireContext();
+        try
+        {
+            return appendHtml(context, markdownText, output, signal);
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+    }
+
+    private boolean appendHtml(ConversionContext context, String markdownText, Appendable output, MarkdownCancellationSignal signal) throws IOException
+    {
+        MarkdownTraceListener listener = traceListener;
+        MarkdownTrace trace = listener != null ? new MarkdownTrace(listener, "toHtml", null, markdownText.length()) : null;
+        MarkdownBaseParser parser = obtainParser(context, markdownText, trace, signal);
+        MarkdownTagBuffer foundTags = findTagBuffer(parser, markdownText, trace, true);
+        long renderStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.RenderHtml) : 0;
+        MarkerList listCount = context.listMarkers;
+        listCount.clear();
+        MarkdownTag.Type prevSectionType = MarkdownTag.Type.Paragraph;
+        boolean addedParagraph = true;
+        for (int i = 0; i < foundTags.size(); i++)
+        {
+            MarkdownTag.Type sectionType = foundTags.getType(i);
+            int sectionWeight = foundTags.getWeight(i);
+            if (signal != null)
+            {
+                signal.throwIfCancelled();
+            }
+            if (!addedParagraph && sectionType == MarkdownTag.Type.Normal)
+            {
+                output.append("<br/>");
+            }
+            if (sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList)
+            {
+                int matchedType = sectionType == MarkdownTag.Type.OrderedList ? 0 : 1;
+                if (listCount.size() == sectionWeight && listCount.size() > 0 && listCount.get(listCount.size() - 1) != matchedType)
+                {
+                    output.append(listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>");
+                    listCount.remove(listCount.size() - 1);
+                }
+                for (int j = listCount.size(); j < sectionWeight; j++)
+                {
+                    listCount.add(matchedType);
+                    output.append(matchedType == 0 ? "<ol>" : "<ul>");
+                }
+                for (int j = listCount.size(); j > sectionWeight; j--)
+                {
+                    output.append(listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>");
+                    listCount.remove(listCount.size() - 1);
+                }
+            }
+            if (sectionType == MarkdownTag.Type.Header || sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList || sectionType == MarkdownTag.Type.Normal)
+            {
+                int sectionIndex = i;
+                appendHtmlTag(parser, output, markdownText, foundTags, sectionIndex, false);
+                long extractStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.ExtractText) : 0;
+                i += appendHtmlSection(parser, output, markdownText, foundTags, sectionIndex, true) - 1;
+                if (trace != null)
+                {
+                    trace.endPhase(MarkdownTrace.Phase.ExtractText, extractStartTime);
+                }
+                appendHtmlTag(parser, output, markdownText, foundTags, sectionIndex, true);
+                addedParagraph = sectionType != MarkdownTag.Type.Normal;
+            }
+            else if (sectionType == MarkdownTag.Type.Paragraph)
+            {
+                boolean nextNormal = i + 1 < foundTags.size() && foundTags.getType(i + 1) == MarkdownTag.Type.Normal;
+                if (prevSectionType == MarkdownTag.Type.Normal && nextNormal)
+                {
+                    for (int j = 0; j < sectionWeight + 1; j++)
+                    {
+                        output.append("<br/>");
+                    }
+                }
+                addedParagraph = true;
+                for (int j = listCount.size(); j > 0; j--)
+                {
+                    output.append(listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>");
+                    listCount.remove(listCount.size() - 1);
+                }
+            }
+            prevSectionType = sectionType;
+        }
+        for (int j = listCount.size(); j > 0; j--)
+        {
+            output.append(listCount.get(listCount.size() - 1) == 0 ? "</ol>" : "</ul>");
+            listCount.remove(listCount.size() - 1);
+        }
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.RenderHtml, renderStartTime);
+            trace.finish(foundTags.size());
+        }
+        return foundTags.isTruncated();
+    }
+
+    private static int appendHtmlSection(MarkdownBaseParser parser, Appendable output, String markdownText, MarkdownTagBuffer foundTags, int start, boolean addTags) throws IOException
+    {
+        int curEndPosition = foundTags.getEndPosition(start);
+        int intermediateTag = -1;
+        int handledTags = 1;
+        int checkPosition = start + 1;
+        boolean processing = true;
+        while (processing)
+        {
+            processing = false;
+            if (checkPosition < foundTags.size() && foundTags.getStartPosition(checkPosition) < curEndPosition)
+            {
+                if (intermediateTag < 0)
+                {
+                    parser.appendTextBetween(markdownText, foundTags, start, checkPosition, MarkdownParser.ExtractBetweenMode.StartToNext, output);
+                }
+                else
+                {
+                    parser.appendTextBetween(markdownText, foundTags, intermediateTag, checkPosition, MarkdownParser.ExtractBetweenMode.IntermediateToNext, output);
+                }
+                if (addTags)
+                {
+                    appendHtmlTag(parser, output, markdownText, foundTags, checkPosition, false);
+                }
+                int nestedTags = appendHtmlSection(parser, output, markdownText, foundTags, checkPosition, addTags);
+                if (addTags)
+                {
+                    appendHtmlTag(parser, output, markdownText, foundTags, checkPosition, true);
+                }
+                intermediateTag = checkPosition;
+                checkPosition += nestedTags;
+                handledTags += nestedTags;
+                processing = true;
+            }
+            else if (intermediateTag < 0)
+            {
+                parser.appendText(markdownText, foundTags, start, output);
+            }
+            else
+            {
+                parser.appendTextBetween(markdownText, foundTags, intermediateTag, start, MarkdownParser.ExtractBetweenMode.IntermediateToEnd, output);
+            }
+        }
+        return handledTags;
+    }
+
+    private static void appendHtmlTag(MarkdownBaseParser parser, Appendable output, String markdownText, MarkdownTagBuffer foundTags, int index, boolean closingTag) throws IOException
+    {
+        int weight = foundTags.getWeight(index);
+        switch (foundTags.getType(index))
+        {
+            case TextStyle:
+                int styleIndex = weight >= 1 && weight <= 3 ? weight : 0;
+                output.append(closingTag ? HTML_TEXT_STYLE_CLOSE[styleIndex] : HTML_TEXT_STYLE_OPEN[styleIndex]);
+                break;
+            case AlternativeTextStyle:
+                output.append(closingTag ? "</strike>" : "<strike>");
+                break;
+            case Header:
+                int headerIndex = weight >= 1 && weight < 7 ? weight - 1 : 5;
+                output.append(closingTag ? HTML_HEADER_CLOSE[headerIndex] : HTML_HEADER_OPEN[headerIndex]);
+                break;
+            case OrderedList:
+            case UnorderedList:
+                output.append(closingTag ? "</li>" : "<li>");
+                break;
+            case Link:
+                if (closingTag)
+                {
+                    output.append("</a>");
+                }
+                else
+                {
+                    output.append("<a href=");
+                    if (parser.extractExtraSequence(markdownText, foundTags, index).length() > 0)
+                    {
+                        parser.appendExtra(markdownText, foundTags, index, output);
+                    }
+                    else
+                    {
+                        parser.appendText(markdownText, foundTags, index, output);
+                    }
+                    output.append(">");
+                }
+                break;
+        }
+    }
+
+    /**
+     * Plain text conversion handling, for search indexing or previews (like notifications) without the cost of spans or html
+     * List items start with the list token of the span generator and paragraphs are separated by an empty line, like the text of a spannable conversion
+     */
+    public String toPlainText(String markdownText)
+    {
+        return toPlainText(markdownText, null);
+    }
+
+    public String toPlainText(String markdownText, MarkdownTextCounts counts)
+    {
+        ConversionContext context = acquireContext();
+        try
+        {
+            StringBuilder plainText = context.htmlBuilder;
+            plainText.ensureCapacity(markdownText.length());
+            appendPlainText(context, markdownText, plainText, counts, null);
+            return plainText.toString();
+        }
+        catch (IOException ignored)
+        {
+            //StringBuilder doesn't throw I/O exceptions
+            return "";
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+    }
+
+    public boolean appendPlainText(String markdownText, Appendable output) throws IOException
+    {
+        return appendPlainText(markdownText, output, null, null);
+    }
+
+    public boolean appendPlainText(String markdownText, Appendable output, MarkdownTextCounts counts, MarkdownCancellationSignal signal) throws IOException
+    {
+        ConversionContext context = acquireContext();
+        try
+        {
+            return appendPlainText(context, markdownText, output, counts, signal);
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+    }
+
+    private boolean appendPlainText(ConversionContext context, String markdownText, Appendable output, MarkdownTextCounts counts, MarkdownCancellationSignal signal) throws IOException
+    {
+        MarkdownTraceListener listener = traceListener;
+        MarkdownTrace trace = listener != null ? new MarkdownTrace(listener, "toPlainText", null, markdownText.length()) : null;
+        MarkdownBaseParser parser = obtainParser(context, markdownText, trace, signal);
+        MarkdownTagBuffer foundTags = findTagBuffer(parser, markdownText, trace, true);
+        long renderStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.RenderPlainText) : 0;
+        Appendable textOutput = output;
+        if (counts != null)
+        {
+            counts.clear();
+            textOutput = new CountingAppendable(output, counts);
+        }
+        MarkdownBulkSpanGenerator generator = spanGenerator;
+        MarkerList listCount = context.listMarkers;
+        listCount.clear();
+        boolean addedParagraph = true;
+        for (int i = 0; i < foundTags.size(); i++)
+        {
+            MarkdownTag.Type sectionType = foundTags.getType(i);
+            int sectionWeight = foundTags.getWeight(i);
+            if (signal != null)
+            {
+                signal.throwIfCancelled();
+            }
+            if (!addedParagraph)
+            {
+                output.append('\n');
+            }
+            updateListMarkers(listCount, sectionType, sectionWeight);
+            if (sectionType == MarkdownTag.Type.Header || sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList || sectionType == MarkdownTag.Type.Normal)
+            {
+                if (counts != null)
+                {
+                    counts.endWord();
+                }
+                if (sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList)
+                {
+                    for (int j = 1; j < sectionWeight; j++)
+                    {
+                        output.append(PLAIN_TEXT_LIST_INDENT);
+                    }
+                    String token = generator.getListToken(sectionType, sectionWeight, listCount.get(listCount.size() - 1));
+                    if (token != null && token.length() > 0)
+                    {
+                        output.append(token);
+                        if (!Character.isWhitespace(token.charAt(token.length() - 1)))
+                        {
+                            output.append(' ');
+                        }
+                    }
+                }
+                long extractStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.ExtractText) : 0;
+                i += appendHtmlSection(parser, textOutput, markdownText, foundTags, i, false) - 1;
+                if (trace != null)
+                {
+                    trace.endPhase(MarkdownTrace.Phase.ExtractText, extractStartTime);
+                }
+                addedParagraph = false;
+            }
+            else if (sectionType == MarkdownTag.Type.Paragraph)
+            {
+                if (sectionWeight > 0)
+                {
+                    output.append('\n');
+                }
+                addedParagraph = true;
+                listCount.clear();
+            }
+        }
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.RenderPlainText, renderStartTime);
+            trace.finish(foundTags.size());
+        }
+        return foundTags.isTruncated();
+    }
+
+    /**
+     * Spannable conversion handling, the spans are created at once by a bulk span generator (using the bulk variants)
+     * Span generators which apply spans one by one are used through an adapter, unless they implement the bulk interface as well
+     * Like parse results, a cached render is skipped when it exceeds the input length or tag count limit
+     */
+    public Spanned toSpannable(String markdownText)
+    {
+        return toSpannableBulk(markdownText, spanGenerator, null);
+    }
+
+    public Spanned toSpannable(String markdownText, MarkdownSpanGenerator spanGenerator)
+    {
+        return toSpannable(markdownText, spanGenerator, null);
+    }
+
+    public Spanned toSpannable(String markdownText, MarkdownSpanGenerator spanGenerator, MarkdownCancellationSignal signal)
+    {
+        return toSpannableBulk(markdownText, adaptSpanGenerator(spanGenerator), signal);
+    }
+
+    public Spanned toSpannableBulk(String markdownText, MarkdownBulkSpanGenerator spanGenerator)
+    {
+        return toSpannableBulk(markdownText, spanGenerator, null);
+    }
+
+    public Spanned toSpannableBulk(String markdownText, MarkdownBulkSpanGenerator spanGenerator, MarkdownCancellationSignal signal)
+    {
+        if (spanGenerator == null)
+        {
+            return new SpannableString("#Error");
+        }
+        MarkdownRenderCache cache = renderCache;
+        MarkdownRenderCache.RenderEntry cachedEntry = cache != null ? cache.getBulkEntry(markdownText, spanGenerator) : null;
+        Spanned result = cachedEntry != null && fitsParseLimits(markdownText, cachedEntry.tagCount) ? cachedEntry.result : null;
+        MarkdownTraceListener listener = traceListener;
+        if (result != null && listener != null)
+        {
+            MarkdownTrace trace = new MarkdownTrace(listener, "toSpannable", null, markdownText.length());
+            trace.setCacheHit(true);
+            trace.finish(0);
+        }
+        if (result == null)
+        {
+            ConversionContext context = acquireContext();
+            int tagCount;
+            try
+            {
+                result = buildSpannable(context, markdownText, spanGenerator, signal);
+                tagCount = context.renderedTagCount;
+            }
+            finally
+            {
+                releaseContext(context);
+            }
+            if (cache != null && !MarkdownTruncatedSpan.isTruncated(result))
+            {
+                //A read-only spanned string can be shared as it is, other results are copied because they can be changed
+                if (!(result instanceof MarkdownSpannedString))
+                {
+                    result = new SpannedString(result);
+                }
+                cache.putBulk(markdownText, spanGenerator, result, tagCount);
+            }
+        }
+        return result;
+    }
+
+    private Spanned buildSpannable(ConversionContext context, String markdownText, MarkdownBulkSpanGenerator spanGenerator, MarkdownCancellationSignal signal)
+    {
+        MarkdownTraceListener listener = traceListener;
+        MarkdownTrace trace = listener != null ? new MarkdownTrace(listener, "toSpannable", null, markdownText.length()) : null;
+        MarkdownBaseParser parser = obtainParser(context, markdownText, trace, signal);
+        MarkdownTagBuffer foundTags = findTagBuffer(parser, markdownText, trace, true);
+        long renderStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.RenderSpannable) : 0;
+        context.listMarkers.clear();
+        appendSpannableSections(parser, context, markdownText, foundTags, 0, foundTags.size(), spanGenerator, signal, trace);
+        Spanned result = createSpanned(context, spanGenerator, foundTags.isTruncated(), trace);
+        context.renderedTagCount = foundTags.size();
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.RenderSpannable, renderStartTime);
+            trace.finish(foundTags.size());
+        }
+        return result;
+    }
+
+    private static void appendSpannableSections(MarkdownBaseParser parser, ConversionContext context, String markdownText, MarkdownTagBuffer foundTags, int startTag, int endTag, MarkdownBulkSpanGenerator spanGenerator, MarkdownCancellationSignal signal, MarkdownTrace trace)
+    {
+        StringBuilder builder = context.spannableText;
+        MarkdownSpanRanges spanRanges = context.spanRanges;
+        MarkdownTagBuffer convertedTags = context.convertedTags;
+        MarkerList listCount = context.listMarkers;
+        boolean addedParagraph = true;
+        for (int i = startTag; i < endTag; i++)
+        {
+            MarkdownTag.Type sectionType = foundTags.getType(i);
+            int sectionWeight = foundTags.getWeight(i);
+            if (signal != null)
+            {
+                signal.throwIfCancelled();
+            }
+            if (!addedParagraph)
+            {
+                builder.append("\n");
+            }
+            updateListMarkers(listCount, sectionType, sectionWeight);
+            if (sectionType == MarkdownTag.Type.Header || sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList || sectionType == MarkdownTag.Type.Normal)
+            {
+                convertedTags.clear();
+                long extractStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.ExtractText) : 0;
+                try
+                {
+                    appendSpannableBuilder(parser, convertedTags, builder, markdownText, foundTags, i);
+                }
+                catch (IOException ignored)
+                {
+                    //StringBuilder doesn't throw I/O exceptions
+                }
+                if (trace != null)
+                {
+                    trace.endPhase(MarkdownTrace.Phase.ExtractText, extractStartTime);
+                }
+                i += convertedTags.size() - 1;
+                long spanStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.ApplySpan) : 0;
+                if (sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList)
+                {
+                    String token = spanGenerator.getListToken(sectionType, sectionWeight, listCount.get(listCount.size() - 1));
+                    if (token == null)
+                    {
+                        token = "";
+                    }
+                    spanRanges.add(sectionType, sectionWeight, convertedTags.getStartText(0), convertedTags.getEndText(0), token);
+                }
+                for (int j = 0; j < convertedTags.size(); j++)
+                {
+                    MarkdownTag.Type type = convertedTags.getType(j);
+                    if (type == MarkdownTag.Type.OrderedList || type == MarkdownTag.Type.UnorderedList)
+                    {
+                        continue;
+                    }
+                    String extra = "";
+                    if (type == MarkdownTag.Type.Link)
+                    {
+                        extra = parser.extractExtra(markdownText, convertedTags, j);
+                        if (extra.length() == 0)
+                        {
+                            extra = builder.substring(convertedTags.getStartText(j), convertedTags.getEndText(j));
+                        }
+                    }
+                    spanRanges.add(type, convertedTags.getWeight(j), convertedTags.getStartText(j), convertedTags.getEndText(j), extra);
+                }
+                if (trace != null)
+                {
+                    trace.endPhase(MarkdownTrace.Phase.ApplySpan, spanStartTime);
+                }
+                addedParagraph = false;
+            }
+            else if (sectionType == MarkdownTag.Type.Paragraph)
+            {
+                if (sectionWeight > 0)
+                {
+                    builder.append("\n");
+                    spanRanges.add(MarkdownTag.Type.Paragraph, sectionWeight, builder.length() - 1, builder.length(), "");
+                }
+                addedParagraph = true;
+                listCount.clear();
+            }
+        }
+    }
+
+    private static Spanned createSpanned(ConversionContext context, MarkdownBulkSpanGenerator spanGenerator, boolean truncated, MarkdownTrace trace)
+    {
+        long spanStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.ApplySpan) : 0;
+        context.spanRanges.sortByStart();
+        Spanned result = spanGenerator.createSpanned(context.spannableText.toString(), context.spanRanges);
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.ApplySpan, spanStartTime);
+        }
+        if (truncated)
+        {
+            Spannable spannable = result instanceof Spannable ? (Spannable)result : new SpannableString(result);
+            spannable.setSpan(new MarkdownTruncatedSpan(), 0, spannable.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+            result = spannable;
+        }
+        return result;
+    }
+
+    private static MarkdownBulkSpanGenerator adaptSpanGenerator(MarkdownSpanGenerator spanGenerator)
+    {
+        if (spanGenerator instanceof MarkdownBulkSpanGenerator)
+        {
+            return (MarkdownBulkSpanGenerator)spanGenerator;
+        }
+        return spanGenerator != null ? new MarkdownSpanGeneratorAdapter(spanGenerator) : null;
+    }
+
+    private static void updateListMarkers(MarkerList listCount, MarkdownTag.Type sectionType, int sectionWeight)
+    {
+        if (sectionType == MarkdownTag.Type.OrderedList || sectionType == MarkdownTag.Type.UnorderedList)
+        {
+            for (int j = listCount.size(); j < sectionWeight; j++)
+            {
+                listCount.add(0);
+            }
+            for (int j = listCount.size(); j > sectionWeight; j--)
+            {
+                listCount.remove(listCount.size() - 1);
+            }
+            if (sectionType == MarkdownTag.Type.OrderedList)
+            {
+                listCount.set(listCount.size() - 1, listCount.get(listCount.size() - 1) + 1);
+            }
+        }
+    }
+
+    private static void appendSpannableBuilder(MarkdownBaseParser parser, MarkdownTagBuffer convertedTags, StringBuilder builder, String markdownText, MarkdownTagBuffer foundTags, int start) throws IOException
+    {
+        int curEndPosition = foundTags.getEndPosition(start);
+        int intermediateTag = -1;
+        int processingTag = -1;
+        int checkPosition = start + 1;
+        boolean processing = true;
+        while (processing)
+        {
+            processing = false;
+            if (checkPosition < foundTags.size() && foundTags.getStartPosition(checkPosition) < curEndPosition)
+            {
+                if (processingTag < 0)
+                {
+                    int startText = builder.length();
+                    parser.appendTextBetween(markdownText, foundTags, start, checkPosition, MarkdownParser.ExtractBetweenMode.StartToNext, builder);
+                    processingTag = addConvertedTag(convertedTags, foundTags, start, startText, builder.length());
+                }
+                else
+                {
+                    parser.appendTextBetween(markdownText, foundTags, intermediateTag, checkPosition, MarkdownParser.ExtractBetweenMode.IntermediateToNext, builder);
+                    convertedTags.setEndText(processingTag, builder.length());
+                }
+                int prevConvertedTagSize = convertedTags.size();
+                appendSpannableBuilder(parser, convertedTags, builder, markdownText, foundTags, checkPosition);
+                intermediateTag = checkPosition;
+                checkPosition += convertedTags.size() - prevConvertedTagSize;
+                processing = true;
+            }
+            else
+            {
+                if (processingTag < 0)
+                {
+                    int startText = builder.length();
+                    parser.appendText(markdownText, foundTags, start, builder);
+                    addConvertedTag(convertedTags, foundTags, start, startText, builder.length());
+                }
+                else
+                {
+                    parser.appendTextBetween(markdownText, foundTags, intermediateTag, start, MarkdownParser.ExtractBetweenMode.IntermediateToEnd, builder);
+                    convertedTags.setEndText(processingTag, builder.length());
+                }
+            }
+        }
+    }
+
+    private static int addConvertedTag(MarkdownTagBuffer convertedTags, MarkdownTagBuffer foundTags, int index, int startText, int endText)
+    {
+        return convertedTags.add(foundTags.getType(index), MarkdownTag.FLAG_NONE, foundTags.getWeight(index), -1, -1, startText, endText, foundTags.getStartExtra(index), foundTags.getEndExtra(index));
+    }
+
+    /**
+     * Block-level conversion, parse the document once and render its blocks separately (like the visible items of a list view)
+     * A block continues the list numbering of the blocks before it, together the blocks give the same result as toSpannable
+     * (apart from the line break between blocks which aren't separated by an empty line)
+     */
+    public MarkdownDocument parseDocument(String markdownText)
+    {
+        return parseDocument(markdownText, null);
+    }
+
+    public MarkdownDocument parseDocument(String markdownText, MarkdownCancellationSignal signal)
+    {
+        MarkdownTraceListener listener = traceListener;
+        MarkdownTrace trace = listener != null ? new MarkdownTrace(listener, "parseDocument", null, markdownText.length()) : null;
+        ConversionContext context = acquireContext();
+        try
+        {
+            MarkdownBaseParser parser = obtainParser(context, markdownText, trace, signal);
+            MarkdownTagBuffer foundTags = findTagBuffer(parser, markdownText, trace, false);
+            MarkdownDocument document = createDocument(markdownText, foundTags, context.listMarkers);
+            if (trace != null)
+            {
+                trace.finish(foundTags.size());
+            }
+            return document;
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+    }
+
+    /**
+     * Outline of the headers and their sections without converting the document (also available from a parsed document)
+     */
+    public MarkdownOutline parseOutline(String markdownText)
+    {
+        return parseOutline(markdownText, null);
+    }
+
+    public MarkdownOutline parseOutline(String markdownText, MarkdownCancellationSignal signal)
+    {
+        MarkdownTraceListener listener = traceListener;
+        MarkdownTrace trace = listener != null ? new MarkdownTrace(listener, "parseOutline", null, markdownText.length()) : null;
+        ConversionContext context = acquireContext();
+        try
+        {
+            MarkdownBaseParser parser = obtainParser(context, markdownText, trace, signal);
+            MarkdownTagBuffer foundTags = findTagBuffer(parser, markdownText, trace, true);
+            MarkdownOutline outline = new MarkdownOutline(markdownText, foundTags);
+            if (trace != null)
+            {
+                trace.finish(foundTags.size());
+            }
+            return outline;
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+    }
+
+    public Spanned renderBlock(MarkdownDocument document, int index)
+    {
+        return renderBlockBulk(document, index, spanGenerator);
+    }
+
+    public Spanned renderBlock(MarkdownDocument document, int index, MarkdownSpanGenerator spanGenerator)
+    {
+        return renderBlockBulk(document, index, adaptSpanGenerator(spanGenerator));
+    }
+
+    public Spanned renderBlockBulk(MarkdownDocument document, int index, MarkdownBulkSpanGenerator spanGenerator)
+    {
+        if (spanGenerator == null)
+        {
+            return new SpannableString("#Error");
+        }
+        String markdownText = document.getMarkdownText();
+        MarkdownTagBuffer foundTags = document.getFoundTags();
+        MarkdownTraceListener listener = traceListener;
+        MarkdownTrace trace = listener != null ? new MarkdownTrace(listener, "renderBlock", null, document.getBlockEndPosition(index) - document.getBlockStartPosition(index)) : null;
+        long renderStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.RenderSpannable) : 0;
+        Spanned result;
+        ConversionContext context = acquireContext();
+        try
+        {
+            context.listMarkers.setAll(document.getBlockListMarkers(index));
+            appendSpannableSections(context.javaParser, context, markdownText, foundTags, document.getBlockStartTag(index), document.getBlockEndTag(index), spanGenerator, null, trace);
+            result = createSpanned(context, spanGenerator, foundTags.isTruncated() && index == document.getBlockCount() - 1, trace);
+        }
+        finally
+        {
+            releaseContext(context);
+        }
+        if (trace != null)
+        {
+            trace.endPhase(MarkdownTrace.Phase.RenderSpannable, renderStartTime);
+            trace.finish(document.getBlockEndTag(index) - document.getBlockStartTag(index));
+        }
+        return result;
+    }
+
+    private static MarkdownDocument createDocument(String markdownText, MarkdownTagBuffer foundTags, MarkerList listCount)
+    {
+        //Find the first section tag of each block, a block ends at an empty line or when the kind of section changes
+        MarkerList blockStarts = new MarkerList();
+        MarkdownDocument.BlockType currentType = null;
+        boolean afterParagraph = false;
+        for (int i = 0; i < foundTags.size(); i++)
+        {
+            MarkdownTag.Type type = foundTags.getType(i);
+            MarkdownDocument.BlockType blockType = getBlockType(type);
+            if (type == MarkdownTag.Type.Paragraph)
+            {
+                afterParagraph = true;
+            }
+            else if (blockType != null)
+            {
+                if (currentType == null || afterParagraph || blockType != currentType || blockType == MarkdownDocument.BlockType.Header)
+                {
+                    blockStarts.add(i);
+                }
+                currentType = blockType;
+                afterParagraph = false;
+            }
+        }
+
+        //Collect the block ranges, ids and the list numbering at the start of each block
+        int blockCount = blockStarts.size();
+        MarkdownDocument.BlockType[] blockTypes = new MarkdownDocument.BlockType[blockCount];
+        int[] blockStartTags = new int[blockCount];
+        int[] blockEndTags = new int[blockCount];
+        int[] blockStartPositions = new int[blockCount];
+        int[] blockEndPositions = new int[blockCount];
+        long[] blockIds = new long[blockCount];
+        int[][] blockListMarkers = new int[blockCount][];
+        Map<Long, Integer> occurrences = new HashMap<>();
+        listCount.clear();
+        for (int block = 0; block < blockCount; block++)
+        {
+            int startTag = blockStarts.get(block);
+            int endTag = block + 1 < blockCount ? blockStarts.get(block + 1) : foundTags.size();
+            int endPosition = foundTags.getEndPosition(startTag);
+            blockListMarkers[block] = listCount.toArray();
+            for (int i = startTag; i < endTag; i++)
+            {
+                MarkdownTag.Type type = foundTags.getType(i);
+                if (type == MarkdownTag.Type.Paragraph)
+                {
+                    listCount.clear();
+                }
+                else if (getBlockType(type) != null)
+                {
+                    updateListMarkers(listCount, type, foundTags.getWeight(i));
+                    endPosition = Math.max(endPosition, foundTags.getEndPosition(i));
+                }
+            }
+            while (endPosition > foundTags.getStartPosition(startTag) && (markdownText.charAt(endPosition - 1) == '\n' || markdownText.charAt(endPosition - 1) == '\r'))
+            {
+                endPosition--;
+            }
+            long hash = hashText(markdownText, foundTags.getStartPosition(startTag), endPosition);
+            Integer occurrence = occurrences.get(hash);
+            int occurrenceIndex = occurrence != null ? occurrence + 1 : 0;
+            occurrences.put(hash, occurrenceIndex);
+            blockTypes[block] = getBlockType(foundTags.getType(startTag));
+            blockStartTags[block] = startTag;
+            blockEndTags[block] = endTag;
+            blockStartPositions[block] = foundTags.getStartPosition(startTag);
+            blockEndPositions[block] = endPosition;
+            blockIds[block] = (hash ^ occurrenceIndex) * FNV_PRIME;
+        }
+        listCount.clear();
+        return new MarkdownDocument(markdownText, foundTags, blockTypes, blockStartTags, blockEndTags, blockStartPositions, blockEndPositions, blockIds, blockListMarkers, new MarkdownOutline(markdownText, foundTags));
+    }
+
+    private static MarkdownDocument.BlockType getBlockType(MarkdownTag.Type type)
+    {
+        switch (type)
+        {
+            case Header:
+                return MarkdownDocument.BlockType.Header;
+            case OrderedList:
+            case UnorderedList:
+                return MarkdownDocument.BlockType.List;
+            case Normal:
+                return MarkdownDocument.BlockType.Paragraph;
+        }
+        return null;
+    }
+
+    private static long hashText(String text, int start, int end)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = start; i < end; i++)
+        {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Asynchronous conversion, the conversion runs on the given executor and the result is delivered to the callback on the result executor
+     * Cancel the returned task to stop the conversion, it's checked between lines and sections and the callback isn't called afterwards
+     */
+    public MarkdownConversionTask<String> toHtmlStringAsync(final String markdownText, Executor executor, Executor resultExecutor, MarkdownConversionCallback<String> callback)
+    {
+        final MarkdownCancellationSignal signal = new MarkdownCancellationSignal();
+        MarkdownConversionTask<String> task = new MarkdownConversionTask<String>(new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return toHtmlString(markdownText, signal);
+            }
+        }, signal, resultExecutor, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    public MarkdownConversionTask<Spanned> toSpannableAsync(String markdownText, Executor executor, Executor resultExecutor, MarkdownConversionCallback<Spanned> callback)
+    {
+        return toSpannableAsyncBulk(markdownText, spanGenerator, executor, resultExecutor, callback);
+    }
+
+    public MarkdownConversionTask<Spanned> toSpannableAsync(String markdownText, MarkdownSpanGenerator spanGenerator, Executor executor, Executor resultExecutor, MarkdownConversionCallback<Spanned> callback)
+    {
+        return toSpannableAsyncBulk(markdownText, adaptSpanGenerator(spanGenerator), executor, resultExecutor, callback);
+    }
+
+    public MarkdownConversionTask<Spanned> toSpannableAsyncBulk(final String markdownText, final MarkdownBulkSpanGenerator spanGenerator, Executor executor, Executor resultExecutor, MarkdownConversionCallback<Spanned> callback)
+    {
+        final MarkdownCancellationSignal signal = new MarkdownCancellationSignal();
+        MarkdownConversionTask<Spanned> task = new MarkdownConversionTask<Spanned>(new Callable<Spanned>()
+        {
+            @Override
+            public Spanned call() throws Exception
+            {
+                return toSpannableBulk(markdownText, spanGenerator, signal);
+            }
+        }, signal, resultExecutor, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Batch conversion, the documents are divided between workers on the executor and the calling thread (which waits for the result)
+     * Each thread reuses its own parsers and buffers, a failed document gets an error in the result without stopping the other documents
+     */
+    public MarkdownBatchResult<String> toHtmlStrings(Collection<String> markdownTexts, Executor executor)
+    {
+        return toHtmlStrings(markdownTexts, executor, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    public MarkdownBatchResult<String> toHtmlStrings(Collection<String> markdownTexts, Executor executor, int parallelism, MarkdownCancellationSignal signal)
+    {
+        return convertBatch(markdownTexts, executor, parallelism, signal, new BatchConversion<String>()
+        {
+            @Override
+            public String convert(String markdownText, MarkdownCancellationSignal signal)
+            {
+                return toHtmlString(markdownText, signal);
+            }
+        });
+    }
+
+    public MarkdownBatchResult<Spanned> toSpannables(Collection<String> markdownTexts, Executor executor)
+    {
+        return toSpannablesBulk(markdownTexts, spanGenerator, executor, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    public MarkdownBatchResult<Spanned> toSpannables(Collection<String> markdownTexts, MarkdownSpanGenerator spanGenerator, Executor executor)
+    {
+        return toSpannablesBulk(markdownTexts, adaptSpanGenerator(spanGenerator), executor, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    public MarkdownBatchResult<Spanned> toSpannables(Collection<String> markdownTexts, MarkdownSpanGenerator spanGenerator, Executor executor, int parallelism, MarkdownCancellationSignal signal)
+    {
+        return toSpannablesBulk(markdownTexts, adaptSpanGenerator(spanGenerator), executor, parallelism, signal);
+    }
+
+    public MarkdownBatchResult<Spanned> toSpannablesBulk(Collection<String> markdownTexts, final MarkdownBulkSpanGenerator spanGenerator, Executor executor, int parallelism, MarkdownCancellationSignal signal)
+    {
+        return convertBatch(markdownTexts, executor, parallelism, signal, new BatchConversion<Spanned>()
+        {
+            @Override
+            public Spanned convert(String markdownText, MarkdownCancellationSignal signal)
+            {
+                return toSpannableBulk(markdownText, spanGenerator, signal);
+            }
+        });
+    }
+
+    private <T> MarkdownBatchResult<T> convertBatch(Collection<String> markdownTexts, Executor executor, int parallelism, final MarkdownCancellationSignal signal, final BatchConversion<T> conversion)
+    {
+        //Workers take the next document until all are claimed, this balances documents of different sizes
+        final String[] texts = markdownTexts.toArray(new String[markdownTexts.size()]);
+        final MarkdownBatchResult<T> result = new MarkdownBatchResult<T>(texts.length);
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final CountDownLatch convertedDocuments = new CountDownLatch(texts.length);
+        Runnable worker = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int index;
+                while ((index = nextIndex.getAndIncrement()) < texts.length)
+                {
+                    try
+                    {
+                        if (signal != null)
+                        {
+                            signal.throwIfCancelled();
+                        }
+                        result.setResult(index, conversion.convert(texts[index], signal));
+                    }
+                    catch (Throwable throwable)
+                    {
+                        //A hostile document can cause errors as well (like a stack overflow), the worker continues with the next document
+                        result.setError(index, throwable);
+                    }
+                    finally
+                    {
+                        convertedDocuments.countDown();
+                    }
+                }
+            }
+        };
+
+        //Start the other workers, the calling thread converts as well and finishes the batch when the executor is busy or rejects a worker
+        int workerCount = Math.min(Math.max(1, parallelism), texts.length);
+        try
+        {
+            for (int i = 1; i < workerCount; i++)
+            {
+                executor.execute(worker);
+            }
+        }
+        catch (RejectedExecutionException ignored)
+        {
+        }
+        worker.run();
+        awaitUninterruptibly(convertedDocuments);
+        return result;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException ignored)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Find tags, using the parse cache when enabled, the parse duration is reported to the parser policy
+     * Only complete results are cached, a cached result is skipped when it exceeds the input length or tag count limit
+     * Conversions which are done with the tags before the parser is used again read the tags of the native parser in place
+     */
+    private MarkdownTagBuffer findTagBuffer(MarkdownBaseParser parser, String markdownText, MarkdownTrace trace, boolean inPlace)
+    {
+        long traceStartTime = trace != null ? trace.beginPhase(MarkdownTrace.Phase.Parse) : 0;
+        MarkdownParseCache cache = parseCache;
+        MarkdownTagBuffer foundTags = cache != null ? cache.get(markdownText) : null;
+        if (foundTags != null && !fitsParseLimits(markdownText, foundTags.size()))
+        {
+            foundTags = null;
+        }
+        if (foundTags == null)
+        {
+            long startTime = System.nanoTime();
+            foundTags = inPlace && parser instanceof MarkdownNativeParser ? ((MarkdownNativeParser)parser).findTagBufferInPlace(markdownText) : parser.findTagBuffer(markdownText);
+            parserPolicy.onParsed(markdownText, parser instanceof MarkdownNativeParser, System.nanoTime() - startTime);
+            if (cache != null && !foundTags.isTruncated())
+            {
+                cache.put(markdownText, foundTags);
+            }
+        }
+        else if (trace != null)
+        {
+            trace.setCacheHit(true);
+        }
+        if (trace != null)
+        {
+            trace.setTruncated(foundTags.isTruncated());
+            trace.endPhase(MarkdownTrace.Phase.Parse, traceStartTime);
+        }
+        return foundTags;
+    }
+
+    private boolean fitsParseLimits(String markdownText, int tagCount)
+    {
+        MarkdownParseLimits limits = parseLimits;
+        if (limits == null)
+        {
+            return true;
+        }
+        boolean fitsLength = limits.getMaxInputLength() == MarkdownParseLimits.UNLIMITED || markdownText.length() <= limits.getMaxInputLength();
+        boolean fitsTagCount = limits.getMaxTagCount() == MarkdownParseLimits.UNLIMITED || (tagCount >= 0 && tagCount <= limits.getMaxTagCount());
+        return fitsLength && fitsTagCount;
+    }
+
+    /**
+     * Obtain the parser of the thread based on the parser policy and availability of the native library
+     */
+    private MarkdownBaseParser obtainParser(ConversionContext context, String text, MarkdownTrace trace, MarkdownCancellationSignal signal)
+    {
+        MarkdownBaseParser parser = context.javaParser;
+        if (parserPolicy.useNativeParser(text) && NativeLibrary.LOADED)
+        {
+            if (context.nativeParser == null)
+            {
+                context.nativeParser = new MarkdownNativeParser();
+            }
+            parser = context.nativeParser;
+        }
+        parser.setTraceListener(traceListener);
+        parser.setParseLimits(parseLimits);
+        parser.setCancellationSignal(signal);
+        if (trace != null)
+        {
+            trace.setParserName(parser == context.javaParser ? "java" : "native");
+        }
+        return parser;
+    }
+
+    /**
+     * Thread context handling, a new context is used when converting again during a conversion (like from a span generator)
+     * The parsers keep their buffers between conversions, they are released by trimMemory
+     */
+    private ConversionContext acquireContext()
+    {
+        ConversionContext context = threadContext.get();
+        synchronized (context)
+        {
+            if (context.inUse)
+            {
+                return new ConversionContext();
+            }
+            context.inUse = true;
+        }
+        return context;
+    }
+
+    private void releaseContext(ConversionContext context)
+    {
+        context.htmlBuilder.setLength(0);
+        if (context.htmlBuilder.capacity() > MAX_RETAINED_BUILDER_CAPACITY)
+        {
+            context.htmlBuilder.trimToSize();
+        }
+        context.spannableText.setLength(0);
+        if (context.spannableText.capacity() > MAX_RETAINED_BUILDER_CAPACITY)
+        {
+            context.spannableText.trimToSize();
+        }
+        context.spanRanges.clear();
+        context.convertedTags.clear();
+        context.listMarkers.clear();
+        synchronized (context)
+        {
+            if (context.trimRequested >= 0)
+            {
+                trimParsers(context, context.trimRequested);
+                context.trimRequested = -1;
+            }
+            context.inUse = false;
+        }
+    }
+
+    private static void trimParsers(ConversionContext context, int maxRetainedBytes)
+    {
+        context.javaParser.trimMemory(maxRetainedBytes);
+        if (context.nativeParser != null)
+        {
+            context.nativeParser.trimMemory(maxRetainedBytes);
+        }
+    }
+
+    /**
+     * Parsers and buffers reused by conversions on the same thread
+     */
+    private static class ConversionContext
+    {
+        private final MarkdownJavaParser javaParser = new MarkdownJavaParser();
+        private final MarkerList listMarkers = new MarkerList();
+        private final MarkdownTagBuffer convertedTags = new MarkdownTagBuffer();
+        private final StringBuilder htmlBuilder = new StringBuilder();
+        private final StringBuilder spannableText = new StringBuilder();
+        private final MarkdownSpanRanges spanRanges = new MarkdownSpanRanges();
+        private MarkdownNativeParser nativeParser = null;
+        private int renderedTagCount = 0;
+        private int trimRequested = -1;
+        private boolean inUse = false;
+    }
+
+    /**
+     * A conversion of a single document within a batch
+     */
+    private interface BatchConversion<T>
+    {
+        T convert(String markdownText, MarkdownCancellationSignal signal);
+    }
+
+    /**
+     * Passes the text of a plain text conversion to the output while counting it
+     */
+    private static class CountingAppendable implements Appendable
+    {
+        private final Appendable output;
+        private final MarkdownTextCounts counts;
+
+        private CountingAppendable(Appendable output, MarkdownTextCounts counts)
+        {
+            this.output = output;
+            this.counts = counts;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException
+        {
+            counts.add(csq, 0, csq.length());
+            output.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException
+        {
+            counts.add(csq, start, end);
+            output.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException
+        {
+            counts.add(c);
+            output.append(c);
+            return this;
+        }
+    }
+
+    /**
+     * A list of integers to keep track of nested lists, without boxing
+     */
+    private static class MarkerList
+    {
+        private int[] values = new int[8];
+        private int count = 0;
+
+        public int size()
+        {
+            return count;
+        }
+
+        public int get(int index)
+        {
+            return values[index];
+        }
+
+        public void set(int index, int value)
+        {
+            values[index] = value;
+        }
+
+        public void add(int value)
+        {
+            if (count == values.length)
+            {
+                int[] newValues = new int[values.length * 2];
+                System.arraycopy(values, 0, newValues, 0, count);
+                values = newValues;
+            }
+            values[count++] = value;
+        }
+
+        public void remove(int index)
+        {
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            count--;
+        }
+
+        public void clear()
+        {
+            count = 0;
+        }
+
+        public void setAll(int[] newValues)
+        {
+            clear();
+            for (int value : newValues)
+            {
+                add(value);
+            }
+        }
+
+        public int[] toArray()
+        {
+            int[] result = new int[count];
+            System.arraycopy(values, 0, result, 0, count);
+            return result;
+        }
+    }
+
+    /**
+     * The native library is loaded once when a native parser is needed for the first time (class initialization is thread-safe)
+     */
+    private static class NativeLibrary
+    {
+        private static final boolean LOADED = load();
+
+        private static boolean load()
+        {
+            try
+            {
+                System.loadLibrary("markdownparser_native");
+                return true;
+            }
+            catch (Throwable t)
+            {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.crescentflare.markdownparser;
+
+import com.crescentflare.markdownparsercore.MarkdownOutline;
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+
+/**
+ * Markdown library: parsed document
+ * A parsed markdown text split into top-level blocks (a header, a run of list items or a run of text lines)
+ * Blocks can be rendered separately with the converter engine, for example to show only the visible blocks in a list view
+ */
+public class MarkdownDocument
+{
+    /**
+     * Enum for the block type
+     */
+    public enum BlockType
+    {
+        Header,
+        List,
+        Paragraph
+    }
+
+    /**
+     * Members
+     */
+    private final String markdownText;
+    private final MarkdownTagBuffer foundTags;
+    private final BlockType[] blockTypes;
+    private final int[] blockStartTags;
+    private final int[] blockEndTags;
+    private final int[] blockStartPositions;
+    private final int[] blockEndPositions;
+    private final long[] blockIds;
+    private final int[][] blockListMarkers;
+    private final MarkdownOutline outline;
+
+    /**
+     * Initialization, created by the converter engine
+     */
+    MarkdownDocument(String markdownText, MarkdownTagBuffer foundTags, BlockType[] blockTypes, int[] blockStartTags, int[] blockEndTags, int[] blockStartPositions, int[] blockEndPositions, long[] blockIds, int[][] blockListMarkers, MarkdownOutline outline)
+    {
+        this.markdownText = markdownText;
+        this.foundTags = foundTags;
+        this.blockTypes = blockTypes;
+        this.blockStartTags = blockStartTags;
+        this.blockEndTags = blockEndTags;
+        this.blockStartPositions = blockStartPositions;
+        this.blockEndPositions = blockEndPositions;
+        this.blockIds = blockIds;
+        this.blockListMarkers = blockListMarkers;
+        this.outline = outline;
+    }
+
+    /**
+     * Document access
+     */
+    public String getMarkdownText()
+    {
+        return markdownText;
+    }
+
+    public boolean isTruncated()
+    {
+        return foundTags.isTruncated();
+    }
+
+    public int getBlockCount()
+    {
+        return blockTypes.length;
+    }
+
+    public MarkdownOutline getOutline()
+    {
+        return outline;
+    }
+
+    /**
+     * Block access, the id is based on the markdown of the block and stays the same when other blocks are edited
+     * Blocks with the same markdown are told apart by their occurrence in the document
+     */
+    public BlockType getBlockType(int index)
+    {
+        return blockTypes[index];
+    }
+
+    public long getBlockId(int index)
+    {
+        return blockIds[index];
+    }
+
+    public int getBlockStartPosition(int index)
+    {
+        return blockStartPositions[index];
+    }
+
+    public int getBlockEndPosition(int index)
+    {
+        return blockEndPositions[index];
+    }
+
+    public int findBlockIndex(long id)
+    {
+        for (int i = 0; i < blockIds.length; i++)
+        {
+            if (blockIds[i] == id)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helpers for rendering, the tag range of a block includes the paragraph tags after it
+     */
+    MarkdownTagBuffer getFoundTags()
+    {
+        return foundTags;
+    }
+
+    int getBlockStartTag(int index)
+    {
+        return blockStartTags[index];
+    }
+
+    int getBlockEndTag(int index)
+    {
+        return blockEndTags[index];
+    }
+
+    int[] getBlockListMarkers(int index)
+    {
+        return blockListMarkers[index];
+    }
+}
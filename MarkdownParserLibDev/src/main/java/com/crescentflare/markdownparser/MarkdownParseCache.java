@@ -0,0 +1,151 @@
+package com.crescentflare.markdownparser;
+
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Markdown library: parse cache
+ * Keeps the parsed tags of recently converted markdown texts, the least recently used entries are removed first
+ * The cache is bounded by the amount of entries and the estimated memory size of the texts and tags
+ * Tag buffers are copied when they're added and returned, changing them (like with incremental parsing) doesn't affect the cache
+ */
+public class MarkdownParseCache
+{
+    /**
+     * Constants
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final int TAG_BYTES = 9 * 4;
+
+    /**
+     * Members
+     */
+    private final LinkedHashMap<String, MarkdownTagBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxBytes;
+    private long currentBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Initialization
+     */
+    public MarkdownParseCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public MarkdownParseCache(int maxEntries, long maxBytes)
+    {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    /**
+     * Cache access, the markdown text is the key (using its hash code and an equality check)
+     */
+    public synchronized MarkdownTagBuffer get(String markdownText)
+    {
+        MarkdownTagBuffer tags = entries.get(markdownText);
+        if (tags != null)
+        {
+            hitCount++;
+            return copyTags(tags);
+        }
+        missCount++;
+        return null;
+    }
+
+    public synchronized void put(String markdownText, MarkdownTagBuffer tags)
+    {
+        long entryBytes = estimateBytes(markdownText, tags);
+        if (entryBytes > maxBytes)
+        {
+            return;
+        }
+        MarkdownTagBuffer previousTags = entries.put(markdownText, copyTags(tags));
+        if (previousTags != null)
+        {
+            currentBytes -= estimateBytes(markdownText, previousTags);
+        }
+        currentBytes += entryBytes;
+        trimToSize(maxEntries, maxBytes);
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    /**
+     * Statistics
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes()
+    {
+        return currentBytes;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Helpers
+     */
+    private void trimToSize(int entryLimit, long byteLimit)
+    {
+        Iterator<Map.Entry<String, MarkdownTagBuffer>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > entryLimit || currentBytes > byteLimit))
+        {
+            Map.Entry<String, MarkdownTagBuffer> entry = iterator.next();
+            currentBytes -= estimateBytes(entry.getKey(), entry.getValue());
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static MarkdownTagBuffer copyTags(MarkdownTagBuffer tags)
+    {
+        MarkdownTagBuffer copiedTags = new MarkdownTagBuffer(tags.size());
+        copiedTags.addAll(tags);
+        return copiedTags;
+    }
+
+    private static long estimateBytes(String markdownText, MarkdownTagBuffer tags)
+    {
+        return ENTRY_OVERHEAD_BYTES + (long)markdownText.length() * 2 + (long)tags.size() * TAG_BYTES;
+    }
+}
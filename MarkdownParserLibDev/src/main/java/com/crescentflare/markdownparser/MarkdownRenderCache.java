@@ -0,0 +1,267 @@
+package com.crescentflare.markdownparser;
+
+import android.content.ComponentCallbacks2;
+import android.text.Spanned;
+
+import com.crescentflare.markdownparser.helper.MarkdownBulkSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownSpanGeneratorAdapter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Markdown library: render cache
+ * Keeps immutable spannable conversion results, keyed by the markdown text and the span generator instance
+ * The least recently used entries are removed first, the cache is bounded by the amount of entries and characters
+ * When a span generator changes its styling, invalidate it (or use a new generator instance)
+ * Results of a span generator used through an adapter are keyed by the span generator itself, use the bulk variants for bulk span generators
+ */
+public class MarkdownRenderCache
+{
+    /**
+     * Constants
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final int DEFAULT_MAX_CHARACTERS = 256 * 1024;
+
+    /**
+     * Members
+     */
+    private final LinkedHashMap<RenderKey, RenderEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final int maxCharacters;
+    private int currentCharacters = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Initialization
+     */
+    public MarkdownRenderCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARACTERS);
+    }
+
+    public MarkdownRenderCache(int maxEntries, int maxCharacters)
+    {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxCharacters = Math.max(1, maxCharacters);
+    }
+
+    /**
+     * Cache access
+     */
+    public Spanned get(String markdownText, MarkdownSpanGenerator spanGenerator)
+    {
+        RenderEntry entry = getEntry(markdownText, spanGenerator);
+        return entry != null ? entry.result : null;
+    }
+
+    public void put(String markdownText, MarkdownSpanGenerator spanGenerator, Spanned result)
+    {
+        putEntry(markdownText, spanGenerator, new RenderEntry(result, -1));
+    }
+
+    public void invalidate(MarkdownSpanGenerator spanGenerator)
+    {
+        invalidateGenerator(spanGenerator);
+    }
+
+    public Spanned getBulk(String markdownText, MarkdownBulkSpanGenerator spanGenerator)
+    {
+        RenderEntry entry = getEntry(markdownText, generatorKey(spanGenerator));
+        return entry != null ? entry.result : null;
+    }
+
+    public void putBulk(String markdownText, MarkdownBulkSpanGenerator spanGenerator, Spanned result)
+    {
+        putEntry(markdownText, generatorKey(spanGenerator), new RenderEntry(result, -1));
+    }
+
+    public void invalidateBulk(MarkdownBulkSpanGenerator spanGenerator)
+    {
+        invalidateGenerator(generatorKey(spanGenerator));
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        currentCharacters = 0;
+    }
+
+    /**
+     * Access for the converter engine, which stores the amount of tags of a result to check it against the parse limits
+     */
+    RenderEntry getBulkEntry(String markdownText, MarkdownBulkSpanGenerator spanGenerator)
+    {
+        return getEntry(markdownText, generatorKey(spanGenerator));
+    }
+
+    void putBulk(String markdownText, MarkdownBulkSpanGenerator spanGenerator, Spanned result, int tagCount)
+    {
+        putEntry(markdownText, generatorKey(spanGenerator), new RenderEntry(result, tagCount));
+    }
+
+    private synchronized RenderEntry getEntry(String markdownText, Object spanGenerator)
+    {
+        RenderEntry result = entries.get(new RenderKey(markdownText, spanGenerator));
+        if (result != null)
+        {
+            hitCount++;
+        }
+        else
+        {
+            missCount++;
+        }
+        return result;
+    }
+
+    private synchronized void putEntry(String markdownText, Object spanGenerator, RenderEntry entry)
+    {
+        int entryCharacters = markdownText.length() + entry.result.length();
+        if (entryCharacters > maxCharacters)
+        {
+            return;
+        }
+        RenderKey key = new RenderKey(markdownText, spanGenerator);
+        RenderEntry previousEntry = entries.put(key, entry);
+        if (previousEntry != null)
+        {
+            currentCharacters -= markdownText.length() + previousEntry.result.length();
+        }
+        currentCharacters += entryCharacters;
+        trimToSize(maxEntries, maxCharacters);
+    }
+
+    private synchronized void invalidateGenerator(Object spanGenerator)
+    {
+        Iterator<Map.Entry<RenderKey, RenderEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<RenderKey, RenderEntry> entry = iterator.next();
+            if (entry.getKey().spanGenerator == spanGenerator)
+            {
+                currentCharacters -= entry.getKey().markdownText.length() + entry.getValue().result.length();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Object generatorKey(MarkdownBulkSpanGenerator spanGenerator)
+    {
+        return spanGenerator instanceof MarkdownSpanGeneratorAdapter ? ((MarkdownSpanGeneratorAdapter)spanGenerator).getSpanGenerator() : spanGenerator;
+    }
+
+    /**
+     * Memory handling, call this from onTrimMemory of the application or activity
+     * Clears the cache when the app is in the background and memory is needed, otherwise it shrinks
+     */
+    public synchronized void trimMemory(int level)
+    {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+        {
+            clear();
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+        {
+            trimToSize(entries.size() / 4, currentCharacters / 4);
+        }
+        else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+        {
+            trimToSize(entries.size() / 2, currentCharacters / 2);
+        }
+    }
+
+    /**
+     * Statistics
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized int getCharacterCount()
+    {
+        return currentCharacters;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * Helpers
+     */
+    private void trimToSize(int entryLimit, int characterLimit)
+    {
+        Iterator<Map.Entry<RenderKey, RenderEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > entryLimit || currentCharacters > characterLimit))
+        {
+            Map.Entry<RenderKey, RenderEntry> entry = iterator.next();
+            currentCharacters -= entry.getKey().markdownText.length() + entry.getValue().result.length();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Cache entry, the tag count is -1 when it's unknown (for results put in the cache from outside the engine)
+     */
+    static class RenderEntry
+    {
+        final Spanned result;
+        final int tagCount;
+
+        private RenderEntry(Spanned result, int tagCount)
+        {
+            this.result = result;
+            this.tagCount = tagCount;
+        }
+    }
+
+    /**
+     * Cache key, the text is compared by content and the span generator by identity
+     */
+    private static class RenderKey
+    {
+        private final String markdownText;
+        private final Object spanGenerator;
+
+        private RenderKey(String markdownText, Object spanGenerator)
+        {
+            this.markdownText = markdownText;
+            this.spanGenerator = spanGenerator;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof RenderKey))
+            {
+                return false;
+            }
+            RenderKey other = (RenderKey)object;
+            return spanGenerator == other.spanGenerator && markdownText.equals(other.markdownText);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return markdownText.hashCode() * 31 + System.identityHashCode(spanGenerator);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.crescentflare.markdownparser;
+
+/**
+ * Markdown library: text counts
+ * The word and character counts of a plain text conversion, the list tokens and line breaks added by the conversion aren't counted
+ * Characters are counted as code points and words are separated by whitespace, the counts are reset when a conversion starts
+ */
+public class MarkdownTextCounts
+{
+    /**
+     * Members
+     */
+    private int characterCount = 0;
+    private int wordCount = 0;
+    private boolean inWord = false;
+
+    /**
+     * Count access
+     */
+    public int getCharacterCount()
+    {
+        return characterCount;
+    }
+
+    public int getWordCount()
+    {
+        return wordCount;
+    }
+
+    public void clear()
+    {
+        characterCount = 0;
+        wordCount = 0;
+        inWord = false;
+    }
+
+    /**
+     * Counting, used by the converter engine
+     */
+    void add(CharSequence text, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            add(text.charAt(i));
+        }
+    }
+
+    void add(char chr)
+    {
+        if (!Character.isLowSurrogate(chr))
+        {
+            characterCount++;
+        }
+        if (Character.isWhitespace(chr))
+        {
+            inWord = false;
+        }
+        else if (!inWord)
+        {
+            wordCount++;
+            inWord = true;
+        }
+    }
+
+    void endWord()
+    {
+        inWord = false;
+    }
+}
@@ -0,0 +1,205 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.content.SharedPreferences;
+
+/**
+ * Markdown library: helper class
+ * Parser policy which calibrates the choice between the java and native parser at runtime
+ * Texts are grouped by length (in powers of two), both parsers are sampled for each group until the faster one is known
+ * The first samples of each parser are skipped, they include loading the native library and running java code before it's compiled
+ * After calibrating, the slower parser is sampled now and then, the choice changes when its timing improves (like after a cold start)
+ * The calibration can be stored in shared preferences to keep it after restarting the app, it's updated after sampling the slower parser
+ */
+public class AdaptiveMarkdownParserPolicy implements MarkdownParserPolicy
+{
+    /**
+     * Constants
+     */
+    public static final int CALIBRATION_SAMPLES = 8;
+    public static final int WARMUP_SAMPLES = 2;
+    public static final int RESAMPLE_INTERVAL = 32;
+    private static final String PREFERENCE_KEY = "markdownParserCalibration";
+    private static final int GROUP_COUNT = 32;
+    private static final double AVERAGE_FACTOR = 0.25;
+
+    /**
+     * Members
+     */
+    private final SharedPreferences preferences;
+    private final double[] javaNanosPerChar = new double[GROUP_COUNT];
+    private final double[] nativeNanosPerChar = new double[GROUP_COUNT];
+    private final int[] javaSamples = new int[GROUP_COUNT];
+    private final int[] nativeSamples = new int[GROUP_COUNT];
+    private final int[] javaWarmups = new int[GROUP_COUNT];
+    private final int[] nativeWarmups = new int[GROUP_COUNT];
+    private final int[] parseCounts = new int[GROUP_COUNT];
+
+    /**
+     * Initialization
+     */
+    public AdaptiveMarkdownParserPolicy()
+    {
+        this(null);
+    }
+
+    public AdaptiveMarkdownParserPolicy(SharedPreferences preferences)
+    {
+        this.preferences = preferences;
+        if (preferences != null)
+        {
+            restore(preferences.getString(PREFERENCE_KEY, ""));
+        }
+    }
+
+    /**
+     * Policy implementation
+     */
+    @Override
+    public synchronized boolean useNativeParser(String markdownText)
+    {
+        int group = groupForLength(markdownText.length());
+        if (!isCalibrated(group))
+        {
+            return nativeWarmups[group] + nativeSamples[group] < javaWarmups[group] + javaSamples[group];
+        }
+        //Use the slower parser once for each interval to keep its timing up to date
+        boolean nativeFaster = nativeNanosPerChar[group] < javaNanosPerChar[group];
+        parseCounts[group]++;
+        return parseCounts[group] % RESAMPLE_INTERVAL == 0 ? !nativeFaster : nativeFaster;
+    }
+
+    @Override
+    public synchronized void onParsed(String markdownText, boolean nativeParser, long durationNanos)
+    {
+        int group = groupForLength(markdownText.length());
+        //Skip warm-up samples, then update the average and store the calibration when it's complete or the slower parser was sampled
+        int[] warmups = nativeParser ? nativeWarmups : javaWarmups;
+        if (warmups[group] < WARMUP_SAMPLES)
+        {
+            warmups[group]++;
+            return;
+        }
+        double nanosPerChar = (double)durationNanos / Math.max(1, markdownText.length());
+        boolean wasCalibrated = isCalibrated(group);
+        boolean resampled = wasCalibrated && (nativeParser ? nativeNanosPerChar[group] >= javaNanosPerChar[group] : javaNanosPerChar[group] > nativeNanosPerChar[group]);
+        if (nativeParser)
+        {
+            nativeNanosPerChar[group] = nativeSamples[group] == 0 ? nanosPerChar : nativeNanosPerChar[group] + (nanosPerChar - nativeNanosPerChar[group]) * AVERAGE_FACTOR;
+            nativeSamples[group]++;
+        }
+        else
+        {
+            javaNanosPerChar[group] = javaSamples[group] == 0 ? nanosPerChar : javaNanosPerChar[group] + (nanosPerChar - javaNanosPerChar[group]) * AVERAGE_FACTOR;
+            javaSamples[group]++;
+        }
+        if (preferences != null && ((!wasCalibrated && isCalibrated(group)) || resampled))
+        {
+            preferences.edit().putString(PREFERENCE_KEY, store()).apply();
+        }
+    }
+
+    /**
+     * Calibration result, returns the text length from which the native parser is faster (or -1 if it's not known yet)
+     * Only calibrated length groups are used, the native parser should be faster for all calibrated groups above it
+     */
+    public synchronized int getCrossoverLength()
+    {
+        int crossoverGroup = -1;
+        boolean foundCalibrated = false;
+        for (int group = GROUP_COUNT - 1; group >= 0; group--)
+        {
+            if (isCalibrated(group))
+            {
+                foundCalibrated = true;
+                if (nativeNanosPerChar[group] >= javaNanosPerChar[group])
+                {
+                    break;
+                }
+                crossoverGroup = group;
+            }
+        }
+        if (crossoverGroup >= 0)
+        {
+            return crossoverGroup == 0 ? 0 : 1 << (crossoverGroup - 1);
+        }
+        return foundCalibrated ? Integer.MAX_VALUE : -1;
+    }
+
+    public synchronized void recalibrate()
+    {
+        for (int group = 0; group < GROUP_COUNT; group++)
+        {
+            javaNanosPerChar[group] = 0;
+            nativeNanosPerChar[group] = 0;
+            javaSamples[group] = 0;
+            nativeSamples[group] = 0;
+            javaWarmups[group] = 0;
+            nativeWarmups[group] = 0;
+            parseCounts[group] = 0;
+        }
+        if (preferences != null)
+        {
+            preferences.edit().remove(PREFERENCE_KEY).apply();
+        }
+    }
+
+    /**
+     * Storage, only calibrated groups are stored as a list of group, java and native timings
+     * Restored timings are updated by new samples like a calibration of the running app, its first samples are skipped as well
+     */
+    synchronized String store()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int group = 0; group < GROUP_COUNT; group++)
+        {
+            if (isCalibrated(group))
+            {
+                if (result.length() > 0)
+                {
+                    result.append(';');
+                }
+                result.append(group).append(',').append(javaNanosPerChar[group]).append(',').append(nativeNanosPerChar[group]);
+            }
+        }
+        return result.toString();
+    }
+
+    synchronized void restore(String calibration)
+    {
+        for (String item : calibration.split(";"))
+        {
+            String[] values = item.split(",");
+            if (values.length == 3)
+            {
+                try
+                {
+                    int group = Integer.parseInt(values[0]);
+                    if (group >= 0 && group < GROUP_COUNT)
+                    {
+                        javaNanosPerChar[group] = Double.parseDouble(values[1]);
+                        nativeNanosPerChar[group] = Double.parseDouble(values[2]);
+                        javaSamples[group] = CALIBRATION_SAMPLES;
+                        nativeSamples[group] = CALIBRATION_SAMPLES;
+                    }
+                }
+                catch (NumberFormatException ignored)
+                {
+                    //Skip invalid values, the group will be calibrated again
+                }
+            }
+        }
+    }
+
+    /**
+     * Helpers
+     */
+    private boolean isCalibrated(int group)
+    {
+        return javaSamples[group] >= CALIBRATION_SAMPLES && nativeSamples[group] >= CALIBRATION_SAMPLES;
+    }
+
+    private static int groupForLength(int length)
+    {
+        return Math.min(GROUP_COUNT - 1, 32 - Integer.numberOfLeadingZeros(length));
+    }
+}
@@ -1,7 +1,6 @@
 package com.crescentflare.markdownparser.helper;
 
 import android.graphics.Typeface;
-import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.style.RelativeSizeSpan;
@@ -14,35 +13,88 @@ import com.crescentflare.markdownparsercore.MarkdownTag;
 /**
  * Markdown library: helper class
  * Default implementation of the span generator for markdown conversion
+ * Implements both span generator interfaces, the bulk conversion creates a read-only spanned string from the sorted ranges in one pass
+ * Subclasses which override applySpan get each range applied through it on a spannable string builder instead
  */
-public class DefaultMarkdownSpanGenerator implements MarkdownSpanGenerator
+public class DefaultMarkdownSpanGenerator implements MarkdownSpanGenerator, MarkdownBulkSpanGenerator
 {
+    /**
+     * Members
+     */
+    private final boolean appliesSpansOneByOne = overridesApplySpan(getClass());
+
+    /**
+     * Span generation
+     */
+    @Override
+    public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+    {
+        if (appliesSpansOneByOne)
+        {
+            SpannableStringBuilder builder = new SpannableStringBuilder(text);
+            for (int i = 0; i < ranges.size(); i++)
+            {
+                applySpan(builder, ranges.getType(i), ranges.getWeight(i), ranges.getStart(i), ranges.getEnd(i), ranges.getExtra(i));
+            }
+            return builder;
+        }
+
+        //Headers add two spans, the arrays are sized for that
+        int capacity = ranges.size() * 2;
+        Object[] spans = new Object[capacity];
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        int count = 0;
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            int newCount = addSpans(spans, count, ranges.getType(i), ranges.getWeight(i), ranges.getExtra(i));
+            for (int j = count; j < newCount; j++)
+            {
+                starts[j] = ranges.getStart(i);
+                ends[j] = ranges.getEnd(i);
+            }
+            count = newCount;
+        }
+        return new MarkdownSpannedString(text, spans, starts, ends, count);
+    }
+
     @Override
     public void applySpan(SpannableStringBuilder builder, MarkdownTag.Type type, int weight, int start, int end, String extra)
+    {
+        Object[] spans = new Object[2];
+        int count = addSpans(spans, 0, type, weight, extra);
+        for (int i = 0; i < count; i++)
+        {
+            builder.setSpan(spans[i], start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    private static int addSpans(Object[] spans, int count, MarkdownTag.Type type, int weight, String extra)
     {
         switch (type)
         {
             case Paragraph:
-                builder.setSpan(new RelativeSizeSpan(weight), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                spans[count++] = new RelativeSizeSpan(weight);
                 break;
             case Header:
-                builder.setSpan(new RelativeSizeSpan(sizeForHeader(weight)), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                builder.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                spans[count++] = new RelativeSizeSpan(sizeForHeader(weight));
+                spans[count++] = new StyleSpan(Typeface.BOLD);
                 break;
             case OrderedList:
             case UnorderedList:
-                builder.setSpan(new AlignedListSpan(extra, 30 + (weight - 1) * 15, 5), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                spans[count++] = new AlignedListSpan(extra, 30 + (weight - 1) * 15, 5);
                 break;
             case TextStyle:
-                builder.setSpan(new StyleSpan(textStyleForWeight(weight)), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                spans[count++] = new StyleSpan(textStyleForWeight(weight));
                 break;
             case AlternativeTextStyle:
-                builder.setSpan(new StrikethroughSpan(), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                spans[count++] = new StrikethroughSpan();
                 break;
             case Link:
-                builder.setSpan(new URLSpan(extra), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                spans[count++] = new URLSpan(extra);
                 break;
         }
+        return count;
     }
 
     @Override
@@ -86,4 +138,16 @@ public class DefaultMarkdownSpanGenerator implements MarkdownSpanGenerator
         }
         return "\u2022 ";
     }
+
+    private static boolean overridesApplySpan(Class<?> generatorClass)
+    {
+        try
+        {
+            return generatorClass.getMethod("applySpan", SpannableStringBuilder.class, MarkdownTag.Type.class, int.class, int.class, int.class, String.class).getDeclaringClass() != DefaultMarkdownSpanGenerator.class;
+        }
+        catch (NoSuchMethodException ignored)
+        {
+            return false;
+        }
+    }
 }
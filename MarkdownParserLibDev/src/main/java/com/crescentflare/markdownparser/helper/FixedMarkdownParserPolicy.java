@@ -0,0 +1,54 @@
+package com.crescentflare.markdownparser.helper;
+
+/**
+ * Markdown library: helper class
+ * Parser policy which uses the native parser for texts longer than a fixed amount of characters
+ * Also provides policies to always use the java or native parser
+ */
+public class FixedMarkdownParserPolicy implements MarkdownParserPolicy
+{
+    /**
+     * Constants
+     */
+    public static final int DEFAULT_NATIVE_THRESHOLD = 128;
+    public static final FixedMarkdownParserPolicy ALWAYS_JAVA = new FixedMarkdownParserPolicy(Integer.MAX_VALUE);
+    public static final FixedMarkdownParserPolicy ALWAYS_NATIVE = new FixedMarkdownParserPolicy(-1);
+
+    /**
+     * Members
+     */
+    private final int nativeThreshold;
+
+    /**
+     * Initialization
+     */
+    public FixedMarkdownParserPolicy()
+    {
+        this(DEFAULT_NATIVE_THRESHOLD);
+    }
+
+    public FixedMarkdownParserPolicy(int nativeThreshold)
+    {
+        this.nativeThreshold = nativeThreshold;
+    }
+
+    /**
+     * Policy implementation
+     */
+    @Override
+    public boolean useNativeParser(String markdownText)
+    {
+        return markdownText.length() > nativeThreshold;
+    }
+
+    @Override
+    public void onParsed(String markdownText, boolean nativeParser, long durationNanos)
+    {
+        //No calibration needed
+    }
+
+    public int getNativeThreshold()
+    {
+        return nativeThreshold;
+    }
+}
@@ -0,0 +1,16 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.text.Spanned;
+
+import com.crescentflare.markdownparsercore.MarkdownTag;
+
+/**
+ * Markdown library: helper class
+ * An interface to generate the spans of a conversion at once, it receives the converted text and all styled ranges sorted on their start position
+ * Provide an implementation to customize styling, a span generator which applies spans one by one can be used through the span generator adapter
+ */
+public interface MarkdownBulkSpanGenerator
+{
+    Spanned createSpanned(String text, MarkdownSpanRanges ranges);
+    String getListToken(MarkdownTag.Type type, int weight, int index);
+}
@@ -0,0 +1,11 @@
+package com.crescentflare.markdownparser.helper;
+
+/**
+ * Markdown library: helper class
+ * An interface to receive the result of an asynchronous conversion, called on the result executor of the conversion
+ * It's not called when the conversion was cancelled or failed, use get on the conversion task to find the error of a failed conversion
+ */
+public interface MarkdownConversionCallback<T>
+{
+    void onConverted(T result);
+}
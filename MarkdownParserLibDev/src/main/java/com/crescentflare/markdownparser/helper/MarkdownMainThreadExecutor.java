@@ -0,0 +1,34 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Markdown library: helper class
+ * Executor which runs on the main thread, use it as the result executor to update views with asynchronous conversion results
+ */
+public class MarkdownMainThreadExecutor implements Executor
+{
+    /**
+     * Members
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Executor implementation
+     */
+    @Override
+    public void execute(Runnable command)
+    {
+        if (Looper.myLooper() == Looper.getMainLooper())
+        {
+            command.run();
+        }
+        else
+        {
+            handler.post(command);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.crescentflare.markdownparser.helper;
+
+/**
+ * Markdown library: helper class
+ * An interface to choose between the java and native core parser for conversions
+ * Provide an implementation to customize the selection, the parse duration is reported back after parsing
+ */
+public interface MarkdownParserPolicy
+{
+    boolean useNativeParser(String markdownText);
+    void onParsed(String markdownText, boolean nativeParser, long durationNanos);
+}
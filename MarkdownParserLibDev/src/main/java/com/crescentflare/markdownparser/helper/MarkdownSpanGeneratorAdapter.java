@@ -0,0 +1,52 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import com.crescentflare.markdownparsercore.MarkdownTag;
+
+/**
+ * Markdown library: helper class
+ * Uses a span generator which applies spans one by one as a bulk span generator
+ * The ranges are applied in order on a spannable string builder, like conversions did before bulk span generators
+ */
+public class MarkdownSpanGeneratorAdapter implements MarkdownBulkSpanGenerator
+{
+    /**
+     * Members
+     */
+    private final MarkdownSpanGenerator spanGenerator;
+
+    /**
+     * Initialization
+     */
+    public MarkdownSpanGeneratorAdapter(MarkdownSpanGenerator spanGenerator)
+    {
+        this.spanGenerator = spanGenerator;
+    }
+
+    public MarkdownSpanGenerator getSpanGenerator()
+    {
+        return spanGenerator;
+    }
+
+    /**
+     * Span generation
+     */
+    @Override
+    public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+    {
+        SpannableStringBuilder builder = new SpannableStringBuilder(text);
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            spanGenerator.applySpan(builder, ranges.getType(i), ranges.getWeight(i), ranges.getStart(i), ranges.getEnd(i), ranges.getExtra(i));
+        }
+        return builder;
+    }
+
+    @Override
+    public String getListToken(MarkdownTag.Type type, int weight, int index)
+    {
+        return spanGenerator.getListToken(type, weight, index);
+    }
+}
@@ -0,0 +1,153 @@
+package com.crescentflare.markdownparser.helper;
+
+import com.crescentflare.markdownparsercore.MarkdownTag;
+
+import java.util.Arrays;
+
+/**
+ * Markdown library: helper class
+ * The styled ranges of a spannable conversion (type, weight, start, end and extra), stored in arrays instead of separate objects
+ * A bulk span generator receives them sorted on their start position, ranges with the same start keep the order in which they were added
+ */
+public class MarkdownSpanRanges
+{
+    /**
+     * Members
+     */
+    private int count = 0;
+    private MarkdownTag.Type[] types;
+    private int[] weights;
+    private int[] starts;
+    private int[] ends;
+    private String[] extras;
+
+    /**
+     * Initialization
+     */
+    public MarkdownSpanRanges()
+    {
+        this(32);
+    }
+
+    public MarkdownSpanRanges(int capacity)
+    {
+        capacity = Math.max(1, capacity);
+        types = new MarkdownTag.Type[capacity];
+        weights = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        extras = new String[capacity];
+    }
+
+    /**
+     * Adding ranges
+     */
+    public int add(MarkdownTag.Type type, int weight, int start, int end, String extra)
+    {
+        if (count == types.length)
+        {
+            int newCapacity = count * 2;
+            types = Arrays.copyOf(types, newCapacity);
+            weights = Arrays.copyOf(weights, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            ends = Arrays.copyOf(ends, newCapacity);
+            extras = Arrays.copyOf(extras, newCapacity);
+        }
+        types[count] = type;
+        weights[count] = weight;
+        starts[count] = start;
+        ends[count] = end;
+        extras[count] = extra;
+        return count++;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(types, 0, count, null);
+        Arrays.fill(extras, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Sort the ranges on their start position, the order of ranges with the same start position is kept
+     * Conversions add them in order already, so usually only the check is done
+     */
+    public void sortByStart()
+    {
+        for (int i = 1; i < count; i++)
+        {
+            if (starts[i] < starts[i - 1])
+            {
+                sortUnsorted();
+                return;
+            }
+        }
+    }
+
+    private void sortUnsorted()
+    {
+        //Sort on a combined key of start position and index to keep it stable, then move the fields around
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            keys[i] = ((long)starts[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = (int)(keys[i] & 0xFFFFFFFFL);
+        }
+        MarkdownTag.Type[] sortedTypes = new MarkdownTag.Type[types.length];
+        int[] sortedWeights = new int[weights.length];
+        int[] sortedStarts = new int[starts.length];
+        int[] sortedEnds = new int[ends.length];
+        String[] sortedExtras = new String[extras.length];
+        for (int i = 0; i < count; i++)
+        {
+            sortedTypes[i] = types[order[i]];
+            sortedWeights[i] = weights[order[i]];
+            sortedStarts[i] = starts[order[i]];
+            sortedEnds[i] = ends[order[i]];
+            sortedExtras[i] = extras[order[i]];
+        }
+        types = sortedTypes;
+        weights = sortedWeights;
+        starts = sortedStarts;
+        ends = sortedEnds;
+        extras = sortedExtras;
+    }
+
+    /**
+     * Range access
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    public MarkdownTag.Type getType(int index)
+    {
+        return types[index];
+    }
+
+    public int getWeight(int index)
+    {
+        return weights[index];
+    }
+
+    public int getStart(int index)
+    {
+        return starts[index];
+    }
+
+    public int getEnd(int index)
+    {
+        return ends[index];
+    }
+
+    public String getExtra(int index)
+    {
+        return extras[index];
+    }
+}
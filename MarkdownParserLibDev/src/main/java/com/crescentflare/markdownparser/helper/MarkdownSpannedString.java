@@ -0,0 +1,321 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.text.Spanned;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Markdown library: helper class
+ * A read-only spanned text backed by arrays of spans sorted on their start position
+ * It's created in one pass without sorting the spans again, span lookups use a binary search on the sorted positions
+ */
+public class MarkdownSpannedString implements Spanned
+{
+    /**
+     * Members
+     */
+    private final String text;
+    private final Object[] spans;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final int count;
+    private volatile SpanIndex spanIndex;
+
+    /**
+     * Initialization, the spans should be sorted on their start position and are used with exclusive boundaries
+     * The arrays are used directly, they shouldn't be changed afterwards
+     */
+    public MarkdownSpannedString(String text, Object[] spans, int[] starts, int[] ends, int count)
+    {
+        this.text = text;
+        this.spans = spans;
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+        maxEnds = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            if (starts[i] < 0 || ends[i] < starts[i] || ends[i] > text.length())
+            {
+                throw new IndexOutOfBoundsException("Span " + i + " (" + starts[i] + " ... " + ends[i] + ") is outside of the text with length " + text.length());
+            }
+            if (i > 0 && starts[i] < starts[i - 1])
+            {
+                throw new IllegalArgumentException("Span " + i + " isn't sorted on its start position");
+            }
+            maxEnds[i] = i > 0 ? Math.max(maxEnds[i - 1], ends[i]) : ends[i];
+        }
+    }
+
+    /**
+     * Span lookup
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] getSpans(int start, int end, Class<T> kind)
+    {
+        //Only spans between the first one which can reach the start and the last one starting before the end can overlap
+        if (kind == null)
+        {
+            kind = (Class<T>)Object.class;
+        }
+        int first = firstMaxEndFrom(start);
+        int last = firstStartAfter(end);
+        int found = 0;
+        for (int i = first; i < last; i++)
+        {
+            if (overlaps(i, start, end) && kind.isInstance(spans[i]))
+            {
+                found++;
+            }
+        }
+        T[] result = (T[])Array.newInstance(kind, found);
+        if (found > 0)
+        {
+            int index = 0;
+            for (int i = first; i < last; i++)
+            {
+                if (overlaps(i, start, end) && kind.isInstance(spans[i]))
+                {
+                    result[index++] = (T)spans[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getSpanStart(Object span)
+    {
+        int index = indexOfSpan(span);
+        return index >= 0 ? starts[index] : -1;
+    }
+
+    @Override
+    public int getSpanEnd(Object span)
+    {
+        int index = indexOfSpan(span);
+        return index >= 0 ? ends[index] : -1;
+    }
+
+    @Override
+    public int getSpanFlags(Object span)
+    {
+        return indexOfSpan(span) >= 0 ? SPAN_EXCLUSIVE_EXCLUSIVE : 0;
+    }
+
+    @Override
+    public int nextSpanTransition(int start, int limit, Class kind)
+    {
+        //Check the first start and end position after the given start which belong to a span of the requested kind
+        if (kind == null)
+        {
+            kind = Object.class;
+        }
+        for (int i = firstStartAfter(start); i < count && starts[i] < limit; i++)
+        {
+            if (kind.isInstance(spans[i]))
+            {
+                limit = starts[i];
+                break;
+            }
+        }
+        SpanIndex index = obtainSpanIndex();
+        for (int i = firstAfter(index.sortedEnds, count, start); i < count && index.sortedEnds[i] < limit; i++)
+        {
+            if (kind.isInstance(spans[index.endOrder[i]]))
+            {
+                limit = index.sortedEnds[i];
+                break;
+            }
+        }
+        return limit;
+    }
+
+    private boolean overlaps(int index, int start, int end)
+    {
+        //Same rules as the android spannable implementations: spans touching the query only count when the span or the query is empty
+        int spanStart = starts[index];
+        int spanEnd = ends[index];
+        if (spanStart > end || spanEnd < start)
+        {
+            return false;
+        }
+        if (spanStart != spanEnd && start != end)
+        {
+            return spanStart != end && spanEnd != start;
+        }
+        return true;
+    }
+
+    private int firstMaxEndFrom(int position)
+    {
+        int low = 0;
+        int high = count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (maxEnds[mid] < position)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int firstStartAfter(int position)
+    {
+        return firstAfter(starts, count, position);
+    }
+
+    private static int firstAfter(int[] sortedValues, int count, int position)
+    {
+        int low = 0;
+        int high = count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (sortedValues[mid] <= position)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOfSpan(Object span)
+    {
+        //Binary search on the identity hash codes, then compare the spans sharing the hash code
+        if (span == null || count == 0)
+        {
+            return -1;
+        }
+        long[] identityKeys = obtainSpanIndex().identityKeys;
+        int hash = System.identityHashCode(span);
+        int low = 0;
+        int high = count;
+        long key = (long)hash << 32;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (identityKeys[mid] < key)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count && (int)(identityKeys[i] >> 32) == hash; i++)
+        {
+            int index = (int)(identityKeys[i] & 0xFFFFFFFFL);
+            if (spans[index] == span)
+            {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private SpanIndex obtainSpanIndex()
+    {
+        //Created when it's needed, concurrent readers may both create it which gives the same result
+        SpanIndex index = spanIndex;
+        if (index == null)
+        {
+            index = new SpanIndex(spans, ends, count);
+            spanIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Character sequence implementation
+     */
+    @Override
+    public int length()
+    {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        //Keep the spans which overlap the range, clipped to it, they stay sorted on their start position
+        if (start < 0 || end > text.length() || start > end)
+        {
+            throw new IndexOutOfBoundsException("Range " + start + " ... " + end + " is outside of the text with length " + text.length());
+        }
+        int first = firstMaxEndFrom(start);
+        int last = firstStartAfter(end);
+        Object[] subSpans = new Object[last - first];
+        int[] subStarts = new int[last - first];
+        int[] subEnds = new int[last - first];
+        int subCount = 0;
+        for (int i = first; i < last; i++)
+        {
+            if (overlaps(i, start, end))
+            {
+                subSpans[subCount] = spans[i];
+                subStarts[subCount] = Math.max(starts[i], start) - start;
+                subEnds[subCount] = Math.min(ends[i], end) - start;
+                subCount++;
+            }
+        }
+        return new MarkdownSpannedString(text.substring(start, end), subSpans, subStarts, subEnds, subCount);
+    }
+
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+
+    /**
+     * Lookup index for span positions and end transitions
+     */
+    private static class SpanIndex
+    {
+        private final long[] identityKeys;
+        private final int[] sortedEnds;
+        private final int[] endOrder;
+
+        SpanIndex(Object[] spans, int[] ends, int count)
+        {
+            //Sort on combined keys with the span index in the lower bits
+            identityKeys = new long[count];
+            long[] endKeys = new long[count];
+            for (int i = 0; i < count; i++)
+            {
+                identityKeys[i] = ((long)System.identityHashCode(spans[i]) << 32) | i;
+                endKeys[i] = ((long)ends[i] << 32) | i;
+            }
+            Arrays.sort(identityKeys);
+            Arrays.sort(endKeys);
+            sortedEnds = new int[count];
+            endOrder = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                sortedEnds[i] = (int)(endKeys[i] >> 32);
+                endOrder[i] = (int)(endKeys[i] & 0xFFFFFFFFL);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.crescentflare.markdownparsercore.MarkdownTrace;
+import com.crescentflare.markdownparsercore.MarkdownTraceListener;
+
+/**
+ * Markdown library: helper class
+ * Trace listener which adds the markdown phases as sections to system traces (on Android 4.3 and newer)
+ * Optionally passes the traces on to another listener, for example to log them
+ */
+public class MarkdownSystemTraceListener implements MarkdownTraceListener
+{
+    /**
+     * Members
+     */
+    private static final String[] SECTION_NAMES = createSectionNames();
+    private final MarkdownTraceListener nextListener;
+
+    /**
+     * Initialization
+     */
+    public MarkdownSystemTraceListener()
+    {
+        this(null);
+    }
+
+    public MarkdownSystemTraceListener(MarkdownTraceListener nextListener)
+    {
+        this.nextListener = nextListener;
+    }
+
+    /**
+     * Trace listener implementation
+     */
+    @Override
+    public void onPhaseBegin(MarkdownTrace.Phase phase)
+    {
+        if (Build.VERSION.SDK_INT >= 18)
+        {
+            Trace.beginSection(SECTION_NAMES[phase.ordinal()]);
+        }
+        if (nextListener != null)
+        {
+            nextListener.onPhaseBegin(phase);
+        }
+    }
+
+    @Override
+    public void onPhaseEnd(MarkdownTrace.Phase phase)
+    {
+        if (nextListener != null)
+        {
+            nextListener.onPhaseEnd(phase);
+        }
+        if (Build.VERSION.SDK_INT >= 18)
+        {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void onTraceFinished(MarkdownTrace trace)
+    {
+        if (nextListener != null)
+        {
+            nextListener.onTraceFinished(trace);
+        }
+    }
+
+    /**
+     * Helpers
+     */
+    private static String[] createSectionNames()
+    {
+        MarkdownTrace.Phase[] phases = MarkdownTrace.Phase.values();
+        String[] names = new String[phases.length];
+        for (int i = 0; i < phases.length; i++)
+        {
+            names[i] = "Markdown" + phases[i].name();
+        }
+        return names;
+    }
+}
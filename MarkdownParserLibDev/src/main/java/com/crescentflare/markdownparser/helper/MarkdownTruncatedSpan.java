@@ -0,0 +1,16 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.text.Spanned;
+
+/**
+ * Markdown library: helper class
+ * Span without styling to mark a spannable conversion which was truncated by the parse limits
+ * It covers the converted text, the text after the last parsed line is shown without markdown
+ */
+public class MarkdownTruncatedSpan
+{
+    public static boolean isTruncated(Spanned spanned)
+    {
+        return spanned.getSpans(0, spanned.length(), MarkdownTruncatedSpan.class).length > 0;
+    }
+}
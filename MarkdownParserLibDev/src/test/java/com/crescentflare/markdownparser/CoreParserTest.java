@@ -1,13 +1,35 @@
 package com.crescentflare.markdownparser;
 
+import com.crescentflare.markdownparsercore.MarkdownBaseParser;
+import com.crescentflare.markdownparsercore.MarkdownCancellationSignal;
+import com.crescentflare.markdownparsercore.MarkdownCancelledException;
 import com.crescentflare.markdownparsercore.MarkdownJavaParser;
-import com.crescentflare.markdownparsercore.MarkdownParser;
+import com.crescentflare.markdownparsercore.MarkdownNativeParser;
+import com.crescentflare.markdownparsercore.MarkdownOutline;
+import com.crescentflare.markdownparsercore.MarkdownParallelParser;
+import com.crescentflare.markdownparsercore.MarkdownParseLimits;
+import com.crescentflare.markdownparsercore.MarkdownStreamListener;
+import com.crescentflare.markdownparsercore.MarkdownStreamParser;
 import com.crescentflare.markdownparsercore.MarkdownTag;
+import com.crescentflare.markdownparsercore.MarkdownTagBatch;
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+import com.crescentflare.markdownparsercore.MarkdownTrace;
+import com.crescentflare.markdownparsercore.MarkdownTraceListener;
 
 import junit.framework.Assert;
 
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Unit test: core parser
  * Tests the core parser library (native and java)
@@ -192,12 +214,658 @@ public class CoreParserTest
         assertTags(markdownTextLines, expectedTags);
     }
 
+    @Test
+    public void testExtractVariants() throws Exception
+    {
+        //Test all extraction variants on an escaped text and compare with the expected string
+        MarkdownBaseParser parser = new MarkdownJavaParser();
+        String markdownText = "An \\*escaped\\* [link \\[1\\]](https://www.github.com)";
+        MarkdownTag[] foundTags = parser.findTags(markdownText);
+        String expectedText = "An *escaped* [link [1]](https://www.github.com)";
+        Assert.assertEquals(expectedText, parser.extractText(markdownText, foundTags[0]));
+        Assert.assertEquals(expectedText, parser.extractTextSequence(markdownText, foundTags[0]).toString());
+        StringBuilder appendedText = new StringBuilder();
+        parser.appendText(markdownText, foundTags[0], appendedText);
+        Assert.assertEquals(expectedText, appendedText.toString());
+        CharSequence textSequence = parser.extractTextSequence(markdownText, foundTags[0]);
+        Assert.assertEquals(expectedText.length(), textSequence.length());
+        for (int i = 0; i < expectedText.length(); i++)
+        {
+            Assert.assertEquals(expectedText.charAt(i), textSequence.charAt(i));
+        }
+        Assert.assertEquals("link [1]", parser.extractTextSequence(markdownText, foundTags[1]).toString());
+        Assert.assertEquals("https://www.github.com", parser.extractExtraSequence(markdownText, foundTags[1]).toString());
+    }
+
+    @Test
+    public void testTagBuffer()
+    {
+        //Test if the tag buffer contains the same tags as the tag objects
+        MarkdownBaseParser parser = new MarkdownJavaParser();
+        String markdownText = "# Header\nSome _styled **text**_ with a [link](https://www.github.com)\n\n* List item";
+        MarkdownTag[] foundTags = parser.findTags(markdownText);
+        MarkdownTagBuffer tagBuffer = parser.findTagBuffer(markdownText);
+        Assert.assertEquals(foundTags.length, tagBuffer.size());
+        for (int i = 0; i < foundTags.length; i++)
+        {
+            Assert.assertEquals(new SimpleMarkdownTag(markdownText, foundTags[i]), new SimpleMarkdownTag(markdownText, tagBuffer.getTag(i)));
+            Assert.assertEquals(foundTags[i].startPosition, tagBuffer.getStartPosition(i));
+            Assert.assertEquals(foundTags[i].endPosition, tagBuffer.getEndPosition(i));
+            Assert.assertEquals(parser.extractText(markdownText, foundTags[i]), parser.extractText(markdownText, tagBuffer, i));
+            Assert.assertEquals(parser.extractExtra(markdownText, foundTags[i]), parser.extractExtra(markdownText, tagBuffer, i));
+        }
+
+        //Read the tags of the native parser in place, with a document which needs more tags than estimated for the result buffer
+        StringBuilder denseBuilder = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            denseBuilder.append("*a* [b](c) ");
+        }
+        String denseText = denseBuilder.toString();
+        MarkdownTagBuffer expectedTags = parser.findTagBuffer(denseText);
+        MarkdownNativeParser nativeParser = new MarkdownNativeParser();
+        MarkdownTagBuffer copiedTags = nativeParser.findTagBuffer(denseText);
+        MarkdownTagBuffer inPlaceTags = nativeParser.findTagBufferInPlace(denseText);
+        Assert.assertEquals(expectedTags.size(), copiedTags.size());
+        Assert.assertEquals(expectedTags.size(), inPlaceTags.size());
+        for (int i = 0; i < expectedTags.size(); i++)
+        {
+            Assert.assertEquals(new SimpleMarkdownTag(denseText, expectedTags.getTag(i)), new SimpleMarkdownTag(denseText, copiedTags.getTag(i)));
+            Assert.assertEquals(new SimpleMarkdownTag(denseText, expectedTags.getTag(i)), new SimpleMarkdownTag(denseText, inPlaceTags.getTag(i)));
+            Assert.assertEquals(expectedTags.getEndExtra(i), inPlaceTags.getEndExtra(i));
+        }
+
+        //Changed tags are copied out of the result buffer and stay valid, unchanged tags can't be used after parsing again
+        MarkdownTagBuffer changedTags = nativeParser.findTagBufferInPlace(markdownText);
+        changedTags.setWeight(0, 2);
+        MarkdownTagBuffer releasedTags = nativeParser.findTagBufferInPlace(markdownText);
+        nativeParser.findTagBuffer(denseText);
+        Assert.assertEquals(tagBuffer.size(), changedTags.size());
+        Assert.assertEquals(2, changedTags.getWeight(0));
+        Assert.assertEquals(tagBuffer.getEndPosition(tagBuffer.size() - 1), changedTags.getEndPosition(tagBuffer.size() - 1));
+        Assert.assertEquals(0, releasedTags.size());
+    }
+
+    @Test
+    public void testFindTagsIncremental()
+    {
+        //Apply edits one by one and compare the updated tags with a full parse of the edited text
+        MarkdownJavaParser parser = new MarkdownJavaParser();
+        String[] markdownTextLines = new String[]
+        {
+                "# Header",
+                "Some _styled **text**_",
+                "",
+                "* List item",
+                "  * Nested item",
+                "",
+                "",
+                "A [link](https://www.github.com) and \\*escaped\\* text",
+                "",
+                "## Last header",
+                "Final text"
+        };
+        Object[][] edits = new Object[][]
+        {
+                { 15, 0, "very " },
+                { 9, 0, "\n\n" },
+                { 30, 3, "" },
+                { 44, 0, "# " },
+                { 0, 2, "" },
+                { 60, 1, "\n" },
+                { 2, 40, "*Replaced*" },
+                { 0, 0, "Start\n\n" }
+        };
+        String markdownText = joinWithNewlines(markdownTextLines);
+        MarkdownTagBuffer tags = parser.findTagBuffer(markdownText);
+        for (Object[] edit : edits)
+        {
+            int offset = (Integer)edit[0];
+            int removedLength = (Integer)edit[1];
+            String insertedText = (String)edit[2];
+            markdownText = markdownText.substring(0, offset) + insertedText + markdownText.substring(offset + removedLength);
+            tags = parser.findTagsIncremental(markdownText, tags, offset, removedLength, insertedText.length());
+            MarkdownTag[] expectedTags = parser.findTags(markdownText);
+            Assert.assertEquals(expectedTags.length, tags.size());
+            for (int i = 0; i < expectedTags.length; i++)
+            {
+                Assert.assertEquals(new SimpleMarkdownTag(markdownText, expectedTags[i]), new SimpleMarkdownTag(markdownText, tags.getTag(i)));
+                Assert.assertEquals(expectedTags[i].startPosition, tags.getStartPosition(i));
+                Assert.assertEquals(expectedTags[i].endPosition, tags.getEndPosition(i));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamParser()
+    {
+        //Send the text in small chunks and compare the tags of all sections with a full parse
+        String[] markdownTextLines = new String[]
+        {
+                "# Header",
+                "Some _styled **text**_",
+                "",
+                "* List item",
+                "  * Nested item",
+                "",
+                "",
+                "A [link](https://www.github.com) and \\*escaped\\* text",
+                "",
+                "## Last header",
+                "Final text"
+        };
+        final String markdownText = joinWithNewlines(markdownTextLines);
+        final List<SimpleMarkdownTag> streamedTags = new ArrayList<>();
+        final List<Integer> streamedPositions = new ArrayList<>();
+        MarkdownStreamParser streamParser = new MarkdownStreamParser(new MarkdownStreamListener()
+        {
+            @Override
+            public void onSection(String sectionText, int sectionOffset, MarkdownTagBuffer tags)
+            {
+                Assert.assertEquals(markdownText.substring(sectionOffset, sectionOffset + sectionText.length()), sectionText);
+                for (int i = 0; i < tags.size(); i++)
+                {
+                    streamedTags.add(new SimpleMarkdownTag(sectionText, tags.getTag(i)));
+                    streamedPositions.add(sectionOffset + tags.getStartPosition(i));
+                }
+            }
+        });
+        for (int i = 0; i < markdownText.length(); i += 5)
+        {
+            streamParser.append(CharBuffer.wrap(markdownText, i, Math.min(i + 5, markdownText.length())));
+        }
+        streamParser.finish();
+        MarkdownTag[] expectedTags = new MarkdownJavaParser().findTags(markdownText);
+        Assert.assertEquals(expectedTags.length, streamedTags.size());
+        for (int i = 0; i < expectedTags.length; i++)
+        {
+            Assert.assertEquals(new SimpleMarkdownTag(markdownText, expectedTags[i]), streamedTags.get(i));
+            Assert.assertEquals(expectedTags[i].startPosition, (int)streamedPositions.get(i));
+        }
+    }
+
+    @Test
+    public void testFindTagsUtf8() throws Exception
+    {
+        //Parse the UTF-8 bytes, convert the positions and compare with the tags of the string
+        MarkdownBaseParser parser = new MarkdownJavaParser();
+        String markdownText = "# \u00DCber \\\u20AC header\nSome _styl\u00E9 **\u0442\u0435\u043A\u0441\u0442**_ with \\\uD83D\uDE00 and a [l\u00EFnk](https://www.github.com)\n\n  * \u00DCn\u00EFcode item\nE";
+        byte[] utf8Text = markdownText.getBytes("UTF-8");
+        MarkdownTag[] expectedTags = parser.findTags(markdownText);
+        MarkdownTagBuffer byteTags = parser.findTagBuffer(utf8Text);
+        MarkdownTagBuffer directTags = parser.findTagBuffer((ByteBuffer)ByteBuffer.allocateDirect(utf8Text.length).put(utf8Text).flip());
+        Assert.assertEquals(expectedTags.length, byteTags.size());
+        Assert.assertEquals(expectedTags.length, directTags.size());
+        Assert.assertEquals(expectedTags[1].startText, new String(utf8Text, 0, byteTags.getStartText(1), "UTF-8").length());
+        byteTags.convertUtf8Positions(utf8Text);
+        for (int i = 0; i < expectedTags.length; i++)
+        {
+            Assert.assertEquals(new SimpleMarkdownTag(markdownText, expectedTags[i]), new SimpleMarkdownTag(markdownText, byteTags.getTag(i)));
+            Assert.assertEquals(expectedTags[i].startPosition, byteTags.getStartPosition(i));
+            Assert.assertEquals(expectedTags[i].endPosition, byteTags.getEndPosition(i));
+            Assert.assertEquals(expectedTags[i].endExtra, byteTags.getEndExtra(i));
+        }
+    }
+
+    @Test
+    public void testParallelParser()
+    {
+        //Parse a document in chunks on multiple threads and compare with the sequential parser
+        StringBuilder markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            markdownBuilder.append("# Header ").append(i).append("\nSome _styled **text**_ with a [link](https://www.github.com)\n\n");
+            markdownBuilder.append("* List item\n  * Nested item\n").append(i % 3 == 0 ? "\n\n\n" : "Text\n\n");
+        }
+        String markdownText = markdownBuilder.toString();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            MarkdownTag[] expectedTags = new MarkdownJavaParser().findTags(markdownText);
+            MarkdownTag[] foundTags = new MarkdownParallelParser(executor, 4, 1024).findTags(markdownText);
+            Assert.assertEquals(expectedTags.length, foundTags.length);
+            for (int i = 0; i < expectedTags.length; i++)
+            {
+                Assert.assertEquals(new SimpleMarkdownTag(markdownText, expectedTags[i]), new SimpleMarkdownTag(markdownText, foundTags[i]));
+                Assert.assertEquals(expectedTags[i].startPosition, foundTags[i].startPosition);
+                Assert.assertEquals(expectedTags[i].endPosition, foundTags[i].endPosition);
+            }
+
+            //Chunks are parsed on the calling thread when the executor doesn't run them, a trace contains the total parse duration
+            final List<MarkdownTrace> finishedTraces = new ArrayList<>();
+            MarkdownParallelParser parser = new MarkdownParallelParser(new Executor()
+            {
+                @Override
+                public void execute(Runnable command)
+                {
+                }
+            }, 4, 1024);
+            parser.setTraceListener(new MarkdownTraceListener()
+            {
+                @Override
+                public void onPhaseBegin(MarkdownTrace.Phase phase)
+                {
+                }
+
+                @Override
+                public void onPhaseEnd(MarkdownTrace.Phase phase)
+                {
+                }
+
+                @Override
+                public void onTraceFinished(MarkdownTrace trace)
+                {
+                    finishedTraces.add(trace);
+                }
+            });
+            Assert.assertEquals(expectedTags.length, parser.findTagBuffer(markdownText).size());
+            Assert.assertEquals(1, finishedTraces.size());
+            Assert.assertEquals("parallel", finishedTraces.get(0).getParserName());
+            Assert.assertEquals(expectedTags.length, finishedTraces.get(0).getTagCount());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTraceListener()
+    {
+        //Phases should be balanced and the totals reported when finished
+        final List<MarkdownTrace> finishedTraces = new ArrayList<>();
+        final int[] openPhases = new int[1];
+        MarkdownJavaParser parser = new MarkdownJavaParser();
+        parser.setTraceListener(new MarkdownTraceListener()
+        {
+            @Override
+            public void onPhaseBegin(MarkdownTrace.Phase phase)
+            {
+                openPhases[0]++;
+            }
+
+            @Override
+            public void onPhaseEnd(MarkdownTrace.Phase phase)
+            {
+                openPhases[0]--;
+            }
+
+            @Override
+            public void onTraceFinished(MarkdownTrace trace)
+            {
+                finishedTraces.add(trace);
+            }
+        });
+        String markdownText = "# Header\nSome **bold** text\n* Item with [link](url)";
+        MarkdownTagBuffer foundTags = parser.findTagBuffer(markdownText);
+        Assert.assertEquals(0, openPhases[0]);
+        Assert.assertEquals(1, finishedTraces.size());
+        MarkdownTrace trace = finishedTraces.get(0);
+        Assert.assertEquals("java", trace.getParserName());
+        Assert.assertEquals(markdownText.length(), trace.getTextLength());
+        Assert.assertEquals(foundTags.size(), trace.getTagCount());
+        Assert.assertEquals(3, trace.getPhaseCount(MarkdownTrace.Phase.ScanLine));
+        Assert.assertEquals(3, trace.getPhaseCount(MarkdownTrace.Phase.AddStyleTags));
+        Assert.assertEquals(3, trace.getPhaseCount(MarkdownTrace.Phase.ProcessMarkers));
+        Assert.assertTrue(trace.getTotalDuration() >= trace.getPhaseDuration(MarkdownTrace.Phase.AddStyleTags));
+
+        //Nothing is traced after removing the listener
+        parser.setTraceListener(null);
+        parser.findTagBuffer(markdownText);
+        Assert.assertEquals(1, finishedTraces.size());
+    }
+
+    @Test
+    public void testFindTagsDeepNesting() throws Exception
+    {
+        //Nest markers by decreasing weight, each pair of markers wraps the next one
+        final int depth = 1500;
+        StringBuilder markdownBuilder = new StringBuilder();
+        for (int i = depth; i > 0; i--)
+        {
+            for (int j = 0; j < i; j++)
+            {
+                markdownBuilder.append('*');
+            }
+            markdownBuilder.append('a');
+        }
+        for (int i = 1; i <= depth; i++)
+        {
+            markdownBuilder.append('b');
+            for (int j = 0; j < i; j++)
+            {
+                markdownBuilder.append('*');
+            }
+        }
+
+        //Parse on a thread with a small stack, matching markers should not depend on the nesting depth
+        final String markdownText = markdownBuilder.toString();
+        final MarkdownTag[][] foundTags = new MarkdownTag[1][];
+        Thread thread = new Thread(null, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                foundTags[0] = new MarkdownJavaParser().findTags(markdownText);
+            }
+        }, "deepNesting", 64 * 1024);
+        thread.start();
+        thread.join();
+        Assert.assertNotNull(foundTags[0]);
+        Assert.assertEquals(depth + 1, foundTags[0].length);
+        Assert.assertEquals(depth, foundTags[0][1].weight);
+        Assert.assertEquals(markdownText.length(), foundTags[0][1].endPosition);
+        Assert.assertEquals(1, foundTags[0][depth].weight);
+    }
+
+    @Test
+    public void testParseLimits()
+    {
+        //Stop within the second line because of the input length, the rest is plain text
+        MarkdownBaseParser parser = new MarkdownJavaParser();
+        String markdownText = "First **line**\nSecond _line_\nThird line";
+        parser.setParseLimits(new MarkdownParseLimits(22, 0, 0, 0));
+        MarkdownTagBuffer foundTags = parser.findTagBuffer(markdownText);
+        Assert.assertTrue(foundTags.isTruncated());
+        Assert.assertEquals(MarkdownTag.Type.Normal, foundTags.getType(foundTags.size() - 1));
+        Assert.assertEquals("_line_\nThird line", parser.extractText(markdownText, foundTags, foundTags.size() - 1));
+
+        //Stop after the first line because of the tag count
+        parser.setParseLimits(new MarkdownParseLimits(0, 4, 0, 0));
+        foundTags = parser.findTagBuffer(markdownText);
+        Assert.assertTrue(foundTags.isTruncated());
+        Assert.assertEquals(3, foundTags.size());
+        Assert.assertEquals(MarkdownTag.Type.TextStyle, foundTags.getType(1));
+        Assert.assertEquals("Second _line_\nThird line", parser.extractText(markdownText, foundTags, 2));
+
+        //Leave out nested styling because of the nesting depth
+        parser.setParseLimits(new MarkdownParseLimits(0, 0, 1, 0));
+        foundTags = parser.findTagBuffer("Some **bold _italic_** text");
+        Assert.assertTrue(foundTags.isTruncated());
+        Assert.assertEquals(2, foundTags.size());
+        Assert.assertEquals(2, foundTags.getWeight(1));
+
+        //Stop because of the timeout
+        StringBuilder markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            markdownBuilder.append("Line with **styling**\n");
+        }
+        parser.setParseLimits(new MarkdownParseLimits(0, 0, 0, 1));
+        foundTags = parser.findTagBuffer(markdownBuilder.toString());
+        Assert.assertTrue(foundTags.isTruncated());
+        Assert.assertEquals(markdownBuilder.length(), foundTags.getEndPosition(foundTags.size() - 1));
+
+        //Parse normally within the limits
+        parser.setParseLimits(new MarkdownParseLimits(100, 100, 2, 0));
+        foundTags = parser.findTagBuffer(markdownText);
+        Assert.assertFalse(foundTags.isTruncated());
+        Assert.assertEquals(new MarkdownJavaParser().findTagBuffer(markdownText).size(), foundTags.size());
+
+        //The parallel parser applies the limits in the same way as the java parser
+        markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            markdownBuilder.append("Paragraph with **styling** ").append(i).append("\n\n");
+        }
+        markdownText = markdownBuilder.toString();
+        MarkdownParseLimits limits = new MarkdownParseLimits(0, 20, 0, 0);
+        parser.setParseLimits(limits);
+        MarkdownBaseParser parallelParser = new MarkdownParallelParser(null, 4, 1024);
+        parallelParser.setParseLimits(limits);
+        MarkdownTagBuffer expectedTags = parser.findTagBuffer(markdownText);
+        foundTags = parallelParser.findTagBuffer(markdownText);
+        Assert.assertTrue(foundTags.isTruncated());
+        Assert.assertEquals(expectedTags.size(), foundTags.size());
+        Assert.assertEquals(expectedTags.getStartPosition(expectedTags.size() - 1), foundTags.getStartPosition(foundTags.size() - 1));
+    }
+
+    @Test
+    public void testCancellation()
+    {
+        //Cancel while parsing, after a few lines are scanned
+        final MarkdownCancellationSignal signal = new MarkdownCancellationSignal();
+        final int[] scannedLines = new int[1];
+        MarkdownJavaParser parser = new MarkdownJavaParser();
+        parser.setCancellationSignal(signal);
+        parser.setTraceListener(new MarkdownTraceListener()
+        {
+            @Override
+            public void onPhaseBegin(MarkdownTrace.Phase phase)
+            {
+                if (phase == MarkdownTrace.Phase.ScanLine && ++scannedLines[0] == 10)
+                {
+                    signal.cancel();
+                }
+            }
+
+            @Override
+            public void onPhaseEnd(MarkdownTrace.Phase phase)
+            {
+            }
+
+            @Override
+            public void onTraceFinished(MarkdownTrace trace)
+            {
+            }
+        });
+        StringBuilder markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            markdownBuilder.append("Line with **styling**\n");
+        }
+        String markdownText = markdownBuilder.toString();
+        try
+        {
+            parser.findTagBuffer(markdownText);
+            Assert.fail("Parsing should be cancelled");
+        }
+        catch (MarkdownCancelledException ignored)
+        {
+            Assert.assertTrue(scannedLines[0] < 20);
+        }
+
+        //The native parser stops as well
+        MarkdownNativeParser nativeParser = new MarkdownNativeParser();
+        nativeParser.setCancellationSignal(signal);
+        try
+        {
+            nativeParser.findTagBuffer(markdownText);
+            Assert.fail("Parsing should be cancelled");
+        }
+        catch (MarkdownCancelledException ignored)
+        {
+        }
+
+        //Parse normally without a signal
+        nativeParser.setCancellationSignal(null);
+        Assert.assertEquals(new MarkdownJavaParser().findTagBuffer(markdownText).size(), nativeParser.findTagBuffer(markdownText).size());
+
+        //Each chunk of the parallel parser stops as well
+        markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            markdownBuilder.append("Paragraph with **styling**\n\n");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            MarkdownParallelParser parallelParser = new MarkdownParallelParser(executor, 4, 1024);
+            parallelParser.setCancellationSignal(signal);
+            parallelParser.findTagBuffer(markdownBuilder.toString());
+            Assert.fail("Parsing should be cancelled");
+        }
+        catch (MarkdownCancelledException ignored)
+        {
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOutline()
+    {
+        //Find the headers with the sections they own and the links within them
+        String[] markdownTextLines = new String[]
+        {
+                "Intro [first](https://www.example.com/1)",
+                "",
+                "## Sub header",
+                "Text [second](https://www.example.com/2)",
+                "# Top \\# header",
+                "* [third](https://www.example.com/3)",
+                "### Deep header",
+                "End"
+        };
+        String markdownText = joinWithNewlines(markdownTextLines);
+        MarkdownOutline outline = new MarkdownOutline(markdownText, new MarkdownJavaParser().findTagBuffer(markdownText));
+        Assert.assertEquals(3, outline.getHeaderCount());
+        Assert.assertEquals("Sub header", outline.getHeaderText(0));
+        Assert.assertEquals("Top # header", outline.getHeaderText(1));
+        Assert.assertEquals("Deep header", outline.getHeaderText(2));
+        Assert.assertEquals(2, outline.getHeaderLevel(0));
+        Assert.assertEquals(3, outline.getHeaderLevel(2));
+        Assert.assertEquals(-1, outline.getParentIndex(1));
+        Assert.assertEquals(1, outline.getParentIndex(2));
+        Assert.assertEquals(markdownText.indexOf("# Top"), outline.getSectionEndPosition(0));
+        Assert.assertEquals(markdownText.length(), outline.getSectionEndPosition(1));
+        Assert.assertEquals(markdownText.length(), outline.getSectionEndPosition(2));
+
+        //Links of a section include its subsections
+        Assert.assertEquals(3, outline.getLinkCount());
+        Assert.assertEquals("first", outline.getLinkText(0));
+        Assert.assertEquals("https://www.example.com/2", outline.getLinkTarget(outline.getSectionLinkStart(0)));
+        Assert.assertEquals(2, outline.getSectionLinkEnd(0));
+        Assert.assertEquals(2, outline.getSectionLinkStart(1));
+        Assert.assertEquals(3, outline.getSectionLinkEnd(1));
+        Assert.assertEquals(3, outline.getSectionLinkStart(2));
+        Assert.assertEquals(3, outline.getSectionLinkEnd(2));
+
+        //Look up the innermost section containing a position
+        Assert.assertEquals(-1, outline.findSectionIndex(0));
+        Assert.assertEquals(0, outline.findSectionIndex(outline.getSectionStartPosition(0)));
+        Assert.assertEquals(0, outline.findSectionIndex(markdownText.indexOf("Text")));
+        Assert.assertEquals(1, outline.findSectionIndex(markdownText.indexOf("third")));
+        Assert.assertEquals(2, outline.findSectionIndex(markdownText.length() - 1));
+    }
+
+    @Test
+    public void testFindTagBatch()
+    {
+        //Parse a batch with an empty document and a document which needs more tags than estimated
+        StringBuilder denseBuilder = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            denseBuilder.append("*a* ");
+        }
+        String[] markdownTexts = new String[]
+        {
+                "Short **message**",
+                "",
+                "# Header\n\n* Item _one_\n* Item two\n\nSome `code`",
+                denseBuilder.toString(),
+                "Last [link](https://www.example.com)"
+        };
+        MarkdownBaseParser[] parsers = new MarkdownBaseParser[] { new MarkdownJavaParser(), new MarkdownNativeParser() };
+        for (MarkdownBaseParser parser : parsers)
+        {
+            MarkdownTagBatch batch = parser.findTagBatch(markdownTexts);
+            Assert.assertEquals(markdownTexts.length, batch.getDocumentCount());
+            Assert.assertEquals(batch.getTags().size(), batch.getEndIndex(markdownTexts.length - 1));
+            for (int i = 0; i < markdownTexts.length; i++)
+            {
+                MarkdownTagBuffer expectedTags = new MarkdownJavaParser().findTagBuffer(markdownTexts[i]);
+                MarkdownTagBuffer documentTags = batch.getDocumentTags(i);
+                Assert.assertFalse(batch.isTruncated(i));
+                Assert.assertEquals(expectedTags.size(), documentTags.size());
+                for (int j = 0; j < expectedTags.size(); j++)
+                {
+                    Assert.assertEquals(new SimpleMarkdownTag(markdownTexts[i], expectedTags.getTag(j)), new SimpleMarkdownTag(markdownTexts[i], documentTags.getTag(j)));
+                    Assert.assertEquals(expectedTags.getStartPosition(j), documentTags.getStartPosition(j));
+                    Assert.assertEquals(expectedTags.getEndPosition(j), documentTags.getEndPosition(j));
+                }
+            }
+        }
+
+        //The limits apply to each document separately
+        for (MarkdownBaseParser parser : parsers)
+        {
+            parser.setParseLimits(new MarkdownParseLimits(0, 4, 0, 0));
+            MarkdownTagBatch batch = parser.findTagBatch(new String[] { "First **line**\nSecond _line_\nThird line", "Short **message**" });
+            Assert.assertTrue(batch.getTags().isTruncated());
+            Assert.assertTrue(batch.isTruncated(0));
+            Assert.assertFalse(batch.isTruncated(1));
+            Assert.assertEquals(3, batch.getEndIndex(0));
+            Assert.assertEquals(parser.findTagBuffer("Short **message**").size(), batch.getEndIndex(1) - batch.getStartIndex(1));
+        }
+    }
+
+    @Test
+    public void testTrimMemory()
+    {
+        //Parse a big document with nested styling and escapes to grow the buffers of the parsers
+        StringBuilder markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+        {
+            markdownBuilder.append("Some **bold _italic_** \\*text\\* ");
+        }
+        String markdownText = markdownBuilder.toString();
+        MarkdownBaseParser[] parsers = new MarkdownBaseParser[] { new MarkdownJavaParser(), new MarkdownNativeParser() };
+        for (MarkdownBaseParser parser : parsers)
+        {
+            MarkdownTagBuffer expectedTags = parser.findTagBuffer(markdownText);
+            String expectedText = parser.extractText(markdownText, expectedTags, expectedTags.size() - 1);
+
+            //After trimming the parser works normally
+            parser.trimMemory(1024);
+            MarkdownTagBuffer foundTags = parser.findTagBuffer(markdownText);
+            Assert.assertEquals(expectedTags.size(), foundTags.size());
+            Assert.assertEquals(expectedText, parser.extractText(markdownText, foundTags, foundTags.size() - 1));
+        }
+    }
+
+    @Test
+    public void testAllocationsPerKilobyte()
+    {
+        //Only measurable on JVMs which can report allocated bytes per thread
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean)threadBean).isThreadAllocatedMemorySupported())
+        {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        //Warm up, then parse once more and check that mostly the result buffer is allocated (about 36 bytes per tag)
+        StringBuilder markdownBuilder = new StringBuilder();
+        for (int i = 0; i < 400; i++)
+        {
+            markdownBuilder.append("# Header ").append(i).append("\nSome _styled **text**_ with a [link](https://www.github.com) and \\*escapes\\*\n\n");
+            markdownBuilder.append("* List item ~~strike~~\n  * Nested *item*\n1. Ordered\n\n");
+        }
+        String markdownText = markdownBuilder.toString();
+        MarkdownJavaParser parser = new MarkdownJavaParser();
+        for (int i = 0; i < 100; i++)
+        {
+            parser.findTagBuffer(markdownText);
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        MarkdownTagBuffer foundTags = parser.findTagBuffer(markdownText);
+        long allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long bytesPerKilobyte = allocatedBytes * 1024 / markdownText.length();
+        Assert.assertTrue(foundTags.size() > 0);
+        Assert.assertTrue("Allocated " + bytesPerKilobyte + " bytes per KB", bytesPerKilobyte < 8 * 1024);
+    }
+
     /**
      * Helpers
      */
     private void assertTags(String[] markdownTextLines, SimpleMarkdownTag[] expectedTags)
     {
-        MarkdownParser parser = new MarkdownJavaParser();
+        MarkdownBaseParser parser = new MarkdownJavaParser();
         String markdownText = joinWithNewlines(markdownTextLines);
         MarkdownTag[] foundTags = parser.findTags(markdownText);
         for (int i = 0; i < foundTags.length && i < expectedTags.length; i++)
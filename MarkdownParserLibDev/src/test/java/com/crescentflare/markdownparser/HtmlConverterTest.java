@@ -0,0 +1,743 @@
+package com.crescentflare.markdownparser;
+
+import android.content.ComponentCallbacks2;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import com.crescentflare.markdownparser.helper.DefaultMarkdownSpanGenerator;
+import com.crescentflare.markdownparser.helper.FixedMarkdownParserPolicy;
+import com.crescentflare.markdownparser.helper.MarkdownBulkSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownConversionCallback;
+import com.crescentflare.markdownparser.helper.MarkdownSpanGenerator;
+import com.crescentflare.markdownparser.helper.MarkdownSpanGeneratorAdapter;
+import com.crescentflare.markdownparser.helper.MarkdownSpanRanges;
+import com.crescentflare.markdownparser.helper.MarkdownTruncatedSpan;
+import com.crescentflare.markdownparsercore.MarkdownCancellationSignal;
+import com.crescentflare.markdownparsercore.MarkdownCancelledException;
+import com.crescentflare.markdownparsercore.MarkdownJavaParser;
+import com.crescentflare.markdownparsercore.MarkdownParseLimits;
+import com.crescentflare.markdownparsercore.MarkdownTag;
+import com.crescentflare.markdownparsercore.MarkdownTagBuffer;
+import com.crescentflare.markdownparsercore.MarkdownTrace;
+import com.crescentflare.markdownparsercore.MarkdownTraceListener;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test: html converter
+ * Tests the conversion of markdown to html strings
+ */
+public class HtmlConverterTest
+{
+    /**
+     * Tests
+     */
+    @Test
+    public void testToHtmlString()
+    {
+        String[] markdownTextLines = new String[]
+        {
+                "# Header",
+                "Some **bold** and _italic_ text",
+                "",
+                "* First",
+                "* Second",
+                "  1. Nested",
+                "",
+                "A [link](https://www.github.com) and ~~strike~~."
+        };
+        String expectedHtml = "<h1>Header</h1>Some <b>bold</b> and <i>italic</i> text<ul><li>First</li><li>Second</li><ol><li>Nested</li></ol></ul>A <a href=https://www.github.com>link</a> and <strike>strike</strike>.";
+        Assert.assertEquals(expectedHtml, MarkdownConverter.toHtmlString(joinWithNewlines(markdownTextLines)));
+    }
+
+    @Test
+    public void testToHtmlStringParagraphs()
+    {
+        String[] markdownTextLines = new String[]
+        {
+                "Escaped \\*text\\*",
+                "Next line",
+                "",
+                "New paragraph"
+        };
+        String expectedHtml = "Escaped *text*<br/>Next line<br/><br/>New paragraph";
+        Assert.assertEquals(expectedHtml, MarkdownConverter.toHtmlString(joinWithNewlines(markdownTextLines)));
+    }
+
+    @Test
+    public void testAppendHtml() throws Exception
+    {
+        String markdownText = "Some ***styled*** text";
+        StringBuilder output = new StringBuilder("<p>");
+        MarkdownConverter.appendHtml(markdownText, output);
+        Assert.assertEquals("<p>Some <i><b>styled</b></i> text", output.toString());
+    }
+
+    @Test
+    public void testToPlainText()
+    {
+        String[] markdownTextLines = new String[]
+        {
+                "# Header",
+                "Some **bold** and [linked](https://www.github.com) text",
+                "",
+                "* First",
+                "  1. Nested",
+                "  2. Nested \\*escaped\\*"
+        };
+        MarkdownTextCounts counts = new MarkdownTextCounts();
+        String expectedText = "Header\n\nSome bold and linked text\n\n\u2022 First\n  1. Nested\n  2. Nested *escaped*";
+        Assert.assertEquals(expectedText, MarkdownConverter.toPlainText(joinWithNewlines(markdownTextLines), counts));
+        Assert.assertEquals(10, counts.getWordCount());
+        Assert.assertEquals(58, counts.getCharacterCount());
+
+        //List items start with the same tokens as the list spans of a spannable conversion
+        final StringBuilder spannableTokens = new StringBuilder();
+        MarkdownBulkSpanGenerator generator = new MarkdownBulkSpanGenerator()
+        {
+            private final DefaultMarkdownSpanGenerator defaultGenerator = new DefaultMarkdownSpanGenerator();
+
+            @Override
+            public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+            {
+                for (int i = 0; i < ranges.size(); i++)
+                {
+                    if (ranges.getType(i) == MarkdownTag.Type.UnorderedList)
+                    {
+                        spannableTokens.append(ranges.getExtra(i)).append("|");
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return defaultGenerator.getListToken(type, weight, index);
+            }
+        };
+        MarkdownConverterEngine engine = new MarkdownConverterEngine();
+        engine.setBulkSpanGenerator(generator);
+        String nestedText = "* First\n  * Second\n    * Third";
+        engine.toSpannable(nestedText);
+        StringBuilder plainTextTokens = new StringBuilder();
+        for (String line : engine.toPlainText(nestedText).split("\n"))
+        {
+            String item = line.trim();
+            plainTextTokens.append(item.substring(0, item.indexOf(' ') + 1)).append("|");
+        }
+        Assert.assertEquals("\u2022 |\u25E6 |\u25AA |", spannableTokens.toString());
+        Assert.assertEquals(spannableTokens.toString(), plainTextTokens.toString());
+    }
+
+    @Test
+    public void testParseCache()
+    {
+        MarkdownParseCache cache = new MarkdownParseCache(2, MarkdownParseCache.DEFAULT_MAX_BYTES);
+        MarkdownConverter.setParseCache(cache);
+        try
+        {
+            Assert.assertEquals("<b>First</b>", MarkdownConverter.toHtmlString("**First**"));
+            Assert.assertEquals("<b>First</b>", MarkdownConverter.toHtmlString(new String("**First**")));
+            Assert.assertEquals(1, cache.getMissCount());
+            Assert.assertEquals(1, cache.getHitCount());
+            MarkdownConverter.toHtmlString("Second");
+            MarkdownConverter.toHtmlString("**First**");
+            Assert.assertEquals("<i>Third</i>", MarkdownConverter.toHtmlString("_Third_"));
+            Assert.assertEquals(2, cache.size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+            MarkdownConverter.toHtmlString("**First**");
+            Assert.assertEquals(3, cache.getHitCount());
+
+            //Changing a tag buffer after adding it or getting it from the cache (like with incremental parsing) doesn't change the cached tags
+            MarkdownJavaParser parser = new MarkdownJavaParser();
+            MarkdownTagBuffer addedTags = parser.findTagBuffer("Some *text*");
+            cache.put("Some *text*", addedTags);
+            addedTags.shiftPositions(0, 2);
+            MarkdownTagBuffer cachedTags = cache.get("Some *text*");
+            Assert.assertEquals(0, cachedTags.getStartPosition(0));
+            parser.findTagsIncremental("Some **text*", cachedTags, 5, 0, 1);
+            Assert.assertEquals(12, cachedTags.getEndPosition(0));
+            Assert.assertEquals(11, cache.get("Some *text*").getEndPosition(0));
+            Assert.assertEquals("Some <i>text</i>", MarkdownConverter.toHtmlString("Some *text*"));
+
+            //Trimming memory in the background clears the cache and releases the parser buffers, conversions work normally afterwards
+            MarkdownConverter.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+            Assert.assertEquals(2, cache.size());
+            MarkdownConverter.trimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals("<b>First</b>", MarkdownConverter.toHtmlString("**First**"));
+        }
+        finally
+        {
+            MarkdownConverter.setParseCache(null);
+        }
+    }
+
+    @Test
+    public void testRenderCache()
+    {
+        //Evict the least recently used entry when the amount of entries is exceeded
+        MarkdownRenderCache cache = new MarkdownRenderCache(2, MarkdownRenderCache.DEFAULT_MAX_CHARACTERS);
+        DefaultMarkdownSpanGenerator generator = new DefaultMarkdownSpanGenerator();
+        cache.put("First", generator, new SimpleSpannable("First"));
+        cache.put("Second", generator, new SimpleSpannable("Second"));
+        Assert.assertEquals("First", cache.get(new String("First"), generator).toString());
+        cache.put("Third", generator, new SimpleSpannable("Third"));
+        Assert.assertNull(cache.get("Second", generator));
+        Assert.assertNotNull(cache.get("First", generator));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        //Evict when the characters of the text and result are exceeded, a result which doesn't fit at all isn't added
+        cache = new MarkdownRenderCache(MarkdownRenderCache.DEFAULT_MAX_ENTRIES, 20);
+        cache.put("12345", generator, new SimpleSpannable("12345"));
+        cache.put("abcdef", generator, new SimpleSpannable("abcdef"));
+        Assert.assertNull(cache.get("12345", generator));
+        Assert.assertEquals(12, cache.getCharacterCount());
+        cache.put("Too long text", generator, new SimpleSpannable("Too long text"));
+        Assert.assertNull(cache.get("Too long text", generator));
+        Assert.assertEquals(1, cache.size());
+
+        //Key on the span generator instance, an adapter is keyed by the span generator it wraps
+        MarkdownSpanGenerator spanGenerator = new MarkdownSpanGenerator()
+        {
+            @Override
+            public void applySpan(SpannableStringBuilder builder, MarkdownTag.Type type, int weight, int start, int end, String extra)
+            {
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return "";
+            }
+        };
+        cache = new MarkdownRenderCache();
+        Spanned result = new SimpleSpannable("Text");
+        cache.put("Text", spanGenerator, result);
+        Assert.assertSame(result, cache.getBulk("Text", new MarkdownSpanGeneratorAdapter(spanGenerator)));
+        Assert.assertNull(cache.get("Text", generator));
+        cache.put("Text", generator, result);
+        Assert.assertSame(result, cache.getBulk("Text", generator));
+        Assert.assertNull(cache.get("Text", new DefaultMarkdownSpanGenerator()));
+
+        //Invalidate the entries of a span generator
+        cache.put("Other", spanGenerator, new SimpleSpannable("Other"));
+        cache.invalidate(spanGenerator);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(8, cache.getCharacterCount());
+        cache.invalidateBulk(generator);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getCharacterCount());
+
+        //Shrink or clear the cache depending on the memory trim level
+        for (int i = 0; i < 8; i++)
+        {
+            cache.put("Text " + i, generator, new SimpleSpannable("Text " + i));
+        }
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        Assert.assertEquals(8, cache.size());
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        Assert.assertEquals(4, cache.size());
+        Assert.assertNotNull(cache.get("Text 7", generator));
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotNull(cache.get("Text 7", generator));
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        Assert.assertEquals(0, cache.size());
+
+        //Skip a cached result with more tags than the parse limits allow
+        final AtomicInteger createdCount = new AtomicInteger();
+        MarkdownBulkSpanGenerator bulkGenerator = new MarkdownBulkSpanGenerator()
+        {
+            @Override
+            public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+            {
+                createdCount.incrementAndGet();
+                return new SimpleSpannable(text);
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return "";
+            }
+        };
+        MarkdownConverterEngine engine = new MarkdownConverterEngine();
+        engine.setRenderCache(cache);
+        String markdownText = "Some **bold** text\nMore _styled_ text";
+        cache.putBulk(markdownText, bulkGenerator, new SimpleSpannable("Cached"), 5);
+        Assert.assertEquals("Cached", engine.toSpannableBulk(markdownText, bulkGenerator).toString());
+        engine.setParseLimits(new MarkdownParseLimits(0, 4, 0, 0));
+        Assert.assertTrue(MarkdownTruncatedSpan.isTruncated(engine.toSpannableBulk(markdownText, bulkGenerator)));
+        Assert.assertEquals(1, createdCount.get());
+        engine.setParseLimits(new MarkdownParseLimits(0, 5, 0, 0));
+        Assert.assertEquals("Cached", engine.toSpannableBulk(markdownText, bulkGenerator).toString());
+    }
+
+    @Test
+    public void testEngineThreads() throws Exception
+    {
+        final MarkdownConverterEngine engine = new MarkdownConverterEngine();
+        final String markdownText = "# Header\n* First **item**\n  1. Nested [link](https://www.github.com)\n\nLast _line_";
+        final String expectedHtml = engine.toHtmlString(markdownText);
+        final AtomicInteger matchCount = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 100; j++)
+                    {
+                        if (expectedHtml.equals(engine.toHtmlString(markdownText)))
+                        {
+                            matchCount.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Assert.assertEquals(threads.length * 100, matchCount.get());
+        Assert.assertEquals(MarkdownConverter.toHtmlString(markdownText), expectedHtml);
+    }
+
+    @Test
+    public void testTraceListener()
+    {
+        //The listener of the converter receives a trace of the conversion and of the parser used for it
+        final List<String> finishedOperations = new ArrayList<>();
+        MarkdownTraceListener listener = new MarkdownTraceListener()
+        {
+            @Override
+            public void onPhaseBegin(MarkdownTrace.Phase phase)
+            {
+            }
+
+            @Override
+            public void onPhaseEnd(MarkdownTrace.Phase phase)
+            {
+            }
+
+            @Override
+            public void onTraceFinished(MarkdownTrace trace)
+            {
+                finishedOperations.add(trace.getOperation());
+            }
+        };
+        MarkdownConverter.setTraceListener(listener);
+        try
+        {
+            Assert.assertSame(listener, MarkdownConverter.getTraceListener());
+            MarkdownConverter.toHtmlString("Some **bold** text");
+            Assert.assertTrue(finishedOperations.contains("toHtml"));
+            Assert.assertTrue(finishedOperations.contains("findTagBuffer"));
+        }
+        finally
+        {
+            MarkdownConverter.setTraceListener(null);
+        }
+        finishedOperations.clear();
+        MarkdownConverter.toHtmlString("Some **bold** text");
+        Assert.assertEquals(0, finishedOperations.size());
+    }
+
+    @Test
+    public void testParseLimits() throws Exception
+    {
+        //Convert with the tag limit, the second line is added without markdown, for both parsers
+        MarkdownConverterEngine engine = new MarkdownConverterEngine();
+        MarkdownParseCache cache = new MarkdownParseCache();
+        engine.setParseCache(cache);
+        engine.setParseLimits(new MarkdownParseLimits(0, 4, 0, 0));
+        String markdownText = "Some **bold** text\nMore _styled_ text";
+        for (FixedMarkdownParserPolicy policy : new FixedMarkdownParserPolicy[] { FixedMarkdownParserPolicy.ALWAYS_JAVA, FixedMarkdownParserPolicy.ALWAYS_NATIVE })
+        {
+            engine.setParserPolicy(policy);
+            StringBuilder output = new StringBuilder();
+            Assert.assertTrue(engine.appendHtml(markdownText, output));
+            Assert.assertEquals("Some <b>bold</b> text<br/>More _styled_ text", output.toString());
+        }
+        Assert.assertEquals(0, cache.size());
+
+        //Convert normally without limits
+        engine.setParseLimits(null);
+        StringBuilder output = new StringBuilder();
+        Assert.assertFalse(engine.appendHtml(markdownText, output));
+        Assert.assertEquals("Some <b>bold</b> text<br/>More <i>styled</i> text", output.toString());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testParseDocument()
+    {
+        //Split into blocks at empty lines and where the kind of section changes
+        String[] markdownTextLines = new String[]
+        {
+                "# Header",
+                "Some text",
+                "",
+                "1. First",
+                "2. Second",
+                "",
+                "Some text"
+        };
+        String markdownText = joinWithNewlines(markdownTextLines);
+        MarkdownDocument document = MarkdownConverter.parseDocument(markdownText);
+        Assert.assertEquals(4, document.getBlockCount());
+        Assert.assertEquals(MarkdownDocument.BlockType.Header, document.getBlockType(0));
+        Assert.assertEquals(MarkdownDocument.BlockType.Paragraph, document.getBlockType(1));
+        Assert.assertEquals(MarkdownDocument.BlockType.List, document.getBlockType(2));
+        Assert.assertEquals(MarkdownDocument.BlockType.Paragraph, document.getBlockType(3));
+        Assert.assertEquals("1. First\n2. Second", markdownText.substring(document.getBlockStartPosition(2), document.getBlockEndPosition(2)));
+        Assert.assertEquals(0, document.getBlockListMarkers(3).length);
+
+        //Blocks with the same text have different ids, the ids stay the same when another block is edited
+        Assert.assertTrue(document.getBlockId(1) != document.getBlockId(3));
+        markdownTextLines[4] = "2. Second (edited)";
+        MarkdownDocument editedDocument = MarkdownConverter.parseDocument(joinWithNewlines(markdownTextLines));
+        Assert.assertEquals(document.getBlockId(0), editedDocument.getBlockId(0));
+        Assert.assertEquals(document.getBlockId(3), editedDocument.getBlockId(3));
+        Assert.assertTrue(document.getBlockId(2) != editedDocument.getBlockId(2));
+        Assert.assertEquals(3, editedDocument.findBlockIndex(document.getBlockId(3)));
+
+        //The outline is available without rendering
+        Assert.assertEquals(1, document.getOutline().getHeaderCount());
+        Assert.assertEquals("Header", MarkdownConverter.parseOutline(document.getMarkdownText()).getHeaderText(0));
+    }
+
+    @Test
+    public void testBulkSpanGenerator()
+    {
+        //Receive the converted text and all styled ranges at once, sorted on their start position
+        final StringBuilder receivedRanges = new StringBuilder();
+        final AtomicReference<String> receivedText = new AtomicReference<>();
+        MarkdownBulkSpanGenerator generator = new MarkdownBulkSpanGenerator()
+        {
+            @Override
+            public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+            {
+                receivedText.set(text);
+                for (int i = 0; i < ranges.size(); i++)
+                {
+                    receivedRanges.append(ranges.getType(i)).append(ranges.getWeight(i)).append(":").append(ranges.getStart(i)).append("-").append(ranges.getEnd(i)).append("[").append(ranges.getExtra(i)).append("] ");
+                }
+                return null;
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return index + ".";
+            }
+        };
+        MarkdownConverterEngine engine = new MarkdownConverterEngine();
+        engine.toSpannableBulk("# Header\n1. Some **bold**\n2. A [link](url)", generator);
+        Assert.assertEquals("Header\n\nSome bold\nA link", receivedText.get());
+        Assert.assertEquals("Header1:0-6[] Paragraph1:7-8[] OrderedList1:8-17[1.] TextStyle2:13-17[] OrderedList1:18-24[2.] Link0:20-24[url] ", receivedRanges.toString());
+
+        //Sort ranges added out of order, keeping the order of ranges with the same start
+        MarkdownSpanRanges ranges = new MarkdownSpanRanges(1);
+        ranges.add(MarkdownTag.Type.Link, 0, 8, 10, "second");
+        ranges.add(MarkdownTag.Type.TextStyle, 1, 2, 4, "");
+        ranges.add(MarkdownTag.Type.Link, 0, 8, 9, "third");
+        ranges.add(MarkdownTag.Type.Header, 1, 0, 10, "");
+        ranges.sortByStart();
+        Assert.assertEquals(MarkdownTag.Type.Header, ranges.getType(0));
+        Assert.assertEquals(MarkdownTag.Type.TextStyle, ranges.getType(1));
+        Assert.assertEquals("second", ranges.getExtra(2));
+        Assert.assertEquals("third", ranges.getExtra(3));
+
+        //The default span generator is used directly as a bulk span generator, other span generators through an adapter
+        DefaultMarkdownSpanGenerator defaultGenerator = new DefaultMarkdownSpanGenerator();
+        engine.setSpanGenerator(defaultGenerator);
+        Assert.assertSame(defaultGenerator, engine.getBulkSpanGenerator());
+        Assert.assertSame(defaultGenerator, engine.getSpanGenerator());
+        MarkdownSpanGenerator spanGenerator = new MarkdownSpanGenerator()
+        {
+            @Override
+            public void applySpan(SpannableStringBuilder builder, MarkdownTag.Type type, int weight, int start, int end, String extra)
+            {
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return "";
+            }
+        };
+        engine.setSpanGenerator(spanGenerator);
+        Assert.assertTrue(engine.getBulkSpanGenerator() instanceof MarkdownSpanGeneratorAdapter);
+        Assert.assertSame(spanGenerator, engine.getSpanGenerator());
+        engine.setSpanGenerator(null);
+        Assert.assertTrue(engine.getBulkSpanGenerator() instanceof DefaultMarkdownSpanGenerator);
+    }
+
+    @Test
+    public void testConvertAsync() throws Exception
+    {
+        //Convert on a background thread and deliver the result on the calling executor
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicReference<String> result = new AtomicReference<>();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        Executor directExecutor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        MarkdownConversionTask<String> task = MarkdownConverter.toHtmlStringAsync("Some **bold** text", executor, directExecutor, new MarkdownConversionCallback<String>()
+        {
+            @Override
+            public void onConverted(String html)
+            {
+                result.set(html);
+                delivered.countDown();
+            }
+        });
+        Assert.assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("Some <b>bold</b> text", result.get());
+        Assert.assertEquals("Some <b>bold</b> text", task.get());
+        executor.shutdown();
+
+        //Cancel before the conversion runs, the callback isn't called
+        final List<Runnable> pendingWork = new ArrayList<>();
+        Executor queueExecutor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                pendingWork.add(command);
+            }
+        };
+        task = MarkdownConverter.toHtmlStringAsync("Cancelled **text**", queueExecutor, directExecutor, new MarkdownConversionCallback<String>()
+        {
+            @Override
+            public void onConverted(String html)
+            {
+                Assert.fail("Cancelled conversions shouldn't be delivered");
+            }
+        });
+        Assert.assertTrue(task.cancel(true));
+        Assert.assertTrue(task.getCancellationSignal().isCancelled());
+        for (Runnable work : pendingWork)
+        {
+            work.run();
+        }
+        try
+        {
+            task.get();
+            Assert.fail("The task should be cancelled");
+        }
+        catch (CancellationException ignored)
+        {
+        }
+    }
+
+    @Test
+    public void testConvertBatch() throws Exception
+    {
+        //Convert documents on multiple threads, a failing document doesn't stop the others
+        List<String> markdownTexts = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+        {
+            markdownTexts.add(i == 50 ? null : "# Document " + i + "\n\nSome **bold** text and a [link](https://www.example.com/" + i + ")");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        MarkdownBatchResult<String> result = MarkdownConverter.getDefaultEngine().toHtmlStrings(markdownTexts, executor, 4, null);
+        Assert.assertEquals(markdownTexts.size(), result.size());
+        Assert.assertEquals(1, result.getFailureCount());
+        Assert.assertFalse(result.isSuccessful(50));
+        Assert.assertNull(result.getResult(50));
+        Assert.assertTrue(result.getError(50) instanceof NullPointerException);
+        for (int i = 0; i < markdownTexts.size(); i++)
+        {
+            if (i != 50)
+            {
+                Assert.assertTrue(result.isSuccessful(i));
+                Assert.assertEquals(MarkdownConverter.toHtmlString(markdownTexts.get(i)), result.getResult(i));
+            }
+        }
+
+        //A cancelled batch reports an error for each document
+        MarkdownCancellationSignal signal = new MarkdownCancellationSignal();
+        signal.cancel();
+        result = MarkdownConverter.getDefaultEngine().toHtmlStrings(markdownTexts, executor, 4, signal);
+        Assert.assertEquals(markdownTexts.size(), result.getFailureCount());
+        Assert.assertTrue(result.getError(0) instanceof MarkdownCancelledException);
+
+        //The batch is finished by the calling thread when the executor doesn't run the workers
+        Executor queueExecutor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+            }
+        };
+        result = MarkdownConverter.toHtmlStrings(markdownTexts.subList(0, 10), queueExecutor);
+        Assert.assertEquals(0, result.getFailureCount());
+        Assert.assertEquals(MarkdownConverter.toHtmlString(markdownTexts.get(9)), result.getResult(9));
+
+        //An error (not an exception) of a document on the calling thread is reported as well, the other documents are still converted
+        final AtomicInteger convertedCount = new AtomicInteger();
+        MarkdownBulkSpanGenerator failingGenerator = new MarkdownBulkSpanGenerator()
+        {
+            @Override
+            public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+            {
+                if (text.startsWith("Document 5\n"))
+                {
+                    throw new StackOverflowError();
+                }
+                convertedCount.incrementAndGet();
+                return null;
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return "";
+            }
+        };
+        MarkdownBatchResult<Spanned> spannedResult = MarkdownConverter.getDefaultEngine().toSpannablesBulk(markdownTexts.subList(0, 10), failingGenerator, queueExecutor, 4, null);
+        Assert.assertEquals(1, spannedResult.getFailureCount());
+        Assert.assertTrue(spannedResult.getError(5) instanceof StackOverflowError);
+        Assert.assertEquals(9, convertedCount.get());
+        executor.shutdown();
+    }
+
+    /**
+     * Helpers
+     */
+    private String joinWithNewlines(String[] stringArray)
+    {
+        String joinedText = "";
+        boolean firstLine = true;
+        for (String string : stringArray)
+        {
+            if (!firstLine)
+            {
+                joinedText += "\n";
+            }
+            joinedText += string;
+            firstLine = false;
+        }
+        return joinedText;
+    }
+
+    /**
+     * Helper class for spannable results, the android text classes aren't available in unit tests
+     */
+    private static class SimpleSpannable implements Spannable
+    {
+        private final String text;
+        private final List<Object> spans = new ArrayList<>();
+
+        private SimpleSpannable(String text)
+        {
+            this.text = text;
+        }
+
+        @Override
+        public void setSpan(Object what, int start, int end, int flags)
+        {
+            spans.add(what);
+        }
+
+        @Override
+        public void removeSpan(Object what)
+        {
+            spans.remove(what);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] getSpans(int start, int end, Class<T> type)
+        {
+            List<Object> foundSpans = new ArrayList<>();
+            for (Object span : spans)
+            {
+                if (type.isInstance(span))
+                {
+                    foundSpans.add(span);
+                }
+            }
+            return foundSpans.toArray((T[])Array.newInstance(type, foundSpans.size()));
+        }
+
+        @Override
+        public int getSpanStart(Object tag)
+        {
+            return 0;
+        }
+
+        @Override
+        public int getSpanEnd(Object tag)
+        {
+            return text.length();
+        }
+
+        @Override
+        public int getSpanFlags(Object tag)
+        {
+            return 0;
+        }
+
+        @Override
+        public int nextSpanTransition(int start, int limit, Class type)
+        {
+            return limit;
+        }
+
+        @Override
+        public int length()
+        {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString()
+        {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.crescentflare.markdownparser.helper;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test: parser policies
+ * Tests the selection between the java and native parser
+ */
+public class MarkdownParserPolicyTest
+{
+    /**
+     * Tests
+     */
+    @Test
+    public void testFixedPolicy()
+    {
+        Assert.assertFalse(new FixedMarkdownParserPolicy().useNativeParser(repeatText(128)));
+        Assert.assertTrue(new FixedMarkdownParserPolicy().useNativeParser(repeatText(129)));
+        Assert.assertFalse(FixedMarkdownParserPolicy.ALWAYS_JAVA.useNativeParser(repeatText(100000)));
+        Assert.assertTrue(FixedMarkdownParserPolicy.ALWAYS_NATIVE.useNativeParser(""));
+    }
+
+    @Test
+    public void testAdaptivePolicy()
+    {
+        //Java is faster for short texts, native for long texts (after a slow cold start which is skipped)
+        AdaptiveMarkdownParserPolicy policy = new AdaptiveMarkdownParserPolicy();
+        String shortText = repeatText(100);
+        String longText = repeatText(3000);
+        Assert.assertEquals(-1, policy.getCrossoverLength());
+        int longNativeCount = 0;
+        for (int i = 0; i < (AdaptiveMarkdownParserPolicy.CALIBRATION_SAMPLES + AdaptiveMarkdownParserPolicy.WARMUP_SAMPLES) * 2; i++)
+        {
+            boolean shortNative = policy.useNativeParser(shortText);
+            policy.onParsed(shortText, shortNative, shortNative ? 2000 : 1000);
+            boolean longNative = policy.useNativeParser(longText);
+            if (longNative)
+            {
+                longNativeCount++;
+            }
+            policy.onParsed(longText, longNative, longNative ? (longNativeCount <= AdaptiveMarkdownParserPolicy.WARMUP_SAMPLES ? 100000000 : 30000) : 60000);
+        }
+        Assert.assertFalse(policy.useNativeParser(shortText));
+        Assert.assertTrue(policy.useNativeParser(longText));
+        Assert.assertEquals(2048, policy.getCrossoverLength());
+
+        //The calibration can be restored
+        AdaptiveMarkdownParserPolicy restoredPolicy = new AdaptiveMarkdownParserPolicy();
+        restoredPolicy.restore(policy.store());
+        Assert.assertFalse(restoredPolicy.useNativeParser(shortText));
+        Assert.assertTrue(restoredPolicy.useNativeParser(longText));
+        Assert.assertEquals(2048, restoredPolicy.getCrossoverLength());
+
+        //The slower parser is sampled now and then, the choice changes when it becomes faster
+        int shortNativeCount = 0;
+        for (int i = 0; i < AdaptiveMarkdownParserPolicy.RESAMPLE_INTERVAL * 20; i++)
+        {
+            boolean shortNative = restoredPolicy.useNativeParser(shortText);
+            if (shortNative)
+            {
+                shortNativeCount++;
+            }
+            restoredPolicy.onParsed(shortText, shortNative, shortNative ? 500 : 1000);
+            if (i == AdaptiveMarkdownParserPolicy.RESAMPLE_INTERVAL - 1)
+            {
+                Assert.assertEquals(1, shortNativeCount);
+            }
+        }
+        Assert.assertTrue(restoredPolicy.useNativeParser(shortText));
+        Assert.assertEquals(64, restoredPolicy.getCrossoverLength());
+        restoredPolicy.recalibrate();
+        Assert.assertEquals(-1, restoredPolicy.getCrossoverLength());
+    }
+
+    /**
+     * Helpers
+     */
+    private String repeatText(int length)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            builder.append('a');
+        }
+        return builder.toString();
+    }
+}
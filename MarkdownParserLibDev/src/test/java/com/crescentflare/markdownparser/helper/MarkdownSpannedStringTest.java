@@ -0,0 +1,131 @@
+package com.crescentflare.markdownparser.helper;
+
+import android.text.Spanned;
+
+import com.crescentflare.markdownparser.MarkdownConverterEngine;
+import com.crescentflare.markdownparser.MarkdownRenderCache;
+import com.crescentflare.markdownparsercore.MarkdownTag;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test: read-only spanned string
+ * Tests span lookups on the sorted span arrays
+ */
+public class MarkdownSpannedStringTest
+{
+    /**
+     * Tests
+     */
+    @Test
+    public void testSpanLookup()
+    {
+        //Spans are found when they overlap, touching spans only when the span or the query range is empty
+        StyleMarker bold = new StyleMarker();
+        StyleMarker italic = new StyleMarker();
+        Object paragraph = new Object();
+        Object empty = new Object();
+        MarkdownSpannedString spanned = new MarkdownSpannedString(
+                "Some bold and italic text",
+                new Object[] { paragraph, bold, empty, italic },
+                new int[] { 0, 5, 10, 14 },
+                new int[] { 25, 9, 10, 20 },
+                4
+        );
+        Assert.assertEquals(4, spanned.getSpans(0, spanned.length(), Object.class).length);
+        Assert.assertEquals(2, spanned.getSpans(0, spanned.length(), StyleMarker.class).length);
+        Assert.assertEquals(0, spanned.getSpans(0, 5, StyleMarker.class).length);
+        Assert.assertSame(bold, spanned.getSpans(5, 5, StyleMarker.class)[0]);
+        Assert.assertEquals(0, spanned.getSpans(9, 14, StyleMarker.class).length);
+        Assert.assertSame(empty, spanned.getSpans(9, 14, Object.class)[1]);
+        Assert.assertSame(italic, spanned.getSpans(15, 16, StyleMarker.class)[0]);
+        Assert.assertEquals(2, spanned.getSpans(20, 20, null).length);
+
+        //Positions of the spans
+        Assert.assertEquals(5, spanned.getSpanStart(bold));
+        Assert.assertEquals(9, spanned.getSpanEnd(bold));
+        Assert.assertEquals(14, spanned.getSpanStart(italic));
+        Assert.assertEquals(Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, spanned.getSpanFlags(italic));
+        Assert.assertEquals(-1, spanned.getSpanStart(new StyleMarker()));
+        Assert.assertEquals(0, spanned.getSpanFlags(new StyleMarker()));
+
+        //Transitions of span starts and ends
+        Assert.assertEquals(5, spanned.nextSpanTransition(0, spanned.length(), StyleMarker.class));
+        Assert.assertEquals(9, spanned.nextSpanTransition(5, spanned.length(), StyleMarker.class));
+        Assert.assertEquals(10, spanned.nextSpanTransition(9, spanned.length(), Object.class));
+        Assert.assertEquals(14, spanned.nextSpanTransition(9, spanned.length(), StyleMarker.class));
+        Assert.assertEquals(12, spanned.nextSpanTransition(9, 12, StyleMarker.class));
+        Assert.assertEquals(25, spanned.nextSpanTransition(20, spanned.length(), null));
+    }
+
+    @Test
+    public void testSubSequence()
+    {
+        StyleMarker bold = new StyleMarker();
+        StyleMarker italic = new StyleMarker();
+        MarkdownSpannedString spanned = new MarkdownSpannedString("Some bold and italic text", new Object[] { bold, italic }, new int[] { 5, 14 }, new int[] { 9, 20 }, 2);
+        Spanned subSequence = (Spanned)spanned.subSequence(7, 16);
+        Assert.assertEquals("ld and it", subSequence.toString());
+        Assert.assertEquals(0, subSequence.getSpanStart(bold));
+        Assert.assertEquals(2, subSequence.getSpanEnd(bold));
+        Assert.assertEquals(7, subSequence.getSpanStart(italic));
+        Assert.assertEquals(9, subSequence.getSpanEnd(italic));
+        Assert.assertEquals(0, ((Spanned)spanned.subSequence(9, 14)).getSpans(0, 5, Object.class).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedSpans()
+    {
+        new MarkdownSpannedString("Some text", new Object[] { new Object(), new Object() }, new int[] { 5, 0 }, new int[] { 9, 4 }, 2);
+    }
+
+    @Test
+    public void testConversion()
+    {
+        //Create the spanned string from the ranges of a conversion, it's cached without a copy
+        MarkdownBulkSpanGenerator generator = new MarkdownBulkSpanGenerator()
+        {
+            @Override
+            public Spanned createSpanned(String text, MarkdownSpanRanges ranges)
+            {
+                Object[] spans = new Object[ranges.size()];
+                int[] starts = new int[ranges.size()];
+                int[] ends = new int[ranges.size()];
+                for (int i = 0; i < ranges.size(); i++)
+                {
+                    spans[i] = ranges.getType(i);
+                    starts[i] = ranges.getStart(i);
+                    ends[i] = ranges.getEnd(i);
+                }
+                return new MarkdownSpannedString(text, spans, starts, ends, ranges.size());
+            }
+
+            @Override
+            public String getListToken(MarkdownTag.Type type, int weight, int index)
+            {
+                return "";
+            }
+        };
+        MarkdownConverterEngine engine = new MarkdownConverterEngine();
+        engine.setRenderCache(new MarkdownRenderCache());
+        Spanned result = engine.toSpannableBulk("Some **bold** text", generator);
+        Assert.assertEquals("Some bold text", result.toString());
+        Assert.assertEquals(5, result.getSpanStart(MarkdownTag.Type.TextStyle));
+        Assert.assertEquals(9, result.getSpanEnd(MarkdownTag.Type.TextStyle));
+        Assert.assertSame(result, engine.toSpannableBulk("Some **bold** text", generator));
+
+        //The default generator creates a read-only spanned string
+        Spanned plainResult = new DefaultMarkdownSpanGenerator().createSpanned("Plain text", new MarkdownSpanRanges());
+        Assert.assertTrue(plainResult instanceof MarkdownSpannedString);
+        Assert.assertEquals("Plain text", plainResult.toString());
+    }
+
+    /**
+     * Helper span class
+     */
+    private static class StyleMarker
+    {
+    }
+}